@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.vmware.vchs.iam.v2.Users;
+
+/**
+ * Measures the XMLGregorianClassConverter adapters on their own, and the shared Gson instance
+ * writing the users payload, where they are called for every date.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GsonAdapterBenchmark {
+    private final HttpUtils.XMLGregorianClassConverter.Serializer serializer =
+            new HttpUtils.XMLGregorianClassConverter.Serializer();
+    private final HttpUtils.XMLGregorianClassConverter.Deserializer deserializer =
+            new HttpUtils.XMLGregorianClassConverter.Deserializer();
+
+    private XMLGregorianCalendar date;
+    private JsonElement json;
+    private Users users;
+
+    @Setup
+    public void setUp() throws Exception {
+        date = DatatypeFactory.newInstance().newXMLGregorianCalendar("2014-01-10T08:00:12.000Z");
+        json = new JsonPrimitive(date.toXMLFormat());
+        users = (Users) Payload.USERS.parse();
+    }
+
+    @Benchmark
+    public JsonElement serialize() {
+        return serializer.serialize(date, XMLGregorianCalendar.class, null);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return deserializer.deserialize(json, XMLGregorianCalendar.class, null);
+    }
+
+    @Benchmark
+    public String usersToJson() {
+        return HttpUtils.getGson().toJson(users);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBElement;
+
+import org.apache.http.entity.StringEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.vchs.vms.billabledata.v1.BilledUsageType;
+import com.vmware.vcloud.api.rest.schema_v1_5.DeployVAppParamsType;
+import com.vmware.vcloud.api.rest.schema_v1_5.InstantiateVAppTemplateParamsType;
+import com.vmware.vcloud.api.rest.schema_v1_5.InstantiationParamsType;
+import com.vmware.vcloud.api.rest.schema_v1_5.ObjectFactory;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordsType;
+import com.vmware.vcloud.api.rest.schema_v1_5.ReferenceType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppType;
+
+/**
+ * Measures HttpUtils.marshal() for the request bodies the samples send, deploy and instantiate
+ * parameters, and for the larger parsed payloads to show how it scales with the document size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarshalBenchmark {
+    private JAXBElement<DeployVAppParamsType> deployParams;
+    private JAXBElement<InstantiateVAppTemplateParamsType> instantiateParams;
+    private JAXBElement<VAppType> vApp;
+    private JAXBElement<QueryResultRecordsType> queryRecords;
+    private JAXBElement<BilledUsageType> billedUsage;
+
+    @Setup
+    public void setUp() {
+        ObjectFactory obj = new ObjectFactory();
+
+        // Built the same way as in Compute.deployUndeployVM()
+        DeployVAppParamsType deploy = new DeployVAppParamsType();
+        deploy.setPowerOn(Boolean.TRUE);
+        deployParams = obj.createDeployVAppParams(deploy);
+
+        // Built the same way as in Compute.createVmFromTemplate()
+        ReferenceType source = new ReferenceType();
+        source.setHref("https://example.com/api/vAppTemplate/vappTemplate-"
+                + "00000000-0000-0000-0000-000000000000");
+        InstantiateVAppTemplateParamsType instantiate = new InstantiateVAppTemplateParamsType();
+        instantiate.setName("benchmark");
+        instantiate.setDeploy(Boolean.TRUE);
+        instantiate.setPowerOn(Boolean.TRUE);
+        instantiate.setSource(source);
+        instantiate.setDescription("VM Create from template");
+        instantiate.setAllEULAsAccepted(Boolean.TRUE);
+        instantiate.setInstantiationParams(new InstantiationParamsType());
+        instantiateParams = obj.createInstantiateVAppTemplateParams(instantiate);
+
+        vApp = obj.createVApp((VAppType) Payload.VAPP.parse());
+        queryRecords = obj.createQueryResultRecords((QueryResultRecordsType) Payload.QUERY_RECORDS
+                .parse());
+        billedUsage = new com.vmware.vchs.vms.billabledata.v1.ObjectFactory()
+                .createBilledUsage((BilledUsageType) Payload.BILLED_USAGE.parse());
+    }
+
+    @Benchmark
+    public StringEntity deployParams() {
+        return HttpUtils.marshal(DeployVAppParamsType.class, deployParams);
+    }
+
+    @Benchmark
+    public StringEntity instantiateParams() {
+        return HttpUtils.marshal(InstantiateVAppTemplateParamsType.class, instantiateParams);
+    }
+
+    @Benchmark
+    public StringEntity vApp() {
+        return HttpUtils.marshal(VAppType.class, vApp);
+    }
+
+    @Benchmark
+    public StringEntity queryRecords() {
+        return HttpUtils.marshal(QueryResultRecordsType.class, queryRecords);
+    }
+
+    @Benchmark
+    public StringEntity billedUsage() {
+        return HttpUtils.marshal(BilledUsageType.class, billedUsage);
+    }
+}
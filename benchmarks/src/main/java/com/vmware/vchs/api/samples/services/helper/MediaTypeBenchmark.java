@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures HttpUtils.buildMediaType(), called for the Accept and Content-Type headers of every
+ * request made through HttpUtils.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MediaTypeBenchmark {
+    public String mediaType = "application/json";
+    public String classType = "com.vmware.vchs.sc.restapi.model.instancetype";
+    public String version = "5.7";
+
+    @Benchmark
+    public String mediaTypeOnly() {
+        return HttpUtils.buildMediaType(mediaType, null, null);
+    }
+
+    @Benchmark
+    public String withVersion() {
+        return HttpUtils.buildMediaType(mediaType, null, version);
+    }
+
+    @Benchmark
+    public String withClassAndVersion() {
+        return HttpUtils.buildMediaType(mediaType, classType, version);
+    }
+}
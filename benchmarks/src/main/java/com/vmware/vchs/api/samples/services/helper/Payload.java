@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.entity.BasicHttpEntity;
+
+import com.vmware.vchs.iam.v2.Users;
+import com.vmware.vchs.vms.billabledata.v1.BilledUsageType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordsType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppType;
+
+/**
+ * The response bodies the benchmarks parse. They are shaped like the responses of the API for a
+ * vApp with several VMs, a page of VM query records, a month of billed usage and a list of users,
+ * and are loaded once into memory so reading them costs nothing but the parsing.
+ */
+public enum Payload {
+    VAPP("vapp.xml", "application/vnd.vmware.vcloud.vApp+xml;version=5.7", VAppType.class),
+    QUERY_RECORDS("query-vm-records.xml",
+            "application/vnd.vmware.vcloud.query.records+xml;version=5.7",
+            QueryResultRecordsType.class),
+    BILLED_USAGE("billed-usage.xml", "application/xml;version=5.7", BilledUsageType.class),
+    USERS("users.json", "application/json;version=5.7", Users.class);
+
+    private final String resource;
+    private final String contentType;
+    private final Class<?> type;
+    private byte[] body;
+
+    private Payload(String resource, String contentType, Class<?> type) {
+        this.resource = resource;
+        this.contentType = contentType;
+        this.type = type;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public boolean isJson() {
+        return contentType.contains("json");
+    }
+
+    /**
+     * @return the body of the payload, read from the classpath on first use
+     */
+    public synchronized byte[] getBody() {
+        if (null == body) {
+            body = read("/payloads/" + resource);
+        }
+
+        return body;
+    }
+
+    /**
+     * @return a new stream over the body of the payload
+     */
+    public InputStream newStream() {
+        return new ByteArrayInputStream(getBody());
+    }
+
+    /**
+     * @return a new entity over the body of the payload, as a response would carry it
+     */
+    public BasicHttpEntity newEntity() {
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(newStream());
+        entity.setContentLength(getBody().length);
+        entity.setContentType(contentType);
+
+        return entity;
+    }
+
+    /**
+     * @return the payload parsed with HttpUtils.unmarshal()
+     */
+    public Object parse() {
+        return HttpUtils.unmarshal(newStream(), contentType, null, type);
+    }
+
+    private static byte[] read(String name) {
+        InputStream is = Payload.class.getResourceAsStream(name);
+        if (null == is) {
+            throw new RuntimeException("Payload " + name + " is not on the classpath");
+        }
+
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+
+            return os.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures HttpUtils.unmarshal() over each payload, through the JAXB branch for the XML payloads
+ * and the Gson branch for the json one.
+ *
+ * streaming and entity parse straight from the body stream the way responses are handled today.
+ * buffered first reads the whole body into a String with HttpUtils.getContent() and parses that,
+ * the way responses used to be handled, so the two can be compared.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UnmarshalBenchmark {
+    @Param({ "VAPP", "QUERY_RECORDS", "BILLED_USAGE", "USERS" })
+    public Payload payload;
+
+    @Setup
+    public void setUp() {
+        // Loads the body and warms the JAXB context before measuring
+        payload.parse();
+    }
+
+    @Benchmark
+    public Object streaming() {
+        return HttpUtils.unmarshal(payload.newStream(), payload.getContentType(), null,
+                payload.getType());
+    }
+
+    @Benchmark
+    public Object entity() {
+        return HttpUtils.unmarshal(payload.newEntity(), payload.getType());
+    }
+
+    @Benchmark
+    public Object buffered() throws JAXBException {
+        String body = HttpUtils.getContent(payload.newStream());
+
+        if (payload.isJson()) {
+            return HttpUtils.getGson().fromJson(body, payload.getType());
+        }
+
+        return JAXBContextRegistry.getUnmarshaller(payload.getType())
+                .unmarshal(new StreamSource(new StringReader(body)), payload.getType())
+                .getValue();
+    }
+}
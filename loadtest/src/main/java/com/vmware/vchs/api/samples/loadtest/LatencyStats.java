@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latencies of one operation of a load test. Every sample is kept, so percentiles are exact;
+ * at 8 bytes a sample this is fine for the length of a load test run.
+ */
+public class LatencyStats {
+    private final String name;
+    private long[] samples = new long[1024];
+    private int count = 0;
+    private int errors = 0;
+
+    /**
+     * @param name
+     *            the name of the operation
+     */
+    public LatencyStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records one call of the operation.
+     *
+     * @param nanos
+     *            how long the call took
+     * @param success
+     *            false if the call failed
+     */
+    public synchronized void record(long nanos, boolean success) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+
+        samples[count++] = nanos;
+        if (!success) {
+            errors++;
+        }
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized int getErrors() {
+        return errors;
+    }
+
+    /**
+     * @param percentile
+     *            the percentile to compute, from 0 to 100
+     * @return the latency in milliseconds below which the given percentage of calls completed,
+     *         0 if no call was recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, count);
+        }
+
+        if (0 == sorted.length) {
+            return 0;
+        }
+
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        index = Math.max(0, Math.min(sorted.length - 1, index));
+
+        return sorted[index] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
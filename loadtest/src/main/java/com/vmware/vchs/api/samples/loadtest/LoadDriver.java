@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+
+import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.Billing;
+import com.vmware.vchs.api.samples.services.Compute;
+import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.Metering;
+import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
+import com.vmware.vchs.api.samples.services.helper.RequestMetrics;
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
+
+/**
+ * LoadDriver
+ * 
+ * This class runs the call patterns of the samples from many threads at once for a given time and
+ * reports the throughput and latency percentiles of every operation. Each thread repeatedly logs
+ * in to IAM, lists the compute instances, then for every instance logs in, reads the org and its
+ * VDCs and lists the VMs and vApps of each VDC, and finally lists the users and reads the billed
+ * and billable usage, as the ListVdcAndVmIds, UserManagement and MeteringAndBilling samples do.
+ * 
+ * Without a hostname an embedded MockApiServer is started and the load is run against it, so no
+ * real service is reached. The options starting with mock only apply to the embedded server.
+ * 
+ * Argument Line:
+ * 
+ * [--hostname [url]] [--username [username]] [--password [password]] [--version [version]]
+ * [--threads [count]] [--duration [seconds]] [--maxconnections [count]] [--mocklatency
+ * [min-max ms]] [--mockerrorrate [0 to 1]] [--mockregions [count]] [--mockvdcs [count]]
+ * [--mockvapps [count]] [--mockvms [count]]
+ */
+public class LoadDriver {
+    static final String OPTION_HOSTNAME = "hostname";
+    static final String OPTION_USERNAME = "username";
+    static final String OPTION_PASSWORD = "password";
+    static final String OPTION_VERSION = "version";
+    static final String OPTION_THREADS = "threads";
+    static final String OPTION_DURATION = "duration";
+    static final String OPTION_MAX_CONNECTIONS = "maxconnections";
+    static final String OPTION_MOCK_LATENCY = "mocklatency";
+    static final String OPTION_MOCK_ERROR_RATE = "mockerrorrate";
+    static final String OPTION_MOCK_REGIONS = "mockregions";
+    static final String OPTION_MOCK_VDCS = "mockvdcs";
+    static final String OPTION_MOCK_VAPPS = "mockvapps";
+    static final String OPTION_MOCK_VMS = "mockvms";
+
+    /*
+     * The operations reported on, in the order they are made
+     */
+    static final String IAM_LOGIN = "iam.login";
+    static final String SC_INSTANCES = "sc.instances";
+    static final String COMPUTE_LOGIN = "compute.login";
+    static final String COMPUTE_ORG = "compute.org";
+    static final String COMPUTE_VDC = "compute.vdc";
+    static final String COMPUTE_VM_RECORDS = "compute.vmRecords";
+    static final String COMPUTE_VAPPS = "compute.vApps";
+    static final String IAM_USERS = "iam.users";
+    static final String BILLING_BILLED_USAGE = "billing.billedUsage";
+    static final String METERING_BILLABLE_USAGE = "metering.billableUsage";
+
+    private static final String MOCK_SERVICE_INSTANCE_ID = "instance-0";
+
+    private String hostname = null;
+    private String username = "loadtest";
+    private String password = "loadtest";
+    private String version = SampleConstants.DEFAULT_VCHS_VERSION;
+    private int threads = 8;
+    private int durationSeconds = 30;
+    private int maxConnections = 0;
+    private long mockMinLatency = 0;
+    private long mockMaxLatency = 0;
+    private double mockErrorRate = 0;
+    private int mockRegions = 2;
+    private int mockVdcs = 2;
+    private int mockVApps = 10;
+    private int mockVms = 2;
+
+    private volatile Map<String, LatencyStats> stats;
+    private final AtomicLong iterations = new AtomicLong();
+
+    public static void main(String[] args) {
+        LoadDriver instance = new LoadDriver();
+        instance.go(args);
+    }
+
+    private void go(String[] args) {
+        parseOptions(args);
+
+        MockApiServer server = null;
+        if (null == hostname) {
+            server = new MockApiServer().setThreads(Math.max(MockApiServer.DEFAULT_THREADS,
+                    threads * 4));
+            server.setInventory(mockRegions, mockVdcs, mockVApps, mockVms, 50, 40);
+            server.setLatency(mockMinLatency, mockMaxLatency);
+            server.setErrorRate(mockErrorRate);
+            server.start();
+            hostname = server.getUrl();
+            System.out.println("Started mock API server at " + hostname);
+        }
+
+        // Every thread can have a vApp fan-out in flight on top of its own request
+        int connections = maxConnections > 0 ? maxConnections : threads
+                * (ParallelRequests.DEFAULT_CONCURRENCY + 1);
+        HttpUtils.configureConnectionPool(Math.max(connections,
+                HttpUtils.DEFAULT_MAX_CONNECTIONS), connections);
+
+        try {
+            // The first pass creates the JAXB contexts and connections, which is not measured
+            System.out.println("Warming up...");
+            RequestMetrics.setEnabled(true);
+            resetStats();
+            iteration();
+            resetStats();
+
+            System.out.println("Running " + threads + " threads against " + hostname + " for "
+                    + durationSeconds + "s...");
+            long elapsed = run();
+            report(elapsed);
+
+            if (null != server) {
+                System.out.println(String.format(
+                        "\nMock API server: %d requests, %d injected errors, %d not modified",
+                        server.getRequestCount(), server.getErrorCount(),
+                        server.getNotModifiedCount()));
+            }
+        } finally {
+            if (null != server) {
+                server.stop();
+            }
+        }
+    }
+
+    private void resetStats() {
+        Map<String, LatencyStats> reset = new LinkedHashMap<String, LatencyStats>();
+        for (String operation : new String[] { IAM_LOGIN, SC_INSTANCES, COMPUTE_LOGIN,
+                COMPUTE_ORG, COMPUTE_VDC, COMPUTE_VM_RECORDS, COMPUTE_VAPPS, IAM_USERS,
+                BILLING_BILLED_USAGE, METERING_BILLABLE_USAGE }) {
+            reset.put(operation, new LatencyStats(operation));
+        }
+
+        stats = reset;
+        RequestMetrics.reset();
+    }
+
+    /*
+     * Runs the iterations on all the threads until the duration is over, returning how long it
+     * took in nanoseconds
+     */
+    private long run() {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new AsyncExecutor.DaemonThreadFactory("load-driver"));
+
+        List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Callable<Void>() {
+                public Void call() {
+                    while (System.nanoTime() < deadline) {
+                        iteration();
+                        iterations.incrementAndGet();
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        try {
+            for (Future<Void> worker : executor.invokeAll(workers)) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    /*
+     * One pass over the call patterns of the samples
+     */
+    private void iteration() {
+        final String iamToken = time(IAM_LOGIN, new Callable<String>() {
+            public String call() {
+                return IAM.login(hostname, username, password, version);
+            }
+        });
+        if (null == iamToken) {
+            return;
+        }
+
+        Collection<InstanceType> instances = time(SC_INSTANCES,
+                new Callable<Collection<InstanceType>>() {
+                    public Collection<InstanceType> call() {
+                        return ServiceController.getInstancesForServiceType(hostname, version,
+                                iamToken, SampleConstants.COMPUTE_SERVICE_TYPE);
+                    }
+                });
+
+        if (null != instances) {
+            for (InstanceType instance : instances) {
+                compute(instance);
+            }
+        }
+
+        time(IAM_USERS, new Callable<Object>() {
+            public Object call() {
+                return IAM.getUsers(hostname, iamToken, version);
+            }
+        });
+
+        time(BILLING_BILLED_USAGE, new Callable<Object>() {
+            public Object call() {
+                return Billing.getL1BilledUsage(hostname, iamToken, version,
+                        MOCK_SERVICE_INSTANCE_ID, "l1");
+            }
+        });
+
+        time(METERING_BILLABLE_USAGE, new Callable<Object>() {
+            public Object call() {
+                return Metering.getBillableUsage(hostname, iamToken, version,
+                        MOCK_SERVICE_INSTANCE_ID);
+            }
+        });
+    }
+
+    private void compute(final InstanceType instance) {
+        final InstanceAttribute ia = HttpUtils.getGson().fromJson(
+                instance.getInstanceAttributes(), InstanceAttribute.class);
+
+        final String vcdToken = time(COMPUTE_LOGIN, new Callable<String>() {
+            public String call() {
+                return Compute.login(ia.getSessionUri(), username, password, ia.getOrgName(),
+                        version);
+            }
+        });
+        if (null == vcdToken) {
+            return;
+        }
+
+        OrgListType org = time(COMPUTE_ORG, new Callable<OrgListType>() {
+            public OrgListType call() {
+                return Compute.getOrgDetails(instance.getApiUrl(), vcdToken, version);
+            }
+        });
+        if (null == org) {
+            return;
+        }
+
+        for (final String href : Compute.getVdcHrefs(org)) {
+            final VdcType vdc = time(COMPUTE_VDC, new Callable<VdcType>() {
+                public VdcType call() {
+                    return Compute.getVdc(href, vcdToken, version);
+                }
+            });
+            if (null == vdc) {
+                continue;
+            }
+
+            time(COMPUTE_VM_RECORDS, new Callable<Object>() {
+                public Object call() {
+                    return Compute.getVmRecordsForVdc(instance.getApiUrl(), vdc, vcdToken,
+                            version, SampleConstants.DEFAULT_QUERY_PAGE_SIZE);
+                }
+            });
+
+            time(COMPUTE_VAPPS, new Callable<Object>() {
+                public Object call() {
+                    return Compute.getVAppsForVdc(vdc, vcdToken, version,
+                            ParallelRequests.DEFAULT_CONCURRENCY, false, null);
+                }
+            });
+        }
+    }
+
+    /*
+     * Makes the call, recording its latency and whether it failed. A call fails if it throws or
+     * returns null, which is how the services report errors.
+     */
+    private <T> T time(String operation, Callable<T> call) {
+        long start = System.nanoTime();
+        T result = null;
+
+        try {
+            result = call.call();
+        } catch (Exception e) {
+            result = null;
+        }
+
+        stats.get(operation).record(System.nanoTime() - start, null != result);
+        return result;
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+
+        System.out.println(String.format("\n%d iterations in %.1fs (%.1f/s)\n", iterations.get(),
+                seconds, iterations.get() / seconds));
+        System.out.println(String.format("%-24s %9s %7s %9s %9s %9s %9s %9s", "Operation",
+                "Calls", "Errors", "Calls/s", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+
+        for (LatencyStats s : stats.values()) {
+            System.out.println(String.format("%-24s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f",
+                    s.getName(), s.getCount(), s.getErrors(), s.getCount() / seconds,
+                    s.getPercentileMillis(50), s.getPercentileMillis(90),
+                    s.getPercentileMillis(99), s.getPercentileMillis(100)));
+        }
+
+        System.out.println("\nPer endpoint, as seen by HttpUtils:\n");
+        System.out.print(RequestMetrics.toText());
+    }
+
+    private void parseOptions(String[] args) {
+        Options options = new Options();
+        options.addOption(new Option(OPTION_HOSTNAME, true,
+                "The vCHS OnDemand Server URL to load, an embedded mock server is used if not "
+                        + "set."));
+        options.addOption(new Option(OPTION_USERNAME, true, "The username to log in with."));
+        options.addOption(new Option(OPTION_PASSWORD, true,
+                "The password for username to log in with."));
+        options.addOption(new Option(OPTION_VERSION, true,
+                "The version of the OnDemand API to call if the default of "
+                        + SampleConstants.DEFAULT_VCHS_VERSION + " is not to be used."));
+        options.addOption(new Option(OPTION_THREADS, true,
+                "The number of threads running the calls at once, 8 by default."));
+        options.addOption(new Option(OPTION_DURATION, true,
+                "How long to run for in seconds, 30 by default."));
+        options.addOption(new Option(OPTION_MAX_CONNECTIONS, true,
+                "The maximum number of pooled HTTP connections to the host."));
+        options.addOption(new Option(OPTION_MOCK_LATENCY, true,
+                "The latency added to every mock response in milliseconds, as min-max."));
+        options.addOption(new Option(OPTION_MOCK_ERROR_RATE, true,
+                "The share of mock requests failed with 503, from 0 to 1."));
+        options.addOption(new Option(OPTION_MOCK_REGIONS, true,
+                "The number of mock compute instances."));
+        options.addOption(new Option(OPTION_MOCK_VDCS, true,
+                "The number of VDCs of each mock compute instance."));
+        options.addOption(new Option(OPTION_MOCK_VAPPS, true,
+                "The number of vApps of each mock VDC."));
+        options.addOption(new Option(OPTION_MOCK_VMS, true,
+                "The number of VMs of each mock vApp."));
+
+        CommandLineParser parser = new PosixParser();
+
+        try {
+            CommandLine cl = parser.parse(options, args);
+
+            if (cl.hasOption(OPTION_HOSTNAME)) {
+                hostname = cl.getOptionValue(OPTION_HOSTNAME);
+
+                // remove trailing / if it exists
+                if (hostname.endsWith("/")) {
+                    hostname = hostname.substring(0, hostname.length() - 1);
+                }
+            }
+
+            if (cl.hasOption(OPTION_USERNAME)) {
+                username = cl.getOptionValue(OPTION_USERNAME);
+            }
+
+            if (cl.hasOption(OPTION_PASSWORD)) {
+                password = cl.getOptionValue(OPTION_PASSWORD);
+            }
+
+            if (cl.hasOption(OPTION_VERSION)) {
+                version = cl.getOptionValue(OPTION_VERSION);
+            }
+
+            if (cl.hasOption(OPTION_THREADS)) {
+                threads = Integer.parseInt(cl.getOptionValue(OPTION_THREADS));
+            }
+
+            if (cl.hasOption(OPTION_DURATION)) {
+                durationSeconds = Integer.parseInt(cl.getOptionValue(OPTION_DURATION));
+            }
+
+            if (cl.hasOption(OPTION_MAX_CONNECTIONS)) {
+                maxConnections = Integer.parseInt(cl.getOptionValue(OPTION_MAX_CONNECTIONS));
+            }
+
+            if (cl.hasOption(OPTION_MOCK_LATENCY)) {
+                String[] bounds = cl.getOptionValue(OPTION_MOCK_LATENCY).split("-");
+                mockMinLatency = Long.parseLong(bounds[0]);
+                mockMaxLatency = bounds.length > 1 ? Long.parseLong(bounds[1]) : mockMinLatency;
+            }
+
+            if (cl.hasOption(OPTION_MOCK_ERROR_RATE)) {
+                mockErrorRate = Double.parseDouble(cl.getOptionValue(OPTION_MOCK_ERROR_RATE));
+            }
+
+            if (cl.hasOption(OPTION_MOCK_REGIONS)) {
+                mockRegions = Integer.parseInt(cl.getOptionValue(OPTION_MOCK_REGIONS));
+            }
+
+            if (cl.hasOption(OPTION_MOCK_VDCS)) {
+                mockVdcs = Integer.parseInt(cl.getOptionValue(OPTION_MOCK_VDCS));
+            }
+
+            if (cl.hasOption(OPTION_MOCK_VAPPS)) {
+                mockVApps = Integer.parseInt(cl.getOptionValue(OPTION_MOCK_VAPPS));
+            }
+
+            if (cl.hasOption(OPTION_MOCK_VMS)) {
+                mockVms = Integer.parseInt(cl.getOptionValue(OPTION_MOCK_VMS));
+            }
+
+            if (threads <= 0 || durationSeconds <= 0) {
+                throw new ParseException("threads and duration must be greater than 0");
+            }
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("LoadDriver", options);
+            System.exit(1);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            new HelpFormatter().printHelp("LoadDriver", options);
+            System.exit(1);
+        }
+    }
+}
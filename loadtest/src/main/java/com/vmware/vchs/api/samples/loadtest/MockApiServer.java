@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+
+/**
+ * This class is a local stand-in for the vCHS and vCloud APIs, so the samples and tools built on
+ * them can be load tested without reaching a real service. It answers the IAM, ServiceController,
+ * Compute, Billing and Metering requests the samples make with responses shaped like the real
+ * ones, for an inventory whose size is configurable: the number of regions, VDCs per region, vApps
+ * per VDC, VMs per vApp, users and billing entities.
+ *
+ * Every response can be delayed by a random latency and a share of the requests can be failed
+ * with 503 Service Unavailable, to see how the client behaves against a slow or unreliable API.
+ * GET responses carry an ETag and If-None-Match is honored, so the client caches are exercised.
+ * Query API results are paged like the real ones, with at most 128 records per page and links to
+ * the other pages, so the clients follow nextPage links as they would against vCloud.
+ *
+ * Logins always succeed and tokens are not checked. The server is embeddable: start() it, pass
+ * getUrl() as the hostname to the services, and stop() it when done.
+ */
+public class MockApiServer {
+    /*
+     * Default number of requests handled at once
+     */
+    public static final int DEFAULT_THREADS = 64;
+
+    private static final String JSON = SampleConstants.APPLICATION_JSON_VERSION
+            + SampleConstants.DEFAULT_VCHS_VERSION;
+    private static final String XML = SampleConstants.APPLICATION_XML_VERSION
+            + SampleConstants.DEFAULT_VCHS_VERSION;
+    private static final String VCLOUD_XML = "application/vnd.vmware.vcloud+xml;version="
+            + SampleConstants.DEFAULT_VCD_VERSION;
+    private static final String ERROR_XML = "application/vnd.vmware.vcloud.error+xml;version="
+            + SampleConstants.DEFAULT_VCD_VERSION;
+
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final int port;
+    private int threads = DEFAULT_THREADS;
+    private volatile Inventory inventory = new Inventory(2, 2, 10, 2, 50, 40);
+    private volatile long minLatencyMillis = 0;
+    private volatile long maxLatencyMillis = 0;
+    private volatile double errorRate = 0;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile MockResponses responses;
+    private final ConcurrentMap<String, Body> bodies = new ConcurrentHashMap<String, Body>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong notModifiedCount = new AtomicLong();
+    private final AtomicLong tokenCount = new AtomicLong();
+
+    /**
+     * Creates a server listening on a free port of the loopback interface.
+     */
+    public MockApiServer() {
+        this(0);
+    }
+
+    /**
+     * @param port
+     *            the port of the loopback interface to listen on, 0 for any free port
+     */
+    public MockApiServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Sets the size of the inventory served. Responses built for the previous inventory are
+     * dropped.
+     *
+     * @param regions
+     *            the number of compute instances, one per region
+     * @param vdcsPerRegion
+     *            the number of VDCs of each compute instance
+     * @param vAppsPerVdc
+     *            the number of vApps of each VDC
+     * @param vmsPerVApp
+     *            the number of VMs of each vApp
+     * @param users
+     *            the number of IAM users
+     * @param billingEntities
+     *            the number of entities of the billed and billable usage responses
+     * @return this MockApiServer
+     */
+    public MockApiServer setInventory(int regions, int vdcsPerRegion, int vAppsPerVdc,
+            int vmsPerVApp, int users, int billingEntities) {
+        inventory = new Inventory(regions, vdcsPerRegion, vAppsPerVdc, vmsPerVApp, users,
+                billingEntities);
+
+        if (null != server) {
+            responses = new MockResponses(getUrl(), inventory);
+            bodies.clear();
+        }
+
+        return this;
+    }
+
+    /**
+     * Sets the latency added to every response, chosen at random between the two bounds.
+     *
+     * @param minMillis
+     *            the minimum latency in milliseconds
+     * @param maxMillis
+     *            the maximum latency in milliseconds
+     * @return this MockApiServer
+     */
+    public MockApiServer setLatency(long minMillis, long maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("Invalid latency bounds");
+        }
+
+        minLatencyMillis = minMillis;
+        maxLatencyMillis = maxMillis;
+        return this;
+    }
+
+    /**
+     * @param rate
+     *            the share of requests answered with 503 Service Unavailable, from 0 to 1
+     * @return this MockApiServer
+     */
+    public MockApiServer setErrorRate(double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("Error rate must be between 0 and 1");
+        }
+
+        errorRate = rate;
+        return this;
+    }
+
+    /**
+     * Sets the number of requests handled at once. This only applies if called before start().
+     *
+     * @param max
+     *            the number of threads handling requests
+     * @return this MockApiServer
+     */
+    public MockApiServer setThreads(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Threads must be greater than 0");
+        }
+
+        threads = max;
+        return this;
+    }
+
+    /**
+     * Starts listening for requests.
+     */
+    public synchronized void start() {
+        if (null != server) {
+            return;
+        }
+
+        // Without it small responses wait on delayed ACKs, adding ~40ms to every request
+        if (null == System.getProperty(NODELAY_PROPERTY)) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"),
+                    port), 0);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot listen on port " + port, e);
+        }
+
+        executor = Executors.newFixedThreadPool(threads, new AsyncExecutor.DaemonThreadFactory(
+                "mock-api"));
+        responses = new MockResponses(getUrl(), inventory);
+
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                MockApiServer.this.handle(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stops listening for requests and releases the threads of the server.
+     */
+    public synchronized void stop() {
+        if (null != server) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+            bodies.clear();
+        }
+    }
+
+    /**
+     * @return the url to pass as the hostname to the services, for example http://127.0.0.1:8443
+     */
+    public String getUrl() {
+        if (null == server) {
+            throw new IllegalStateException("The server is not started");
+        }
+
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return the number of requests received so far
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of requests failed on purpose so far
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * @return the number of requests answered with 304 Not Modified so far
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requestCount.incrementAndGet();
+            drain(exchange.getRequestBody());
+            delay();
+
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errorCount.incrementAndGet();
+                send(exchange, HttpStatus.SC_SERVICE_UNAVAILABLE, ERROR_XML, responses.error(
+                        HttpStatus.SC_SERVICE_UNAVAILABLE, "SERVICE_UNAVAILABLE",
+                        "The service is temporarily unavailable"));
+                return;
+            }
+
+            if ("POST".equals(exchange.getRequestMethod())) {
+                post(exchange);
+            } else if ("GET".equals(exchange.getRequestMethod())) {
+                get(exchange);
+            } else {
+                send(exchange, HttpStatus.SC_METHOD_NOT_ALLOWED, ERROR_XML, responses.error(
+                        HttpStatus.SC_METHOD_NOT_ALLOWED, "METHOD_NOT_ALLOWED",
+                        exchange.getRequestMethod() + " is not supported"));
+            }
+        } catch (RuntimeException e) {
+            send(exchange, HttpStatus.SC_INTERNAL_SERVER_ERROR, ERROR_XML, responses.error(
+                    HttpStatus.SC_INTERNAL_SERVER_ERROR, "INTERNAL_SERVER_ERROR", e.toString()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void post(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+
+        if (path.equals(SampleConstants.API_IAM_LOGIN)) {
+            exchange.getResponseHeaders().set(SampleConstants.VCHS_AUTHORIZATION_HEADER,
+                    "iam-token-" + tokenCount.incrementAndGet());
+            send(exchange, HttpStatus.SC_CREATED, JSON, new byte[0]);
+        } else if (path.equals(MockResponses.SESSIONS)) {
+            exchange.getResponseHeaders().set(SampleConstants.VCD_AUTHORIZATION_HEADER,
+                    "vcloud-token-" + tokenCount.incrementAndGet());
+            send(exchange, HttpStatus.SC_OK, VCLOUD_XML, new byte[0]);
+        } else if (path.startsWith(MockResponses.VAPP) && path.endsWith("/action/deploy")) {
+            send(exchange, HttpStatus.SC_ACCEPTED, VCLOUD_XML, responses.task(
+                    "deploy-" + tokenCount.incrementAndGet(), "vappDeploy"));
+        } else if (path.startsWith(MockResponses.VAPP) && path.endsWith("/action/undeploy")) {
+            send(exchange, HttpStatus.SC_ACCEPTED, VCLOUD_XML, responses.task(
+                    "undeploy-" + tokenCount.incrementAndGet(), "vappUndeployPowerOff"));
+        } else {
+            notFound(exchange);
+        }
+    }
+
+    private void get(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String query = exchange.getRequestURI().getRawQuery();
+        String key = null != query ? path + "?" + query : path;
+
+        Body body = bodies.get(key);
+        if (null == body) {
+            body = build(path, query);
+            if (null == body) {
+                notFound(exchange);
+                return;
+            }
+
+            // Tasks are one-off, everything else is the same on every request
+            if (!path.startsWith(MockResponses.TASK)) {
+                bodies.putIfAbsent(key, body);
+            }
+        }
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst(HttpHeaders.IF_NONE_MATCH);
+        exchange.getResponseHeaders().set(HttpHeaders.ETAG, body.etag);
+
+        if (body.etag.equals(ifNoneMatch)) {
+            notModifiedCount.incrementAndGet();
+            exchange.sendResponseHeaders(HttpStatus.SC_NOT_MODIFIED, -1);
+            return;
+        }
+
+        send(exchange, HttpStatus.SC_OK, body.contentType, body.content);
+    }
+
+    /*
+     * Builds the body of a GET request, or returns null if the path is unknown
+     */
+    private Body build(String path, String query) {
+        MockResponses r = responses;
+
+        if (path.equals(SampleConstants.API_IAM_USERS)) {
+            return new Body(JSON, r.users());
+        }
+        if (path.equals(SampleConstants.API_SERVICECONTROLLER_PLANS)) {
+            return new Body(XML, r.plans());
+        }
+        if (path.equals(SampleConstants.API_SERVICECONTROLLER_INSTANCES)) {
+            return new Body(XML, r.instances());
+        }
+        if (path.equals("/api/billing/service-groups")) {
+            return new Body(XML, r.serviceGroups());
+        }
+        if (path.startsWith(SampleConstants.API_BILLING_SERVICE_INSTANCE)
+                && path.endsWith("/billed-usage")) {
+            return new Body(XML, r.billedUsage());
+        }
+        if (path.startsWith(SampleConstants.API_METERING_SERVICE_INSTANCE)
+                && path.endsWith("/billable-usage")) {
+            return new Body(XML, r.billableUsage());
+        }
+        if (path.startsWith(MockResponses.TASK)) {
+            return new Body(VCLOUD_XML, r.task(path.substring(MockResponses.TASK.length()),
+                    "vappDeploy"));
+        }
+        if (path.equals(MockResponses.QUERY)) {
+            return query(r, null != query ? query : "");
+        }
+
+        try {
+            if (path.startsWith(MockResponses.ORG)) {
+                int[] ids = ids(path.substring(MockResponses.ORG.length()), 1);
+                return null != ids ? new Body(VCLOUD_XML, r.org(ids[0])) : null;
+            }
+            if (path.startsWith(MockResponses.VDC)) {
+                int[] ids = ids(path.substring(MockResponses.VDC.length()), 2);
+                return null != ids ? new Body(VCLOUD_XML, r.vdc(ids[0], ids[1])) : null;
+            }
+            if (path.startsWith(MockResponses.VAPP)) {
+                int[] ids = ids(path.substring(MockResponses.VAPP.length()), 3);
+                return null != ids ? new Body(VCLOUD_XML, r.vApp(ids[0], ids[1], ids[2])) : null;
+            }
+            if (path.startsWith(MockResponses.VAPP_TEMPLATE)) {
+                // Templates are not part of the inventory size, every VDC has the same ones
+                String id = path.substring(MockResponses.VAPP_TEMPLATE.length());
+                int dash = id.lastIndexOf('-');
+                int[] ids = dash > 0 ? ids(id.substring(0, dash), 2) : null;
+                int template = null != ids ? Integer.parseInt(id.substring(dash + 1)) : -1;
+                return template >= 0 && template < r.templateCount() ? new Body(VCLOUD_XML,
+                        r.vAppTemplate(ids[0], ids[1], template)) : null;
+            }
+            if (path.startsWith(MockResponses.VM) && path.endsWith("/networkConnectionSection/")) {
+                String vmId = path.substring(MockResponses.VM.length(), path.length()
+                        - "/networkConnectionSection/".length());
+                return null != ids(vmId, 4) ? new Body(VCLOUD_XML,
+                        r.vmNetworkConnectionSection(vmId)) : null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return null;
+    }
+
+    private Body query(MockResponses r, String query) {
+        String type = null;
+        String filter = null;
+        int page = 1;
+        int pageSize = SampleConstants.DEFAULT_QUERY_PAGE_SIZE;
+        StringBuilder parameters = new StringBuilder();
+
+        try {
+            for (String parameter : query.split("&")) {
+                int eq = parameter.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+
+                String name = parameter.substring(0, eq);
+                String value = URLDecoder.decode(parameter.substring(eq + 1), "UTF-8");
+                if ("page".equals(name)) {
+                    page = Math.max(1, Integer.parseInt(value));
+                    continue;
+                } else if ("pageSize".equals(name)) {
+                    pageSize = Math.max(1, Integer.parseInt(value));
+                    continue;
+                } else if ("type".equals(name)) {
+                    type = value;
+                } else if ("filter".equals(name)) {
+                    filter = value;
+                }
+
+                // Kept as sent for the page links
+                if (parameters.length() > 0) {
+                    parameters.append('&');
+                }
+                parameters.append(parameter);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        // Only the vdc== condition of the filter is applied
+        String vdcHref = null;
+        if (null != filter) {
+            int start = filter.indexOf("vdc==");
+            if (start >= 0) {
+                start += "vdc==".length();
+                int end = start;
+                while (end < filter.length() && ";,)".indexOf(filter.charAt(end)) < 0) {
+                    end++;
+                }
+                vdcHref = filter.substring(start, end);
+            }
+        }
+
+        return new Body(VCLOUD_XML, r.query(type, vdcHref, page, pageSize,
+                parameters.toString()));
+    }
+
+    /*
+     * Parses the dash separated positions of a resource, checking they exist in the inventory
+     */
+    private int[] ids(String id, int count) {
+        String[] parts = id.split("-");
+        if (parts.length != count) {
+            return null;
+        }
+
+        Inventory i = inventory;
+        int[] limits = { i.regions, i.vdcsPerRegion, i.vAppsPerVdc, i.vmsPerVApp };
+        int[] ids = new int[count];
+        for (int n = 0; n < count; n++) {
+            ids[n] = Integer.parseInt(parts[n]);
+            if (ids[n] < 0 || ids[n] >= limits[n]) {
+                return null;
+            }
+        }
+
+        return ids;
+    }
+
+    private void notFound(HttpExchange exchange) throws IOException {
+        send(exchange, HttpStatus.SC_NOT_FOUND, ERROR_XML, responses.error(
+                HttpStatus.SC_NOT_FOUND, "RESOURCE_NOT_FOUND", exchange.getRequestURI()
+                        + " does not exist"));
+    }
+
+    private void delay() {
+        long min = minLatencyMillis;
+        long max = maxLatencyMillis;
+
+        if (max > 0) {
+            long latency = min < max ? min + ThreadLocalRandom.current().nextLong(max - min + 1)
+                    : min;
+            try {
+                TimeUnit.MILLISECONDS.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType,
+            byte[] content) throws IOException {
+        exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, contentType);
+        exchange.sendResponseHeaders(status, content.length > 0 ? content.length : -1);
+
+        if (content.length > 0) {
+            OutputStream os = exchange.getResponseBody();
+            os.write(content);
+            os.close();
+        }
+    }
+
+    private static void drain(InputStream is) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (is.read(buffer) != -1) {
+            // discard the request body
+        }
+    }
+
+    /**
+     * The size of the inventory served.
+     */
+    static class Inventory {
+        final int regions;
+        final int vdcsPerRegion;
+        final int vAppsPerVdc;
+        final int vmsPerVApp;
+        final int users;
+        final int billingEntities;
+
+        Inventory(int regions, int vdcsPerRegion, int vAppsPerVdc, int vmsPerVApp, int users,
+                int billingEntities) {
+            if (regions <= 0 || vdcsPerRegion < 0 || vAppsPerVdc < 0 || vmsPerVApp < 0
+                    || users < 0 || billingEntities < 0) {
+                throw new IllegalArgumentException("Invalid inventory size");
+            }
+
+            this.regions = regions;
+            this.vdcsPerRegion = vdcsPerRegion;
+            this.vAppsPerVdc = vAppsPerVdc;
+            this.vmsPerVApp = vmsPerVApp;
+            this.users = users;
+            this.billingEntities = billingEntities;
+        }
+    }
+
+    /**
+     * A response body along with its content type and ETag.
+     */
+    private static class Body {
+        final String contentType;
+        final byte[] content;
+        final String etag;
+
+        Body(String contentType, byte[] content) {
+            this.contentType = contentType;
+            this.content = content;
+            this.etag = "\"" + Integer.toHexString(Arrays.hashCode(content)) + "\"";
+        }
+    }
+}
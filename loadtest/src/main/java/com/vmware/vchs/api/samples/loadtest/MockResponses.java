@@ -0,0 +1,574 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+
+import org.apache.http.Consts;
+
+import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
+import com.vmware.vchs.api.samples.services.helper.JAXBContextRegistry;
+import com.vmware.vchs.iam.v2.Role;
+import com.vmware.vchs.iam.v2.Roles;
+import com.vmware.vchs.iam.v2.User;
+import com.vmware.vchs.iam.v2.Users;
+import com.vmware.vchs.sc.instance.v1.InstanceListType;
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+import com.vmware.vchs.sc.service.v1.PlanListType;
+import com.vmware.vchs.sc.service.v1.PlanType;
+import com.vmware.vchs.vms.billabledata.v1.BillableListType;
+import com.vmware.vchs.vms.billabledata.v1.BillableType;
+import com.vmware.vchs.vms.billabledata.v1.BillableUsageType;
+import com.vmware.vchs.vms.billabledata.v1.BilledUsageType;
+import com.vmware.vchs.vms.billabledata.v1.EntityType;
+import com.vmware.vchs.vms.billabledata.v1.ServiceGroupListType;
+import com.vmware.vchs.vms.billabledata.v1.ServiceGroupType;
+import com.vmware.vchs.vms.billabledata.v1.ServiceGroupsType;
+import com.vmware.vcloud.api.rest.schema_v1_5.ErrorType;
+import com.vmware.vcloud.api.rest.schema_v1_5.LinkType;
+import com.vmware.vcloud.api.rest.schema_v1_5.NetworkConnectionSectionType;
+import com.vmware.vcloud.api.rest.schema_v1_5.NetworkConnectionType;
+import com.vmware.vcloud.api.rest.schema_v1_5.ObjectFactory;
+import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordsType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultTaskRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultVAppRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultVAppTemplateRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultVMRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.ResourceEntitiesType;
+import com.vmware.vcloud.api.rest.schema_v1_5.ResourceReferenceType;
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppChildrenType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppTemplateType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VmType;
+
+/**
+ * Builds the response bodies served by MockApiServer. The bodies are built with the same schema
+ * classes the samples unmarshal them into, so they always parse, and their size follows the
+ * inventory sizes of the server: the number of regions, VDCs per region, vApps per VDC and so on.
+ *
+ * Resources are identified by their position in the inventory: VDC 1-2 is the third VDC of the
+ * second region, vapp-1-2-0 its first vApp and vm-1-2-0-3 the fourth VM of that vApp.
+ */
+class MockResponses {
+    static final String COMPUTE_PLAN_ID = "compute-plan";
+    static final String COMPUTE_API = "/compute/api";
+    static final String SESSIONS = COMPUTE_API + "/sessions";
+    static final String ORG = COMPUTE_API + "/org/";
+    static final String VDC = COMPUTE_API + "/vdc/";
+    static final String VAPP = COMPUTE_API + "/vApp/vapp-";
+    static final String VM = COMPUTE_API + "/vApp/vm-";
+    static final String VAPP_TEMPLATE = COMPUTE_API + "/vAppTemplate/vappTemplate-";
+    static final String QUERY = COMPUTE_API + "/query";
+    static final String TASK = COMPUTE_API + "/task/";
+
+    static final String VDC_TYPE = "application/vnd.vmware.vcloud.vdc+xml";
+    static final String VAPP_TYPE = "application/vnd.vmware.vcloud.vApp+xml";
+    static final String VM_TYPE = "application/vnd.vmware.vcloud.vm+xml";
+    static final String VAPP_TEMPLATE_TYPE = "application/vnd.vmware.vcloud.vAppTemplate+xml";
+    static final String QUERY_RECORDS_TYPE = "application/vnd.vmware.vcloud.query.records+xml";
+
+    /*
+     * Largest page of query records returned, as on the real API. Larger pageSize values are
+     * lowered to it
+     */
+    static final int MAX_QUERY_PAGE_SIZE = 128;
+
+    private static final String[] BILLABLES = { "cpu", "memory", "storage", "ssd-storage",
+            "network-out", "network-in", "public-ip", "backup" };
+
+    private static final String[] TEMPLATES = { "CentOS64-64BIT", "Ubuntu1204-64BIT",
+            "W2K12-STD-64BIT" };
+
+    private final ObjectFactory vcloud = new ObjectFactory();
+    private final String baseUrl;
+    private final MockApiServer.Inventory inventory;
+
+    MockResponses(String baseUrl, MockApiServer.Inventory inventory) {
+        this.baseUrl = baseUrl;
+        this.inventory = inventory;
+    }
+
+    byte[] users() {
+        Users users = new Users();
+
+        for (int i = 0; i < inventory.users; i++) {
+            Role role = new Role();
+            role.setName(0 == i ? "Account Administrator" : "Virtual Infrastructure Administrator");
+            role.setDescription("");
+            Roles roles = new Roles();
+            roles.getRoles().add(role);
+
+            User user = new User();
+            user.setId("user-" + i);
+            user.setUserName("user" + i + "@example.com");
+            user.setEmail("user" + i + "@example.com");
+            user.setGivenName("Given" + i);
+            user.setFamilyName("Family" + i);
+            user.setState("Active");
+            user.setTosAccepted(Boolean.TRUE);
+            user.setTosAcceptDate(datatypeFactory().newXMLGregorianCalendar(
+                    "2014-01-10T08:00:12.000Z"));
+            user.setRoles(roles);
+            users.getUsers().add(user);
+        }
+
+        return HttpUtils.getGson().toJson(users).getBytes(Consts.UTF_8);
+    }
+
+    byte[] plans() {
+        PlanType plan = new PlanType();
+        plan.setId(COMPUTE_PLAN_ID);
+        plan.setName("Virtual Private Cloud OnDemand");
+        plan.setServiceName(SampleConstants.COMPUTE_SERVICE_TYPE);
+        plan.setRegion("all");
+        plan.setPlanVersion("1.0");
+
+        PlanListType plans = new PlanListType();
+        plans.getPlans().add(plan);
+
+        return marshal(PlanListType.class,
+                new com.vmware.vchs.sc.service.v1.ObjectFactory().createPlanList(plans));
+    }
+
+    byte[] instances() {
+        InstanceListType instances = new InstanceListType();
+
+        for (int r = 0; r < inventory.regions; r++) {
+            InstanceAttribute attributes = new InstanceAttribute();
+            attributes.setOrgName(orgName(r));
+            attributes.setSessionUri(baseUrl + SESSIONS);
+
+            InstanceType instance = new InstanceType();
+            instance.setId("instance-" + r);
+            instance.setName("Virtual Private Cloud OnDemand " + r);
+            instance.setRegion(region(r));
+            instance.setPlanId(COMPUTE_PLAN_ID);
+            instance.setServiceGroupId("service-group-0");
+            instance.setApiUrl(baseUrl + ORG + r);
+            instance.setInstanceAttributes(HttpUtils.getGson().toJson(attributes));
+            instances.getInstances().add(instance);
+        }
+
+        return marshal(InstanceListType.class,
+                new com.vmware.vchs.sc.instance.v1.ObjectFactory().createInstanceList(instances));
+    }
+
+    byte[] org(int region) {
+        OrgListType org = new OrgListType();
+        org.setHref(baseUrl + ORG + region);
+
+        for (int d = 0; d < inventory.vdcsPerRegion; d++) {
+            org.getLink().add(link("down", baseUrl + VDC + region + "-" + d, VDC_TYPE,
+                    vdcName(d)));
+        }
+
+        return marshal(OrgListType.class, vcloud.createOrgList(org));
+    }
+
+    byte[] vdc(int region, int vdc) {
+        String href = baseUrl + VDC + region + "-" + vdc;
+
+        VdcType type = new VdcType();
+        type.setHref(href);
+        type.setType(VDC_TYPE);
+        type.setId("urn:vcloud:vdc:" + region + "-" + vdc);
+        type.setName(vdcName(vdc));
+        type.setStatus(Integer.valueOf(1));
+        type.setAllocationModel("AllocationVApp");
+        type.getLink().add(link("up", baseUrl + ORG + region,
+                SampleConstants.ORG, null));
+        type.getLink().add(link("add", href + "/action/instantiateVAppTemplate",
+                "application/vnd.vmware.vcloud.instantiateVAppTemplateParams+xml", null));
+
+        ResourceEntitiesType entities = new ResourceEntitiesType();
+        for (int a = 0; a < inventory.vAppsPerVdc; a++) {
+            ResourceReferenceType entity = new ResourceReferenceType();
+            entity.setHref(baseUrl + VAPP + region + "-" + vdc + "-" + a);
+            entity.setType(VAPP_TYPE);
+            entity.setName(vAppName(vdc, a));
+            entities.getResourceEntity().add(entity);
+        }
+        type.setResourceEntities(entities);
+
+        return marshal(VdcType.class, vcloud.createVdc(type));
+    }
+
+    byte[] vApp(int region, int vdc, int vApp) {
+        String id = region + "-" + vdc + "-" + vApp;
+
+        VAppType type = new VAppType();
+        type.setHref(baseUrl + VAPP + id);
+        type.setType(VAPP_TYPE);
+        type.setId("urn:vcloud:vapp:" + id);
+        type.setName(vAppName(vdc, vApp));
+        type.setStatus(Integer.valueOf(4));
+        type.setDeployed(Boolean.TRUE);
+        type.getLink().add(link("up", baseUrl + VDC + region + "-" + vdc, VDC_TYPE, null));
+        type.getLink().add(link("deploy", baseUrl + VAPP + id + "/action/deploy",
+                "application/vnd.vmware.vcloud.deployVAppParams+xml", null));
+        type.getLink().add(link("undeploy", baseUrl + VAPP + id + "/action/undeploy",
+                "application/vnd.vmware.vcloud.undeployVAppParams+xml", null));
+
+        VAppChildrenType children = new VAppChildrenType();
+        for (int m = 0; m < inventory.vmsPerVApp; m++) {
+            String vmId = id + "-" + m;
+
+            VmType vm = new VmType();
+            vm.setHref(baseUrl + VM + vmId);
+            vm.setType(VM_TYPE);
+            vm.setId("urn:vcloud:vm:" + vmId);
+            vm.setName(vmName(vApp, m));
+            vm.setStatus(Integer.valueOf(4));
+            vm.setDeployed(Boolean.TRUE);
+            vm.getLink().add(link("up", baseUrl + VAPP + id, VAPP_TYPE, null));
+            vm.getSection().add(vcloud.createNetworkConnectionSection(networkConnectionSection(
+                    vmId, m)));
+            children.getVm().add(vm);
+        }
+        type.setChildren(children);
+
+        return marshal(VAppType.class, vcloud.createVApp(type));
+    }
+
+    byte[] vmNetworkConnectionSection(String vmId) {
+        int m = Integer.parseInt(vmId.substring(vmId.lastIndexOf('-') + 1));
+
+        return marshal(NetworkConnectionSectionType.class,
+                vcloud.createNetworkConnectionSection(networkConnectionSection(vmId, m)));
+    }
+
+    byte[] vAppTemplate(int region, int vdc, int template) {
+        String id = region + "-" + vdc + "-" + template;
+
+        VAppTemplateType type = new VAppTemplateType();
+        type.setHref(baseUrl + VAPP_TEMPLATE + id);
+        type.setType(VAPP_TEMPLATE_TYPE);
+        type.setId("urn:vcloud:vapptemplate:" + id);
+        type.setName(TEMPLATES[template]);
+        type.setStatus(Integer.valueOf(8));
+        type.getLink().add(link("up", baseUrl + VDC + region + "-" + vdc, VDC_TYPE, null));
+
+        return marshal(VAppTemplateType.class, vcloud.createVAppTemplate(type));
+    }
+
+    int templateCount() {
+        return TEMPLATES.length;
+    }
+
+    /**
+     * Lists the records of a query like the real Query API does: a page of records along with
+     * firstPage and previousPage links when there are pages before it, and nextPage and lastPage
+     * links when there are pages after it.
+     *
+     * @param type
+     *            the type= parameter of the query, vm, vApp, vAppTemplate and task records are
+     *            listed
+     * @param vdcHref
+     *            the vdc== value of the filter of the query, or null for all the VDCs
+     * @param page
+     *            the 1 based page to return
+     * @param pageSize
+     *            the number of records per page, at most MAX_QUERY_PAGE_SIZE
+     * @param parameters
+     *            the encoded parameters of the query other than page and pageSize, which the page
+     *            links are built from
+     */
+    byte[] query(String type, String vdcHref, int page, int pageSize, String parameters) {
+        List<JAXBElement<? extends QueryResultRecordType>> all =
+                new ArrayList<JAXBElement<? extends QueryResultRecordType>>();
+
+        for (int r = 0; r < inventory.regions; r++) {
+            for (int d = 0; d < inventory.vdcsPerRegion; d++) {
+                String vdc = baseUrl + VDC + r + "-" + d;
+                if (null != vdcHref && !vdcHref.equals(vdc)) {
+                    continue;
+                }
+
+                if ("vAppTemplate".equalsIgnoreCase(type)) {
+                    for (int t = 0; t < TEMPLATES.length; t++) {
+                        QueryResultVAppTemplateRecordType record =
+                                new QueryResultVAppTemplateRecordType();
+                        record.setHref(baseUrl + VAPP_TEMPLATE + r + "-" + d + "-" + t);
+                        record.setName(TEMPLATES[t]);
+                        record.setVdc(vdc);
+                        record.setVdcName(vdcName(d));
+                        record.setCatalogName("Public Catalog");
+                        record.setStatus("RESOLVED");
+                        record.setIsDeployed(Boolean.FALSE);
+                        record.setIsPublished(Boolean.TRUE);
+                        all.add(vcloud.createVAppTemplateRecord(record));
+                    }
+                    continue;
+                }
+
+                for (int a = 0; a < inventory.vAppsPerVdc; a++) {
+                    String vAppId = r + "-" + d + "-" + a;
+
+                    if ("vApp".equalsIgnoreCase(type)) {
+                        QueryResultVAppRecordType record = new QueryResultVAppRecordType();
+                        record.setHref(baseUrl + VAPP + vAppId);
+                        record.setName(vAppName(d, a));
+                        record.setVdc(vdc);
+                        record.setVdcName(vdcName(d));
+                        record.setStatus("POWERED_ON");
+                        record.setIsDeployed(Boolean.TRUE);
+                        all.add(vcloud.createVAppRecord(record));
+                    } else if ("vm".equalsIgnoreCase(type)) {
+                        for (int m = 0; m < inventory.vmsPerVApp; m++) {
+                            QueryResultVMRecordType record = new QueryResultVMRecordType();
+                            record.setHref(baseUrl + VM + vAppId + "-" + m);
+                            record.setName(vmName(a, m));
+                            record.setContainer(baseUrl + VAPP + vAppId);
+                            record.setContainerName(vAppName(d, a));
+                            record.setVdc(vdc);
+                            record.setIpAddress(ipAddress(vAppId + "-" + m, m));
+                            record.setGuestOs("CentOS 4/5/6 (64-bit)");
+                            record.setNumberOfCpus(Integer.valueOf(2));
+                            record.setMemoryMB(Integer.valueOf(4096));
+                            record.setStatus("POWERED_ON");
+                            record.setIsVAppTemplate(Boolean.FALSE);
+                            record.setIsDeployed(Boolean.TRUE);
+                            all.add(vcloud.createVMRecord(record));
+                        }
+                    } else if ("task".equalsIgnoreCase(type)) {
+                        // The deploy task each vApp was last powered on with
+                        QueryResultTaskRecordType record = new QueryResultTaskRecordType();
+                        record.setHref(baseUrl + TASK + "deploy-" + vAppId);
+                        record.setName("vappDeploy");
+                        record.setObject(baseUrl + VAPP + vAppId);
+                        record.setObjectName(vAppName(d, a));
+                        record.setObjectType("vApp");
+                        record.setOrg(baseUrl + ORG + r);
+                        record.setOrgName("org-" + r);
+                        record.setStatus("success");
+                        all.add(vcloud.createTaskRecord(record));
+                    }
+                }
+            }
+        }
+
+        pageSize = Math.min(pageSize, MAX_QUERY_PAGE_SIZE);
+        int lastPage = Math.max(1, (all.size() + pageSize - 1) / pageSize);
+
+        QueryResultRecordsType records = new QueryResultRecordsType();
+        records.setHref(queryPage(parameters, page, pageSize));
+        records.setType(QUERY_RECORDS_TYPE);
+        records.setName(type);
+        records.setPage(Integer.valueOf(page));
+        records.setPageSize(Integer.valueOf(pageSize));
+        records.setTotal(Long.valueOf(all.size()));
+
+        if (page > 1) {
+            records.getLink().add(link("firstPage", queryPage(parameters, 1, pageSize),
+                    QUERY_RECORDS_TYPE, null));
+            records.getLink().add(link("previousPage",
+                    queryPage(parameters, Math.min(page, lastPage + 1) - 1, pageSize),
+                    QUERY_RECORDS_TYPE, null));
+        }
+        if (page < lastPage) {
+            records.getLink().add(link("nextPage", queryPage(parameters, page + 1, pageSize),
+                    QUERY_RECORDS_TYPE, null));
+            records.getLink().add(link("lastPage", queryPage(parameters, lastPage, pageSize),
+                    QUERY_RECORDS_TYPE, null));
+        }
+
+        int from = Math.min((page - 1) * pageSize, all.size());
+        int to = Math.min(from + pageSize, all.size());
+        records.getRecord().addAll(all.subList(from, to));
+
+        return marshal(QueryResultRecordsType.class, vcloud.createQueryResultRecords(records));
+    }
+
+    private String queryPage(String parameters, int page, int pageSize) {
+        return baseUrl + QUERY + "?" + (parameters.isEmpty() ? "" : parameters + "&") + "page="
+                + page + "&pageSize=" + pageSize;
+    }
+
+    /**
+     * Tasks complete as soon as they are started, so waiting on one takes a single request.
+     */
+    byte[] task(String id, String operationName) {
+        TaskType task = new TaskType();
+        task.setHref(baseUrl + TASK + id);
+        task.setType("application/vnd.vmware.vcloud.task+xml");
+        task.setId("urn:vcloud:task:" + id);
+        task.setName("task");
+        task.setOperationName(operationName);
+        task.setStatus("success");
+
+        return marshal(TaskType.class, vcloud.createTask(task));
+    }
+
+    byte[] serviceGroups() {
+        ServiceGroupType group = new ServiceGroupType();
+        group.setId("service-group-0");
+        group.setDisplayName("Service Group 0");
+        group.setBillingCurrency("USD");
+
+        ServiceGroupListType list = new ServiceGroupListType();
+        list.getServiceGroup().add(group);
+
+        ServiceGroupsType groups = new ServiceGroupsType();
+        groups.setCompanyId("company-0");
+        groups.setCompanyName("Example");
+        groups.setServiceGroupList(list);
+
+        return marshal(ServiceGroupsType.class,
+                new com.vmware.vchs.vms.billabledata.v1.ObjectFactory().createServiceGroups(
+                        groups));
+    }
+
+    byte[] billedUsage() {
+        BilledUsageType usage = new BilledUsageType();
+        usage.setMonth(Integer.valueOf(6));
+        usage.setYear(Integer.valueOf(2014));
+        usage.setStartTime("2014-06-01T00:00:00.000Z");
+        usage.setEndTime("2014-06-30T23:59:59.999Z");
+        usage.getEntity().addAll(billingEntities());
+
+        return marshal(BilledUsageType.class,
+                new com.vmware.vchs.vms.billabledata.v1.ObjectFactory().createBilledUsage(usage));
+    }
+
+    byte[] billableUsage() {
+        BillableUsageType usage = new BillableUsageType();
+        usage.setStartTime("2014-07-01T00:00:00.000Z");
+        usage.setEndTime("2014-07-15T23:59:59.999Z");
+        usage.getEntity().addAll(billingEntities());
+
+        return marshal(BillableUsageType.class,
+                new com.vmware.vchs.vms.billabledata.v1.ObjectFactory().createBillableUsage(
+                        usage));
+    }
+
+    byte[] error(int status, String minorErrorCode, String message) {
+        ErrorType error = new ErrorType();
+        error.setMajorErrorCode(status);
+        error.setMinorErrorCode(minorErrorCode);
+        error.setMessage(message);
+
+        return marshal(ErrorType.class, vcloud.createError(error));
+    }
+
+    private List<EntityType> billingEntities() {
+        List<EntityType> entities = new ArrayList<EntityType>();
+
+        for (int e = 0; e < inventory.billingEntities; e++) {
+            BillableListType billables = new BillableListType();
+            for (int b = 0; b < BILLABLES.length; b++) {
+                BillableType billable = new BillableType();
+                billable.setName(BILLABLES[b]);
+                billable.setUsage(new BigDecimal(e + b + 1).movePointLeft(1));
+                billable.setUnit("hour");
+                billable.setRate(new BigDecimal("0.0130"));
+                billable.setCost(billable.getUsage().multiply(billable.getRate()));
+                billable.setCurrency("USD");
+                billables.getBillable().add(billable);
+            }
+
+            EntityType entity = new EntityType();
+            entity.setId("entity-" + e);
+            entity.setName("vm-" + e);
+            entity.setEntityType("VM");
+            entity.setBillableList(billables);
+            entities.add(entity);
+        }
+
+        return entities;
+    }
+
+    private NetworkConnectionSectionType networkConnectionSection(String vmId, int index) {
+        NetworkConnectionType connection = new NetworkConnectionType();
+        connection.setNetworkConnectionIndex(0);
+        connection.setNetwork("default-routed-network");
+        connection.setIpAddress(ipAddress(vmId, index));
+        connection.setIsConnected(true);
+        connection.setMACAddress(String.format("00:50:56:%02x:%02x:%02x", index & 0xff,
+                (vmId.hashCode() >> 8) & 0xff, vmId.hashCode() & 0xff));
+        connection.setIpAddressAllocationMode("POOL");
+
+        NetworkConnectionSectionType section = new NetworkConnectionSectionType();
+        section.setHref(baseUrl + VM + vmId + "/networkConnectionSection/");
+        section.setType("application/vnd.vmware.vcloud.networkConnectionSection+xml");
+        section.setPrimaryNetworkConnectionIndex(Integer.valueOf(0));
+        section.getNetworkConnection().add(connection);
+
+        return section;
+    }
+
+    private static LinkType link(String rel, String href, String type, String name) {
+        LinkType link = new LinkType();
+        link.setRel(rel);
+        link.setHref(href);
+        link.setType(type);
+        link.setName(name);
+
+        return link;
+    }
+
+    private static String ipAddress(String vmId, int index) {
+        return "192.168." + ((vmId.hashCode() >>> 8) & 0xff) + "." + (10 + index % 240);
+    }
+
+    static String orgName(int region) {
+        return "org-" + region;
+    }
+
+    static String region(int region) {
+        return "region-" + region;
+    }
+
+    private static String vdcName(int vdc) {
+        return "vdc-" + vdc;
+    }
+
+    private static String vAppName(int vdc, int vApp) {
+        return "vapp-" + vdc + "-" + vApp;
+    }
+
+    private static String vmName(int vApp, int vm) {
+        return "vm-" + vApp + "-" + vm;
+    }
+
+    private static DatatypeFactory datatypeFactory() {
+        try {
+            return DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T> byte[] marshal(Class<T> clazz, JAXBElement<T> element) {
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            JAXBContextRegistry.getMarshaller(clazz).marshal(element, os);
+
+            return os.toByteArray();
+        } catch (JAXBException e) {
+            throw new RuntimeException("Problem marshalling " + clazz.getName(), e);
+        }
+    }
+}
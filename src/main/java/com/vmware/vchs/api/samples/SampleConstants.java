@@ -70,6 +70,11 @@ public final class SampleConstants {
      */
     public static final String DEFAULT_VCD_VERSION = "5.7";
 
+    /*
+     * Default number of records to request per page from the vCloud Query API
+     */
+    public static final int DEFAULT_QUERY_PAGE_SIZE = 128;
+
     /*
      * VCloud Public API Versions url
      */
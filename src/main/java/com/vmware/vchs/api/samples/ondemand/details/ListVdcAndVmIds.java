@@ -7,12 +7,14 @@ import com.google.gson.Gson;
 import com.vmware.vchs.api.samples.SampleConstants;
 import com.vmware.vchs.api.samples.ondemand.endtoend.SampleCommandLineOptions;
 import com.vmware.vchs.api.samples.services.Compute;
-import com.vmware.vchs.api.samples.services.IAM;
 import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.TokenManager;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
 import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vchs.sc.service.v1.PlanType;
 import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultVMRecordType;
 import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
 import com.vmware.vcloud.api.rest.schema_v1_5.VmType;
 
@@ -55,8 +57,8 @@ public class ListVdcAndVmIds {
 
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
-        authToken = IAM
-                .login(options.hostname, options.username, options.password, options.version);
+        authToken = TokenManager.getIamToken(options.hostname, options.username,
+                options.password, options.version);
 
         if (null != authToken) {
             System.out.println("Success\n");
@@ -67,15 +69,15 @@ public class ListVdcAndVmIds {
             if (null != instances) {
                 for (InstanceType instance : instances) {
                     // get the compute service api and org info
-                    Gson gson = new Gson();
+                    Gson gson = HttpUtils.getGson();
                     InstanceAttribute ia = gson.fromJson(instance.getInstanceAttributes(),
                             InstanceAttribute.class);
 
                     // Log in to compute API
                     System.out.print("Logging in to compute instance - region: "
                             + instance.getRegion() + "...");
-                    String vcdToken = Compute.login(ia.getSessionUri(), options.username,
-                            options.password, ia.getOrgName(), options.version);
+                    String vcdToken = TokenManager.getComputeToken(ia.getSessionUri(),
+                            options.username, options.password, ia.getOrgName(), options.version);
                     if (null != vcdToken) {
                         System.out.println("Success.\n");
                         OrgListType org = Compute.getOrgDetails(instance.getApiUrl(), vcdToken,
@@ -91,15 +93,28 @@ public class ListVdcAndVmIds {
 
                                 for (VdcType vdc : vdcs) {
                                     System.out.printf("%-30s %-60s\n", vdc.getName(), parseVdcId(vdc.getId()));
-                                    Collection<VmType> vms = Compute.getVmsForVdc(vdc, vcdToken,
-                                            options.version);
-                                    if (null != vms) {
-                                        System.out.println("There are " + vms.size() + " vms");
-                                        for (VmType vm : vms) {
-                                            System.out.printf("%-3s %-30s %-60s\n", " ", vm.getName(), parseVmId(vm.getId()));
+                                    // Use the Query API to get the VMs a page at a time, only
+                                    // falling back to requesting every vApp if that fails
+                                    Collection<QueryResultVMRecordType> records = Compute
+                                            .getVmRecordsForVdc(instance.getApiUrl(), vdc,
+                                                    vcdToken, options.version,
+                                                    SampleConstants.DEFAULT_QUERY_PAGE_SIZE);
+                                    if (null != records) {
+                                        System.out.println("There are " + records.size() + " vms");
+                                        for (QueryResultVMRecordType record : records) {
+                                            System.out.printf("%-3s %-30s %-60s\n", " ", record.getName(), parseVmHref(record.getHref()));
                                         }
                                     } else {
-                                        System.out.println("No VMs found.");
+                                        Collection<VmType> vms = Compute.getVmsForVdc(vdc,
+                                                vcdToken, options.version);
+                                        if (null != vms) {
+                                            System.out.println("There are " + vms.size() + " vms");
+                                            for (VmType vm : vms) {
+                                                System.out.printf("%-3s %-30s %-60s\n", " ", vm.getName(), parseVmId(vm.getId()));
+                                            }
+                                        } else {
+                                            System.out.println("No VMs found.");
+                                        }
                                     }
                                 }
                             }
@@ -145,4 +160,23 @@ public class ListVdcAndVmIds {
 
         return null;
     }
+
+    /**
+     * This is a helper method to parse the ID part from a VM href, which ends with
+     * /vm-{id}. Query API records carry the href of the VM but not always its ID.
+     * 
+     * @param vmHref
+     *            the VM href to parse
+     * @return just the ID part of the VM href
+     */
+    private static final String parseVmHref(String vmHref) {
+        if (null != vmHref) {
+            int indx = vmHref.lastIndexOf("/vm-");
+            if (indx >= 0) {
+                return vmHref.substring(indx + "/vm-".length());
+            }
+        }
+
+        return null;
+    }
 }
\ No newline at end of file
@@ -5,8 +5,9 @@ import java.util.Collection;
 import com.google.gson.Gson;
 import com.vmware.vchs.api.samples.ondemand.endtoend.SampleCommandLineOptions;
 import com.vmware.vchs.api.samples.services.Compute;
-import com.vmware.vchs.api.samples.services.IAM;
 import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.TokenManager;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
 import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vcloud.api.rest.schema_v1_5.ReferenceType;
@@ -50,8 +51,8 @@ public class ListVdcTemplates {
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
 
-        authToken = IAM
-                .login(options.hostname, options.username, options.password, options.version);
+        authToken = TokenManager.getIamToken(options.hostname, options.username,
+                options.password, options.version);
 
         if (null != authToken) {
             System.out.println("Success\n");
@@ -62,15 +63,15 @@ public class ListVdcTemplates {
 
             if (null != instances && instances.size() > 0) {
                 for (InstanceType instance : instances) {
-                    Gson gson = new Gson();
+                    Gson gson = HttpUtils.getGson();
                     InstanceAttribute ia = gson.fromJson(instance.getInstanceAttributes(),
                             InstanceAttribute.class);
 
                     // Log in to compute API
                     System.out
                             .print("Logging in to compute region " + instance.getRegion() + "...");
-                    String vcdToken = Compute.login(ia.getSessionUri(), options.username,
-                            options.password, ia.getOrgName(), options.version);
+                    String vcdToken = TokenManager.getComputeToken(ia.getSessionUri(),
+                            options.username, options.password, ia.getOrgName(), options.version);
 
                     System.out.println("Success.\n");
 
@@ -6,9 +6,11 @@ import com.google.gson.Gson;
 import com.vmware.vchs.api.samples.SampleConstants;
 import com.vmware.vchs.api.samples.ondemand.endtoend.SampleCommandLineOptions;
 import com.vmware.vchs.api.samples.services.Compute;
-import com.vmware.vchs.api.samples.services.IAM;
 import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.TokenManager;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
 import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
 import com.vmware.vcloud.api.rest.schema_v1_5.VAppTemplateType;
@@ -54,8 +56,8 @@ public class ListVmTemplates {
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
 
-        authToken = IAM
-                .login(options.hostname, options.username, options.password, options.version);
+        authToken = TokenManager.getIamToken(options.hostname, options.username,
+                options.password, options.version);
 
         if (null != authToken) {
             System.out.println("Success\n");
@@ -67,14 +69,14 @@ public class ListVmTemplates {
 
             if (null != instances) {
                 for (InstanceType instance : instances) {
-                    Gson gson = new Gson();
+                    Gson gson = HttpUtils.getGson();
                     InstanceAttribute ia = gson.fromJson(instance.getInstanceAttributes(),
                             InstanceAttribute.class);
 
                     // Log in to compute API
                     System.out.print("Logging in to compute region " + instance.getRegion() + "...");
-                    String vcdToken = Compute.login(ia.getSessionUri(), options.username,
-                            options.password, ia.getOrgName(), options.version);
+                    String vcdToken = TokenManager.getComputeToken(ia.getSessionUri(),
+                            options.username, options.password, ia.getOrgName(), options.version);
 
                     System.out.println("Success.\n");
 
@@ -88,10 +90,11 @@ public class ListVmTemplates {
 
                         if (null != vdcs) {
                             for (VdcType vdc : vdcs) {
-                                // Retrieve templates for this VDC
+                                // Retrieve templates for this VDC, only their names are needed
                                 Collection<VAppTemplateType> templates = Compute
                                         .getTemplatesForVdc(ia.getSessionUri(), vdc,
-                                                options.version, vcdToken);
+                                                options.version, vcdToken,
+                                                ParallelRequests.DEFAULT_CONCURRENCY, true);
 
                                 System.out.printf("%-30s %-30s\n", "VDC Name", "Template name");
                                 System.out.printf("%-30s %-30s\n", "--------", "-------------");
@@ -18,8 +18,9 @@ import java.util.Collection;
 
 import com.google.gson.Gson;
 import com.vmware.vchs.api.samples.services.Compute;
-import com.vmware.vchs.api.samples.services.IAM;
 import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.TokenManager;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
 import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vcloud.api.rest.schema_v1_5.LinkType;
@@ -70,7 +71,8 @@ public class CreateVdcFromTemplate {
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
 
-        authToken = IAM.login(options.hostname, options.username, options.password, options.version);
+        authToken = TokenManager.getIamToken(options.hostname, options.username,
+                options.password, options.version);
 
         System.out.println("Success\n");
 
@@ -87,15 +89,15 @@ public class CreateVdcFromTemplate {
                 System.out.println("Found.\n");
 
                 // Use Gson to convert the JSON String into an instance of InstanceAttribute
-                Gson gson = new Gson();
+                Gson gson = HttpUtils.getGson();
                 InstanceAttribute ia = gson.fromJson(instance.getInstanceAttributes(),
                         InstanceAttribute.class);
 
                 // Log in to compute retrieving the auth token in response to be used
                 // in subsequent requests to compute.
                 System.out.print("Logging in to compute service...");
-                String computeAuthToken = Compute.login(ia.getSessionUri(), options.username,
-                        options.password, ia.getOrgName(), options.version);
+                String computeAuthToken = TokenManager.getComputeToken(ia.getSessionUri(),
+                        options.username, options.password, ia.getOrgName(), options.version);
                 if (null != computeAuthToken) {
                     System.out.println("Success.\n");
 
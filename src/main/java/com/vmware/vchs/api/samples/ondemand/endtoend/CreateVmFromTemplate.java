@@ -14,13 +14,18 @@
  */
 package com.vmware.vchs.api.samples.ondemand.endtoend;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import com.google.gson.Gson;
+import com.vmware.vchs.api.samples.services.BulkProvisioner;
 import com.vmware.vchs.api.samples.services.Compute;
-import com.vmware.vchs.api.samples.services.IAM;
 import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.TokenManager;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
 import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
 import com.vmware.vcloud.api.rest.schema_v1_5.VAppTemplateType;
@@ -44,6 +49,8 @@ import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
  * vdcname        [required] : the name of the VDC where the VM will be created to
  * vmtemplatename [required] : the name of the VDC VM template to use for creating the VM from
  * vmname         [required] : the name of the VM to create in the provided VDC
+ * vmcount        [optional] : the number of VMs to create, named vmname-1 to vmname-N
+ * maxinflight    [optional] : the maximum number of VMs being created at once when vmcount > 1
  *
  * Argument Line:
  * 
@@ -73,7 +80,8 @@ public class CreateVmFromTemplate {
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
 
-        authToken = IAM.login(options.hostname, options.username, options.password, options.version);
+        authToken = TokenManager.getIamToken(options.hostname, options.username,
+                options.password, options.version);
 
         if (null != authToken) {
             System.out.println("Success\n");
@@ -96,15 +104,15 @@ public class CreateVmFromTemplate {
             }
 
             if (null != computeInstance) {
-                Gson gson = new Gson();
+                Gson gson = HttpUtils.getGson();
                 InstanceAttribute ia = gson.fromJson(computeInstance.getInstanceAttributes(),
                         InstanceAttribute.class);
 
                 // Log in to compute API
                 System.out.print("Logging in to compute...");
 
-                String vcdToken = Compute.login(ia.getSessionUri(), options.username,
-                        options.password, ia.getOrgName(), options.version);
+                String vcdToken = TokenManager.getComputeToken(ia.getSessionUri(),
+                        options.username, options.password, ia.getOrgName(), options.version);
 
                 if (null != vcdToken) {
                     System.out.println("Success.\n");
@@ -127,10 +135,11 @@ public class CreateVmFromTemplate {
                                     // we got it, so lets create a VM
                                     System.out.println("Found.\n");
 
-                                    // First we need to pull a template
+                                    // First we need to pull a template, only its href is needed
                                     Collection<VAppTemplateType> templates = Compute
                                             .getTemplatesForVdc(computeInstance.getApiUrl(), vdc,
-                                                    options.version, vcdToken);
+                                                    options.version, vcdToken,
+                                                    ParallelRequests.DEFAULT_CONCURRENCY, true);
 
                                     System.out.print("Searching for VM template with name " + options.vmtemplatename);
                                     if (null != templates && templates.size() > 0) {
@@ -142,7 +151,10 @@ public class CreateVmFromTemplate {
                                         }
 
                                         // If we found a matching template proceed
-                                        if (null != matchedTemplate) {
+                                        if (null != matchedTemplate && options.vmcount > 1) {
+                                            System.out.println("Found.\n");
+                                            createVms(vdc, vcdToken);
+                                        } else if (null != matchedTemplate) {
                                             System.out.println("Found.\n");
 
                                             VAppType vapp = Compute.createVmFromTemplate(vdc,
@@ -172,4 +184,37 @@ public class CreateVmFromTemplate {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates options.vmcount VMs from the matched template with a BulkProvisioner, printing the
+     * outcome of each VM as it finishes and a summary at the end.
+     * 
+     * @param vdc
+     *            the VDC to create the VMs in
+     * @param vcdToken
+     *            the vCloud API token
+     */
+    private void createVms(VdcType vdc, String vcdToken) {
+        List<String> vmNames = new ArrayList<String>();
+        for (int i = 1; i <= options.vmcount; i++) {
+            vmNames.add(options.vmname + "-" + i);
+        }
+
+        System.out.println("Creating " + vmNames.size() + " VMs, " + options.maxinflight
+                + " at a time...");
+
+        BulkProvisioner provisioner = new BulkProvisioner(vdc, matchedTemplate, options.version,
+                vcdToken).setMaxInFlight(options.maxinflight).setProgressListener(
+                new BulkProvisioner.ProgressListener() {
+                    public void finished(BulkProvisioner.Outcome outcome, int finished, int total) {
+                        System.out.printf("[%d/%d] %-30s %-8s %6.1fs %s\n", finished, total,
+                                outcome.getVmName(), outcome.isSuccess() ? "created" : "failed",
+                                outcome.getLatencyMillis() / 1000.0,
+                                outcome.isSuccess() ? "" : outcome.getError());
+                    }
+                });
+
+        BulkProvisioner.Report report = provisioner.provision(vmNames);
+        System.out.println("\n" + report + "\n");
+    }
+}
@@ -14,8 +14,8 @@ package com.vmware.vchs.api.samples.ondemand.endtoend;
 import java.util.Collection;
 import java.util.List;
 
-import com.vmware.vchs.api.samples.services.IAM;
 import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.TokenManager;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vchs.sc.service.v1.PlanType;
 
@@ -59,8 +59,8 @@ public class ListPlansAndInstances {
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
 
-        authToken = IAM
-                .login(options.hostname, options.username, options.password, options.version);
+        authToken = TokenManager.getIamToken(options.hostname, options.username,
+                options.password, options.version);
 
         System.out.println("Success\n");
 
@@ -17,8 +17,8 @@ package com.vmware.vchs.api.samples.ondemand.endtoend;
 import java.util.List;
 
 import com.vmware.vchs.api.samples.services.Billing;
-import com.vmware.vchs.api.samples.services.IAM;
 import com.vmware.vchs.api.samples.services.Metering;
+import com.vmware.vchs.api.samples.services.TokenManager;
 import com.vmware.vchs.vms.billabledata.v1.BillableListType;
 import com.vmware.vchs.vms.billabledata.v1.BillableType;
 import com.vmware.vchs.vms.billabledata.v1.BillableUsageType;
@@ -69,7 +69,8 @@ public class MeteringAndBilling {
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
 
-        authToken = IAM.login(options.hostname, options.username, options.password, options.version);
+        authToken = TokenManager.getIamToken(options.hostname, options.username,
+                options.password, options.version);
 
         System.out.println("Success\n");
 
@@ -14,6 +14,8 @@
  */
 package com.vmware.vchs.api.samples.ondemand.endtoend;
 
+import java.io.File;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
@@ -22,6 +24,9 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
 
 import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.BulkProvisioner;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.ResponseCache;
 /**
  * This class maintains all the command line options for the various samples.
  */
@@ -42,6 +47,11 @@ public class SampleCommandLineOptions {
     static final String OPTION_VDC_TEMPLATE_NAME = "vdctemplatename";
     static final String OPTION_REGION = "region";
     static final String OPTION_NETWORK_NAME = "networkname";
+    static final String OPTION_MAX_CONNECTIONS = "maxconnections";
+    static final String OPTION_MAX_CONNECTIONS_PER_ROUTE = "maxconnectionsperroute";
+    static final String OPTION_RESPONSE_CACHE_DIR = "responsecachedir";
+    static final String OPTION_VM_COUNT = "vmcount";
+    static final String OPTION_MAX_IN_FLIGHT = "maxinflight";
 
     // Command line arguments
     Option[] options = new Option[] {
@@ -68,6 +78,21 @@ public class SampleCommandLineOptions {
             new Option(OPTION_REGION, true, "The region the service may be found in."),
             new Option(OPTION_NETWORK_NAME, true,
                     "The name of the network to apply to a VM when creating or reconfiguring a VM."),
+            new Option(OPTION_MAX_CONNECTIONS, true,
+                    "The maximum number of pooled HTTP connections if the default of "
+                            + HttpUtils.DEFAULT_MAX_CONNECTIONS + " is not to be used."),
+            new Option(OPTION_MAX_CONNECTIONS_PER_ROUTE, true,
+                    "The maximum number of pooled HTTP connections per host if the default of "
+                            + HttpUtils.DEFAULT_MAX_CONNECTIONS_PER_ROUTE + " is not to be used."),
+            new Option(OPTION_RESPONSE_CACHE_DIR, true,
+                    "A directory to cache GET responses in, so unchanged resources are not "
+                            + "downloaded again on the next run by the same user."),
+            new Option(OPTION_VM_COUNT, true,
+                    "The number of VMs to create from the template, named vmname-1 to vmname-N, "
+                            + "if more than 1."),
+            new Option(OPTION_MAX_IN_FLIGHT, true,
+                    "The maximum number of VMs being created at once if the default of "
+                            + BulkProvisioner.DEFAULT_MAX_IN_FLIGHT + " is not to be used."),
     };
 
     /*
@@ -103,6 +128,23 @@ public class SampleCommandLineOptions {
     public String region;
     public String networkname;
 
+    /*
+     * The limits of the HTTP connection pool shared by all API calls
+     */
+    public int maxconnections = HttpUtils.DEFAULT_MAX_CONNECTIONS;
+    public int maxconnectionsperroute = HttpUtils.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+    /*
+     * The directory GET responses are cached in, response caching is disabled if not set
+     */
+    public String responsecachedir;
+
+    /*
+     * The number of VMs to create and how many of them to create at once
+     */
+    public int vmcount = 1;
+    public int maxinflight = BulkProvisioner.DEFAULT_MAX_IN_FLIGHT;
+
     /**
      * This method returns the Apache Commons Cli Options instance that represents the common
      * options all vCHS Rest API Samples may need. Samples can provide their own subclass of this
@@ -211,9 +253,44 @@ public class SampleCommandLineOptions {
             if (cl.hasOption(OPTION_NETWORK_NAME)) {
                 networkname = cl.getOptionValue(OPTION_NETWORK_NAME);
             }
+
+            if (cl.hasOption(OPTION_MAX_CONNECTIONS)) {
+                maxconnections = Integer.parseInt(cl.getOptionValue(OPTION_MAX_CONNECTIONS));
+            }
+
+            if (cl.hasOption(OPTION_MAX_CONNECTIONS_PER_ROUTE)) {
+                maxconnectionsperroute = Integer.parseInt(cl
+                        .getOptionValue(OPTION_MAX_CONNECTIONS_PER_ROUTE));
+            }
+
+            HttpUtils.configureConnectionPool(maxconnections, maxconnectionsperroute);
+
+            if (cl.hasOption(OPTION_VM_COUNT)) {
+                vmcount = Integer.parseInt(cl.getOptionValue(OPTION_VM_COUNT));
+            }
+
+            if (cl.hasOption(OPTION_MAX_IN_FLIGHT)) {
+                maxinflight = Integer.parseInt(cl.getOptionValue(OPTION_MAX_IN_FLIGHT));
+            }
+
+            if (vmcount <= 0 || maxinflight <= 0) {
+                throw new IllegalArgumentException("VM count and max in flight must be positive");
+            }
+
+            if (cl.hasOption(OPTION_RESPONSE_CACHE_DIR)) {
+                responsecachedir = cl.getOptionValue(OPTION_RESPONSE_CACHE_DIR);
+                HttpUtils.setResponseCache(new ResponseCache(
+                        ResponseCache.DEFAULT_MAX_MEMORY_BYTES, new File(responsecachedir),
+                        ResponseCache.DEFAULT_MAX_DISK_BYTES));
+            }
         } catch (org.apache.commons.cli.ParseException e) {
             help.printHelp("vCHS Sample command line syntax", getOptions());
             System.exit(1);
+        } catch (IllegalArgumentException e) {
+            // Thrown for non-numeric or out of range connection pool limits, or an unusable cache
+            // directory
+            help.printHelp("vCHS Sample command line syntax", getOptions());
+            System.exit(1);
         }
 
         return cl;
@@ -15,6 +15,7 @@ import java.util.List;
 import java.util.Random;
 
 import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.TokenManager;
 import com.vmware.vchs.iam.v2.ObjectFactory;
 import com.vmware.vchs.iam.v2.Role;
 import com.vmware.vchs.iam.v2.Roles;
@@ -61,8 +62,8 @@ public class UserManagement {
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
 
-        authToken = IAM
-                .login(options.hostname, options.username, options.password, options.version);
+        authToken = TokenManager.getIamToken(options.hostname, options.username,
+                options.password, options.version);
 
         if (null != authToken) {
             System.out.println("Success\n");
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.FutureCallback;
+
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vchs.vms.billabledata.v1.BilledCostsType;
+import com.vmware.vchs.vms.billabledata.v1.BilledUsageType;
+import com.vmware.vchs.vms.billabledata.v1.ServiceGroupType;
+import com.vmware.vchs.vms.billabledata.v1.ServiceGroupsType;
+
+/**
+ * This class wraps the blocking billing API calls implemented in Billing in Futures. Every method
+ * submits the matching Billing call to the shared AsyncExecutor and returns a Future right away, so
+ * the caller can start several calls before waiting for any of them. The calls are not
+ * non-blocking: each one holds an AsyncExecutor thread until its response has been read, so the
+ * number of calls in flight is bounded by the size of that pool.
+ */
+public class AsyncBilling {
+    /**
+     * Lists the service groups of the company in the background.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token
+     * @param version
+     *            version of the API to invoke
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for instance of ServiceGroupsType or null
+     * @see Billing#listServiceGroups
+     */
+    public static Future<ServiceGroupsType> listServiceGroups(final String url,
+            final String authToken, final String version,
+            FutureCallback<ServiceGroupsType> callback) {
+        return AsyncExecutor.submit(new Callable<ServiceGroupsType>() {
+            public ServiceGroupsType call() {
+                return Billing.listServiceGroups(url, authToken, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the details of one service group in the background.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceGroupId
+     *            the service group id
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for instance of ServiceGroupType or null
+     * @see Billing#getServiceGroupDetails
+     */
+    public static Future<ServiceGroupType> getServiceGroupDetails(final String url,
+            final String authToken, final String version, final String serviceGroupId,
+            FutureCallback<ServiceGroupType> callback) {
+        return AsyncExecutor.submit(new Callable<ServiceGroupType>() {
+            public ServiceGroupType call() {
+                return Billing.getServiceGroupDetails(url, authToken, version, serviceGroupId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the billed cost items of a service group for a billing month in the background.
+     * Cost items exist only for months a bill was generated for.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            the version of the API to invoke
+     * @param serviceGroupId
+     *            service group id
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of BilledCostsType or null
+     * @see Billing#getBilledCosts
+     */
+    public static Future<BilledCostsType> getBilledCosts(final String url, final String authToken,
+            final String version, final String serviceGroupId,
+            FutureCallback<BilledCostsType> callback) {
+        return AsyncExecutor.submit(new Callable<BilledCostsType>() {
+            public BilledCostsType call() {
+                return Billing.getBilledCosts(url, authToken, version, serviceGroupId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the billed usage of one L1, such as a VM, for a billing month in the background.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param l1id
+     *            the L1 id
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of BilledUsageType or null
+     * @see Billing#getL1BilledUsage
+     */
+    public static Future<BilledUsageType> getL1BilledUsage(final String url, final String authToken,
+            final String version, final String serviceInstanceId, final String l1id,
+            FutureCallback<BilledUsageType> callback) {
+        return AsyncExecutor.submit(new Callable<BilledUsageType>() {
+            public BilledUsageType call() {
+                return Billing.getL1BilledUsage(url, authToken, version, serviceInstanceId, l1id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the billed usage of one L2, such as a VDC, for a billing month in the background.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param l2id
+     *            the id of the L2, e.g. a VDC id
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of BilledUsageType or null
+     * @see Billing#getL2BilledUsage
+     */
+    public static Future<BilledUsageType> getL2BilledUsage(final String url, final String authToken,
+            final String version, final String serviceInstanceId, final String l2id,
+            FutureCallback<BilledUsageType> callback) {
+        return AsyncExecutor.submit(new Callable<BilledUsageType>() {
+            public BilledUsageType call() {
+                return Billing.getL2BilledUsage(url, authToken, version, serviceInstanceId, l2id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the billed usage of a whole service instance for a billing month in the background.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of BilledUsageType or null
+     * @see Billing#getBilledUsageForServiceInstance
+     */
+    public static Future<BilledUsageType> getBilledUsageForServiceInstance(final String url,
+            final String authToken, final String version, final String serviceInstanceId,
+            FutureCallback<BilledUsageType> callback) {
+        return AsyncExecutor.submit(new Callable<BilledUsageType>() {
+            public BilledUsageType call() {
+                return Billing.getBilledUsageForServiceInstance(url, authToken, version,
+                        serviceInstanceId);
+            }
+        }, callback);
+    }
+}
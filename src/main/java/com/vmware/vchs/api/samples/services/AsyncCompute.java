@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.FutureCallback;
+
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
+import com.vmware.vcloud.api.rest.schema_v1_5.ReferenceType;
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppTemplateType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcTemplateType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VmType;
+
+/**
+ * This class wraps the blocking vCloud Compute API calls implemented in Compute in Futures. Every
+ * method submits the matching Compute call to the shared AsyncExecutor and returns a Future right
+ * away, so the caller can start several calls before waiting for any of them. The calls are not
+ * non-blocking: each one holds an AsyncExecutor thread until its response has been read, so the
+ * number of calls in flight is bounded by the size of that pool.
+ */
+public class AsyncCompute {
+    /**
+     * Logs in to vCloud in the background. Await the returned Future before making calls that need
+     * the x-vcloud-authorization token it completes with.
+     * 
+     * @param url
+     *            the url to the VCD API to make requests to
+     * @param username
+     *            the username to log in with
+     * @param password
+     *            the password to log in with
+     * @param orgName
+     *            the org name to use as part of the login process
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for the value of the header x-vcloud-authorization if login success
+     * @see Compute#login
+     */
+    public static Future<String> login(final String url, final String username,
+            final String password, final String orgName, final String version,
+            FutureCallback<String> callback) {
+        return AsyncExecutor.submit(new Callable<String>() {
+            public String call() {
+                return Compute.login(url, username, password, orgName, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Instantiates a vApp template into a new VM in the background. The Future completes once the
+     * instantiation request is accepted, not when the VM is ready; track the returned task for
+     * that.
+     * 
+     * @param vdc
+     *            the VdcType instance to create the VM in to
+     * @param template
+     *            the vApp template to create the VM from
+     * @param vAppName
+     *            the name of the created VM
+     * @param version
+     *            the version of the API to use
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of VAppType if successful, null otherwise
+     * @see Compute#createVmFromTemplate
+     */
+    public static Future<VAppType> createVmFromTemplate(final VdcType vdc,
+            final VAppTemplateType template, final String vAppName, final String version,
+            final String token, FutureCallback<VAppType> callback) {
+        return AsyncExecutor.submit(new Callable<VAppType>() {
+            public VAppType call() {
+                return Compute.createVmFromTemplate(vdc, template, vAppName, version, token);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves every VDC of the orgs in the list in the background.
+     * 
+     * @param org
+     *            the list of Orgs to get VDCs from
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for a collection of VdcType instances if available, null otherwise.
+     * @see Compute#getVDCsForOrgs
+     */
+    public static Future<Collection<VdcType>> getVDCsForOrgs(final OrgListType org,
+            final String token, final String version,
+            FutureCallback<Collection<VdcType>> callback) {
+        return AsyncExecutor.submit(new Callable<Collection<VdcType>>() {
+            public Collection<VdcType> call() {
+                return Compute.getVDCsForOrgs(org, token, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Looks up the VM with the given name among the children of a vApp in the background.
+     * 
+     * @param vApp
+     *            the VAppType to get the VM from
+     * @param vmName
+     *            the name of the VM to match
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of VmType if found, null otherwise
+     * @see Compute#getVmFromVApp
+     */
+    public static Future<VmType> getVmFromVApp(final VAppType vApp, final String vmName,
+            final String version, final String token, FutureCallback<VmType> callback) {
+        return AsyncExecutor.submit(new Callable<VmType>() {
+            public VmType call() {
+                return Compute.getVmFromVApp(vApp, vmName, version, token);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves every VM of a VDC in the background, by reading each of its vApps.
+     * 
+     * @param vdc
+     *            the VdcType instance to get all Vms for.
+     * @param token
+     *            the vCloud API Auth token
+     * @param version
+     *            the version of the API to invoke
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for a collection of VmType instances, or null
+     * @see Compute#getVmsForVdc
+     */
+    public static Future<Collection<VmType>> getVmsForVdc(final VdcType vdc, final String token,
+            final String version, FutureCallback<Collection<VmType>> callback) {
+        return AsyncExecutor.submit(new Callable<Collection<VmType>>() {
+            public Collection<VmType> call() {
+                return Compute.getVmsForVdc(vdc, token, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves every vApp of a VDC in the background.
+     * 
+     * @param vdc
+     *            the VdcType to get the VApp collection from
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for a collection of VappType instances if found, null otherwise
+     * @see Compute#getVAppsForVdc
+     */
+    public static Future<Collection<VAppType>> getVAppsForVdc(final VdcType vdc, final String token,
+            final String version, FutureCallback<Collection<VAppType>> callback) {
+        return AsyncExecutor.submit(new Callable<Collection<VAppType>>() {
+            public Collection<VAppType> call() {
+                return Compute.getVAppsForVdc(vdc, token, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the details of an org in the background.
+     * 
+     * @param url
+     *            the url to make API requests to
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of OrgListType if found, null otherwise
+     * @see Compute#getOrgDetails
+     */
+    public static Future<OrgListType> getOrgDetails(final String url, final String token,
+            final String version, FutureCallback<OrgListType> callback) {
+        return AsyncExecutor.submit(new Callable<OrgListType>() {
+            public OrgListType call() {
+                return Compute.getOrgDetails(url, token, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Searches the vApp templates visible from a VDC for one with the given name in the background.
+     * 
+     * @param url
+     *            the URL to make the API request to
+     * @param vdc
+     *            the VdcType to get the template from
+     * @param templateName
+     *            the name of the template to find
+     * @param token
+     *            OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of VAppTemplateType if found, null otherwise
+     * @see Compute#getTemplateForVdc
+     */
+    public static Future<VAppTemplateType> getTemplateForVdc(final String url, final VdcType vdc,
+            final String templateName, final String token, final String version,
+            FutureCallback<VAppTemplateType> callback) {
+        return AsyncExecutor.submit(new Callable<VAppTemplateType>() {
+            public VAppTemplateType call() {
+                return Compute.getTemplateForVdc(url, vdc, templateName, token, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Requests a new VDC from a VDC template in the background. The Future completes with the task
+     * tracking the creation.
+     * 
+     * @param vdcTemplateRef
+     *            a ReferencType instance that refers to the VDC template
+     * @param url
+     *            the url to make API requests to
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @param vdcName
+     *            the name of the VDC to create
+     * @param description
+     *            a description to provide for the created VDC
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of TaskType if successful which can be queried for status,
+     *         or null otherwise
+     * @see Compute#createVdcFromVdcTemplate
+     */
+    public static Future<TaskType> createVdcFromVdcTemplate(final ReferenceType vdcTemplateRef,
+            final String url, final String token, final String version, final String vdcName,
+            final String description, FutureCallback<TaskType> callback) {
+        return AsyncExecutor.submit(new Callable<TaskType>() {
+            public TaskType call() {
+                return Compute.createVdcFromVdcTemplate(vdcTemplateRef, url, token, version,
+                        vdcName, description);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves references to the VDC templates the token can see in the background.
+     * 
+     * @param url
+     *            the url to make API requests to
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for a collection of ReferenceType objects if found, null otherwise
+     * @see Compute#getVdcTemplates
+     */
+    public static Future<Collection<ReferenceType>> getVdcTemplates(final String url,
+            final String token, final String version,
+            FutureCallback<Collection<ReferenceType>> callback) {
+        return AsyncExecutor.submit(new Callable<Collection<ReferenceType>>() {
+            public Collection<ReferenceType> call() {
+                return Compute.getVdcTemplates(url, token, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Looks up a VDC template by name in the background.
+     * 
+     * @param url
+     *            the url of the API to make requests to
+     * @param templateName
+     *            the name of the template to find
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for a ReferenceType instance if found, null otherwise
+     * @see Compute#findVdcTemplateByName
+     */
+    public static Future<ReferenceType> findVdcTemplateByName(final String url,
+            final String templateName, final String token, final String version,
+            FutureCallback<ReferenceType> callback) {
+        return AsyncExecutor.submit(new Callable<ReferenceType>() {
+            public ReferenceType call() {
+                return Compute.findVdcTemplateByName(url, templateName, token, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Resolves a VDC template reference into the full template in the background.
+     * 
+     * @param ref
+     *            the ReferenceType instance that contains the VdcTemplateType
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of VdcTemplateType, or null otherwise
+     * @see Compute#getVdcTemplateFromRef
+     */
+    public static Future<VdcTemplateType> getVdcTemplateFromRef(final ReferenceType ref,
+            final String token, final String version, FutureCallback<VdcTemplateType> callback) {
+        return AsyncExecutor.submit(new Callable<VdcTemplateType>() {
+            public VdcTemplateType call() {
+                return Compute.getVdcTemplateFromRef(ref, token, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the vApp templates visible from a VDC in the background.
+     * 
+     * @param computeUrl
+     *            the base url of the vCloud API
+     * @param vdc
+     *            the VDC to find and return all templates from
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the vCloud authorization token
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for the vApp templates of the VDC
+     * @see Compute#getTemplatesForVdc
+     */
+    public static Future<Collection<VAppTemplateType>> getTemplatesForVdc(final String computeUrl,
+            final VdcType vdc, final String version, final String token,
+            FutureCallback<Collection<VAppTemplateType>> callback) {
+        return AsyncExecutor.submit(new Callable<Collection<VAppTemplateType>>() {
+            public Collection<VAppTemplateType> call() {
+                return Compute.getTemplatesForVdc(computeUrl, vdc, version, token);
+            }
+        }, callback);
+    }
+
+    /**
+     * Deploys or undeploys a vApp in the background.
+     * 
+     * @param vApp
+     *            the vApp to deploy or undeploy
+     * @param deploy
+     *            true to deploy the vApp, false to undeploy it
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the vCloud authorization token
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for the task of the operation, null if the request failed
+     * @see Compute#deployUndeployVM
+     */
+    public static Future<TaskType> deployUndeployVM(final VAppType vApp, final Boolean deploy,
+            final String version, final String token, FutureCallback<TaskType> callback) {
+        return AsyncExecutor.submit(new Callable<TaskType>() {
+            public TaskType call() {
+                return Compute.deployUndeployVM(vApp, deploy, version, token);
+            }
+        }, callback);
+    }
+
+    /**
+     * Reads the IP address of a VM from its network connection section in the background.
+     * 
+     * @param vm
+     *            the VmType to obtain the internal ip from
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the vCloud authorization token
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for the internal ip if found, otherwise "none" is returned
+     * @see Compute#getIpForVm
+     */
+    public static Future<String> getIpForVm(final VmType vm, final String version,
+            final String token, FutureCallback<String> callback) {
+        return AsyncExecutor.submit(new Callable<String>() {
+            public String call() {
+                return Compute.getIpForVm(vm, version, token);
+            }
+        }, callback);
+    }
+}
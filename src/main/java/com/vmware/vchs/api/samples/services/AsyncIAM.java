@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.FutureCallback;
+
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vchs.iam.v2.User;
+import com.vmware.vchs.iam.v2.Users;
+
+/**
+ * This class wraps the blocking IAM API calls implemented in IAM in Futures. Every method submits
+ * the matching IAM call to the shared AsyncExecutor and returns a Future right away, so the caller
+ * can start several calls before waiting for any of them. The calls are not non-blocking: each one
+ * holds an AsyncExecutor thread until its response has been read, so the number of calls in flight
+ * is bounded by the size of that pool.
+ */
+public class AsyncIAM {
+    /**
+     * Logs in to IAM in the background. Await the returned Future before making calls that need the
+     * token it completes with.
+     * 
+     * @param hostname
+     *            the url of the API to make requests to
+     * @param username
+     *            the username of the account to log in with
+     * @param password
+     *            the password of the account to log in with
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for the value of the response header vchs-authorization if login is
+     *         successful, null otherwise
+     * @see IAM#login
+     */
+    public static Future<String> login(final String hostname, final String username,
+            final String password, final String version, FutureCallback<String> callback) {
+        return AsyncExecutor.submit(new Callable<String>() {
+            public String call() {
+                return IAM.login(hostname, username, password, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves one user of the account in the background.
+     * 
+     * @param url
+     *            the url to make API requests to
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param userId
+     *            the id of the user to retrieve
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of User if found, null otherwise
+     * @see IAM#getUser
+     */
+    public static Future<User> getUser(final String url, final String token, final String userId,
+            final String version, FutureCallback<User> callback) {
+        return AsyncExecutor.submit(new Callable<User>() {
+            public User call() {
+                return IAM.getUser(url, token, userId, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the users of the account in the background.
+     * 
+     * @param url
+     *            the url of the API to make requests to
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of Users if accessible, null otherwise
+     * @see IAM#getUsers
+     */
+    public static Future<Users> getUsers(final String url, final String token, final String version,
+            FutureCallback<Users> callback) {
+        return AsyncExecutor.submit(new Callable<Users>() {
+            public Users call() {
+                return IAM.getUsers(url, token, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Creates a user in the background.
+     * 
+     * @param url
+     *            the url of the API to make requests to
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param user
+     *            the instance of User to create the new user from
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of User if created successfully, null otherwise
+     * @see IAM#createUser
+     */
+    public static Future<User> createUser(final String url, final String token, final User user,
+            final String version, FutureCallback<User> callback) {
+        return AsyncExecutor.submit(new Callable<User>() {
+            public User call() {
+                return IAM.createUser(url, token, user, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Updates a user in the background.
+     * 
+     * @param url
+     *            the hostname url to send the update request to
+     * @param token
+     *            the OAUTH token to authenticate the request with
+     * @param user
+     *            the user instance to send as the entity to update with
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for true if the update was successful false otherwise
+     * @see IAM#updateUser
+     */
+    public static Future<Boolean> updateUser(final String url, final String token, final User user,
+            final String version, FutureCallback<Boolean> callback) {
+        return AsyncExecutor.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                return IAM.updateUser(url, token, user, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes a user in the background.
+     * 
+     * @param url
+     *            the hostname url to send the update request to
+     * @param token
+     *            the OAUTH token to authenticate the request with
+     * @param userId
+     *            the id of the user to delete
+     * @param version
+     *            the version of the API to call
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for the http status code
+     * @see IAM#deleteUser
+     */
+    public static Future<Boolean> deleteUser(final String url, final String token,
+            final String userId, final String version, FutureCallback<Boolean> callback) {
+        return AsyncExecutor.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                return IAM.deleteUser(url, token, userId, version);
+            }
+        }, callback);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.FutureCallback;
+
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vchs.vms.billabledata.v1.BillableCostsType;
+import com.vmware.vchs.vms.billabledata.v1.BillableUsageType;
+
+/**
+ * This class wraps the blocking metering API calls implemented in Metering in Futures. Every method
+ * submits the matching Metering call to the shared AsyncExecutor and returns a Future right away,
+ * so the caller can start several calls before waiting for any of them. The calls are not
+ * non-blocking: each one holds an AsyncExecutor thread until its response has been read, so the
+ * number of calls in flight is bounded by the size of that pool.
+ */
+public class AsyncMetering {
+    /**
+     * Retrieves the not yet billed usage of one L1, such as a VM, in the background.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance ID
+     * @param l1id
+     *            the id of the L1, e.g. a VM id
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for an instance of BillableUsageType or null
+     * @see Metering#getL1BillableUsage
+     */
+    public static Future<BillableUsageType> getL1BillableUsage(final String url,
+            final String authToken, final String version, final String serviceInstanceId,
+            final String l1id, FutureCallback<BillableUsageType> callback) {
+        return AsyncExecutor.submit(new Callable<BillableUsageType>() {
+            public BillableUsageType call() {
+                return Metering.getL1BillableUsage(url, authToken, version, serviceInstanceId,
+                        l1id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the not yet billed usage of one L2, such as a VDC, in the background.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance ID
+     * @param l2id
+     *            the id of the L2, e.g. a VDC id
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for instance of BillableUsageType or null
+     * @see Metering#getL2BillableUsage
+     */
+    public static Future<BillableUsageType> getL2BillableUsage(final String url,
+            final String authToken, final String version, final String serviceInstanceId,
+            final String l2id, FutureCallback<BillableUsageType> callback) {
+        return AsyncExecutor.submit(new Callable<BillableUsageType>() {
+            public BillableUsageType call() {
+                return Metering.getL2BillableUsage(url, authToken, version, serviceInstanceId,
+                        l2id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the not yet billed usage of a service instance in the background.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for instance of BillableUsageType or null
+     * @see Metering#getBillableUsage
+     */
+    public static Future<BillableUsageType> getBillableUsage(final String url,
+            final String authToken, final String version, final String serviceInstanceId,
+            FutureCallback<BillableUsageType> callback) {
+        return AsyncExecutor.submit(new Callable<BillableUsageType>() {
+            public BillableUsageType call() {
+                return Metering.getBillableUsage(url, authToken, version, serviceInstanceId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the current value of the cost items of a service group since the last bill in the
+     * background.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceGroupId
+     *            the service group id
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for instance of BillableCostsType or null
+     * @see Metering#getBillableCosts
+     */
+    public static Future<BillableCostsType> getBillableCosts(final String url,
+            final String authToken, final String version, final String serviceGroupId,
+            FutureCallback<BillableCostsType> callback) {
+        return AsyncExecutor.submit(new Callable<BillableCostsType>() {
+            public BillableCostsType call() {
+                return Metering.getBillableCosts(url, authToken, version, serviceGroupId);
+            }
+        }, callback);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.FutureCallback;
+
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+import com.vmware.vchs.sc.service.v1.PlanType;
+
+/**
+ * This class wraps the blocking service controller API calls implemented in ServiceController in
+ * Futures. Every method submits the matching ServiceController call to the shared AsyncExecutor and
+ * returns a Future right away, so the caller can start several calls before waiting for any of
+ * them. The calls are not non-blocking: each one holds an AsyncExecutor thread until its response
+ * has been read, so the number of calls in flight is bounded by the size of that pool.
+ */
+public class AsyncServiceController {
+    /**
+     * Retrieves the service plans in the background.
+     * 
+     * @param hostname
+     *            the url of the API to make requests to
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for a collection of PlanType instances if successful, null otherwise
+     * @see ServiceController#getPlans
+     */
+    public static Future<Collection<PlanType>> getPlans(final String hostname, final String version,
+            final String token, FutureCallback<Collection<PlanType>> callback) {
+        return AsyncExecutor.submit(new Callable<Collection<PlanType>>() {
+            public Collection<PlanType> call() {
+                return ServiceController.getPlans(hostname, version, token);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the service instances the token can see in the background.
+     * 
+     * @param hostname
+     *            the host URL to make API calls to
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the authentication token to make API calls with
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for a collection of instances if found, null otherwise
+     * @see ServiceController#getInstances
+     */
+    public static Future<Collection<InstanceType>> getInstances(final String hostname,
+            final String version, final String token,
+            FutureCallback<Collection<InstanceType>> callback) {
+        return AsyncExecutor.submit(new Callable<Collection<InstanceType>>() {
+            public Collection<InstanceType> call() {
+                return ServiceController.getInstances(hostname, version, token);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the service instances of one service type in the background.
+     * 
+     * @param hostname
+     *            the host URL to make API calls to
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the OAUTH token to use with API calls
+     * @param serviceType
+     *            the Plan serviceName attribute string to use to match plans with
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for a collection of instances, or null if nothing is found
+     * @see ServiceController#getInstancesForServiceType
+     */
+    public static Future<Collection<InstanceType>> getInstancesForServiceType(final String hostname,
+            final String version, final String token, final String serviceType,
+            FutureCallback<Collection<InstanceType>> callback) {
+        return AsyncExecutor.submit(new Callable<Collection<InstanceType>>() {
+            public Collection<InstanceType> call() {
+                return ServiceController.getInstancesForServiceType(hostname, version, token,
+                        serviceType);
+            }
+        }, callback);
+    }
+
+    /**
+     * Creates a service instance from a plan in the background.
+     * 
+     * @param hostname
+     *            the host URL to make API calls to
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the authentication token to make API calls with
+     * @param planId
+     *            the id of the plan to base this instance from
+     * @param serviceGroupId
+     *            the service group id of the org to create this instance in
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for true if successfully created, false otherwise.
+     * @see ServiceController#createInstance
+     */
+    public static Future<Boolean> createInstance(final String hostname, final String version,
+            final String token, final String planId, final String serviceGroupId,
+            FutureCallback<Boolean> callback) {
+        return AsyncExecutor.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                return ServiceController.createInstance(hostname, version, token, planId,
+                        serviceGroupId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes a service instance in the background.
+     * 
+     * @param hostname
+     *            the host URL to make API calls to
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the authenticated token to make API calls with
+     * @param instanceId
+     *            the id of the instance to delete
+     * @param callback
+     *            notified when the call completes, fails or is cancelled, may be null
+     * @return a Future for true if deleted, false if not
+     * @see ServiceController#deleteInstance
+     */
+    public static Future<Boolean> deleteInstance(final String hostname, final String version,
+            final String token, final String instanceId, FutureCallback<Boolean> callback) {
+        return AsyncExecutor.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                return ServiceController.deleteInstance(hostname, version, token, instanceId);
+            }
+        }, callback);
+    }
+}
@@ -104,7 +104,7 @@ public class Billing {
                 // This is here to show when an error occurs, the response should always be
                 // an Error instance
                 String s = null;
-                Gson g = new Gson();
+                Gson g = HttpUtils.getGson();
 
                 try {
                     s = EntityUtils.toString(response.getEntity());
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.concurrent.FutureCallback;
+
+import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
+import com.vmware.vchs.api.samples.services.helper.RateLimiter;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultVAppRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppType;
+
+/**
+ * This class deploys or undeploys many vApps at once with Compute.deployUndeployVM(). The
+ * requests are sent concurrently, with at most a given number in flight and optionally no more
+ * than a given number started per second, so a large batch does not overwhelm the API. The task
+ * returned for each vApp is tracked by TaskTracker as soon as the request is accepted, so all the
+ * tasks are waited on together while the remaining requests are still being sent.
+ *
+ * The vApps can either be passed in directly or selected with a Query API filter, in which case
+ * each vApp is retrieved just before its request is sent.
+ *
+ * A vApp whose request fails does not stop the batch: it is reported with its error in the
+ * returned Report, along with the final task of every other vApp.
+ */
+public class BulkPowerOperation {
+    /*
+     * Default number of deploy or undeploy requests in flight at once
+     */
+    public static final int DEFAULT_CONCURRENCY = ParallelRequests.DEFAULT_CONCURRENCY;
+
+    private final String version;
+    private final String token;
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private RateLimiter limiter = null;
+    private ProgressListener listener = null;
+
+    /**
+     * @param version
+     *            the version of the API to use
+     * @param token
+     *            the vCloud API token
+     */
+    public BulkPowerOperation(String version, String token) {
+        this.version = version;
+        this.token = token;
+    }
+
+    /**
+     * Listener notified as each vApp is finished with, successfully or not.
+     */
+    public interface ProgressListener {
+        /**
+         * @param outcome
+         *            the outcome of the vApp
+         * @param finished
+         *            the number of vApps finished with so far, including this one
+         * @param total
+         *            the number of vApps in the batch
+         */
+        void finished(Outcome outcome, int finished, int total);
+    }
+
+    /**
+     * @param max
+     *            the maximum number of deploy or undeploy requests in flight at once
+     * @return this BulkPowerOperation
+     */
+    public BulkPowerOperation setConcurrency(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Concurrency must be greater than 0");
+        }
+
+        concurrency = max;
+        return this;
+    }
+
+    /**
+     * @param requestsPerSecond
+     *            the maximum number of requests started per second, or 0 for no limit
+     * @return this BulkPowerOperation
+     */
+    public BulkPowerOperation setRequestsPerSecond(double requestsPerSecond) {
+        limiter = requestsPerSecond > 0 ? new RateLimiter(requestsPerSecond) : null;
+        return this;
+    }
+
+    /**
+     * @param progressListener
+     *            optional listener notified as each vApp is finished with, may be null
+     * @return this BulkPowerOperation
+     */
+    public BulkPowerOperation setProgressListener(ProgressListener progressListener) {
+        listener = progressListener;
+        return this;
+    }
+
+    /**
+     * Deploys or undeploys the provided vApps and waits for all of their tasks to finish.
+     *
+     * @param vApps
+     *            the vApps to deploy or undeploy
+     * @param deploy
+     *            true to deploy the vApps, false to undeploy them
+     * @return the report of the outcome of every vApp
+     */
+    public Report run(Collection<VAppType> vApps, boolean deploy) {
+        List<Operation> operations = new ArrayList<Operation>(vApps.size());
+        for (VAppType vApp : vApps) {
+            operations.add(new Operation(vApp.getHref(), vApp.getName(), vApp, deploy));
+        }
+
+        return run(operations);
+    }
+
+    /**
+     * Deploys or undeploys all the vApps matching the provided Query API filter and waits for all
+     * of their tasks to finish.
+     *
+     * @param computeUrl
+     *            the compute instance API url
+     * @param filter
+     *            the Query API filter selecting the vApps, for example vdc==&lt;vdc href&gt;, or
+     *            null for all the vApps visible to the token
+     * @param deploy
+     *            true to deploy the vApps, false to undeploy them
+     * @return the report of the outcome of every vApp
+     */
+    public Report runForQuery(String computeUrl, String filter, boolean deploy) {
+        String query = "type=vApp&format=records";
+        if (null != filter) {
+            query += "&filter=" + HttpUtils.encodeQueryValue("(" + filter + ")");
+        }
+
+        List<Operation> operations = new ArrayList<Operation>();
+        for (QueryResultRecordType record : HttpUtils.queryRecords(
+                Compute.getBaseUrl(computeUrl), query, SampleConstants.DEFAULT_QUERY_PAGE_SIZE,
+                version, token)) {
+            if (record instanceof QueryResultVAppRecordType) {
+                operations.add(new Operation(record.getHref(),
+                        ((QueryResultVAppRecordType) record).getName(), null, deploy));
+            }
+        }
+
+        return run(operations);
+    }
+
+    private Report run(List<Operation> operations) {
+        int total = operations.size();
+        CountDownLatch done = new CountDownLatch(total);
+        List<Outcome> outcomes = Collections.synchronizedList(new ArrayList<Outcome>(total));
+        AtomicInteger finished = new AtomicInteger();
+        long start = System.currentTimeMillis();
+
+        for (Operation operation : operations) {
+            operation.done = done;
+            operation.outcomes = outcomes;
+            operation.finished = finished;
+            operation.total = total;
+        }
+
+        // Only the requests are bounded by the concurrency, the tasks are all tracked at once
+        ParallelRequests.invokeAll(operations, concurrency, false, null);
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        return new Report(outcomes, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * The deploy or undeploy of a single vApp, from the request to the end of its task.
+     */
+    private class Operation implements Callable<Operation> {
+        private final String href;
+        private final String name;
+        private final boolean deploy;
+        private VAppType vApp;
+        private long start;
+
+        private CountDownLatch done;
+        private List<Outcome> outcomes;
+        private AtomicInteger finished;
+        private int total;
+
+        Operation(String href, String name, VAppType vApp, boolean deploy) {
+            this.href = href;
+            this.name = name;
+            this.vApp = vApp;
+            this.deploy = deploy;
+        }
+
+        public Operation call() {
+            if (null != limiter) {
+                limiter.acquire();
+            }
+
+            start = System.currentTimeMillis();
+
+            TaskType task;
+            try {
+                if (null == vApp) {
+                    vApp = Compute.getVApp(href, token, version);
+                    if (null == vApp) {
+                        finish(null, "The vApp could not be retrieved");
+                        return this;
+                    }
+                }
+
+                task = Compute.deployUndeployVM(vApp, deploy, version, token);
+            } catch (RuntimeException e) {
+                finish(null, e.toString());
+                return this;
+            }
+
+            if (null == task) {
+                finish(null, "The " + (deploy ? "deploy" : "undeploy")
+                        + " request was not accepted");
+                return this;
+            }
+
+            TaskTracker.track(task, version, token, new FutureCallback<TaskType>() {
+                public void completed(TaskType result) {
+                    finish(result, "success".equalsIgnoreCase(result.getStatus()) ? null
+                            : "Task ended with status " + result.getStatus());
+                }
+
+                public void failed(Exception e) {
+                    finish(null, e.toString());
+                }
+
+                public void cancelled() {
+                    finish(null, "Task tracking cancelled");
+                }
+            });
+
+            return this;
+        }
+
+        private void finish(TaskType task, String error) {
+            Outcome outcome = new Outcome(href, name, task, error, System.currentTimeMillis()
+                    - start);
+            outcomes.add(outcome);
+
+            try {
+                if (null != listener) {
+                    listener.finished(outcome, finished.incrementAndGet(), total);
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * The outcome of the deploy or undeploy of one vApp.
+     */
+    public static class Outcome {
+        private final String href;
+        private final String name;
+        private final TaskType task;
+        private final String error;
+        private final long latencyMillis;
+
+        Outcome(String href, String name, TaskType task, String error, long latencyMillis) {
+            this.href = href;
+            this.name = name;
+            this.task = task;
+            this.error = error;
+            this.latencyMillis = latencyMillis;
+        }
+
+        public String getHref() {
+            return href;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the final state of the task of the vApp, null if no task was started or it
+         *         could not be tracked
+         */
+        public TaskType getTask() {
+            return task;
+        }
+
+        /**
+         * @return the reason the operation failed, null if it succeeded
+         */
+        public String getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return null == error;
+        }
+
+        /**
+         * @return the time from the request to the end of the task
+         */
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+    }
+
+    /**
+     * The outcomes of all the vApps of a batch, in the order they finished.
+     */
+    public static class Report {
+        private final List<Outcome> outcomes;
+        private final long elapsedMillis;
+
+        Report(List<Outcome> outcomes, long elapsedMillis) {
+            this.outcomes = new ArrayList<Outcome>(outcomes);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public List<Outcome> getOutcomes() {
+            return outcomes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public int getSuccessCount() {
+            int count = 0;
+            for (Outcome outcome : outcomes) {
+                if (outcome.isSuccess()) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+
+        /**
+         * @return the outcomes of the vApps the operation failed for
+         */
+        public List<Outcome> getFailures() {
+            List<Outcome> failures = new ArrayList<Outcome>();
+            for (Outcome outcome : outcomes) {
+                if (!outcome.isSuccess()) {
+                    failures.add(outcome);
+                }
+            }
+
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d vApps done in %.1fs", getSuccessCount(),
+                    outcomes.size(), elapsedMillis / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppTemplateType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
+
+/**
+ * This class creates many VMs from the same template with Compute.createVmFromTemplate(). Instead
+ * of creating one VM and waiting for it before starting the next, up to a given number of VMs are
+ * in flight at once: as soon as one VM is created, or has failed, the next one is started. The
+ * tasks of all the VMs in flight are tracked together by TaskTracker.
+ *
+ * A VM whose instantiation request fails with a 5xx status, or could not be sent because the
+ * connection failed, is retried after an exponentially growing delay, up to a maximum number of
+ * attempts. A request rejected with any other status is not retried, since sending it again would
+ * be rejected the same way. When the outcome of a request is unknown, for instance because the
+ * response timed out, vCloud may have created the vApp anyway: the VDC is then looked up for a
+ * vApp of that name before the request is sent again, so that the VM is not created twice. A VM
+ * whose instantiation task ends in error is not retried, since vCloud has already created its
+ * vApp.
+ *
+ * The returned Report lists the outcome and latency of every VM along with the overall
+ * throughput.
+ */
+public class BulkProvisioner {
+    /*
+     * Default number of VMs being created at once
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10;
+
+    /*
+     * Default number of times the instantiation request of a VM is sent before giving up
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /*
+     * Delay before the first retry of a failed instantiation request, doubled for each retry
+     */
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 2000;
+
+    private static final ScheduledExecutorService retryScheduler = Executors
+            .newSingleThreadScheduledExecutor(new AsyncExecutor.DaemonThreadFactory(
+                    "vchs-provisioning"));
+
+    private final VdcType vdc;
+    private final VAppTemplateType template;
+    private final String version;
+    private final String token;
+
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+    private ProgressListener listener = null;
+
+    /**
+     * @param vdc
+     *            the VdcType instance to create the VMs in
+     * @param template
+     *            the vApp template to create the VMs from
+     * @param version
+     *            the version of the API to use
+     * @param token
+     *            the vCloud API token
+     */
+    public BulkProvisioner(VdcType vdc, VAppTemplateType template, String version, String token) {
+        this.vdc = vdc;
+        this.template = template;
+        this.version = version;
+        this.token = token;
+    }
+
+    /**
+     * Listener notified as each VM is finished with, successfully or not.
+     */
+    public interface ProgressListener {
+        /**
+         * @param outcome
+         *            the outcome of the VM
+         * @param finished
+         *            the number of VMs finished with so far, including this one
+         * @param total
+         *            the number of VMs being created
+         */
+        void finished(Outcome outcome, int finished, int total);
+    }
+
+    /**
+     * @param max
+     *            the maximum number of VMs being created at once
+     * @return this BulkProvisioner
+     */
+    public BulkProvisioner setMaxInFlight(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Max in flight must be greater than 0");
+        }
+
+        maxInFlight = max;
+        return this;
+    }
+
+    /**
+     * @param attempts
+     *            the number of times the instantiation request of a VM is sent before giving up
+     * @param delayMillis
+     *            the delay before the first retry, doubled for each following retry
+     * @return this BulkProvisioner
+     */
+    public BulkProvisioner setRetries(int attempts, long delayMillis) {
+        if (attempts <= 0 || delayMillis < 0) {
+            throw new IllegalArgumentException("Invalid retry settings");
+        }
+
+        maxAttempts = attempts;
+        retryDelayMillis = delayMillis;
+        return this;
+    }
+
+    /**
+     * @param progressListener
+     *            optional listener notified as each VM is finished with, may be null
+     * @return this BulkProvisioner
+     */
+    public BulkProvisioner setProgressListener(ProgressListener progressListener) {
+        listener = progressListener;
+        return this;
+    }
+
+    /**
+     * Creates one VM per name and waits for all of them to be finished with.
+     *
+     * @param vmNames
+     *            the names of the VMs to create
+     * @return the report of the outcome of every VM
+     */
+    public Report provision(List<String> vmNames) {
+        int total = vmNames.size();
+        Semaphore window = new Semaphore(maxInFlight);
+        CountDownLatch done = new CountDownLatch(total);
+        List<Outcome> outcomes = Collections.synchronizedList(new ArrayList<Outcome>(total));
+        AtomicInteger finished = new AtomicInteger();
+        long start = System.currentTimeMillis();
+
+        try {
+            for (String vmName : vmNames) {
+                window.acquire();
+                new Provision(vmName, window, done, outcomes, finished, total).attempt();
+            }
+
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        return new Report(outcomes, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * The creation of a single VM, across all of its attempts.
+     */
+    private class Provision implements Runnable {
+        private final String vmName;
+        private final Semaphore window;
+        private final CountDownLatch done;
+        private final List<Outcome> outcomes;
+        private final AtomicInteger finished;
+        private final int total;
+        private final long start = System.currentTimeMillis();
+        private int attempts = 0;
+        private int statusCode = 0;
+        private boolean mayExist = false;
+
+        Provision(String vmName, Semaphore window, CountDownLatch done, List<Outcome> outcomes,
+                AtomicInteger finished, int total) {
+            this.vmName = vmName;
+            this.window = window;
+            this.done = done;
+            this.outcomes = outcomes;
+            this.finished = finished;
+            this.total = total;
+        }
+
+        void attempt() {
+            attempts++;
+            ParallelRequests.submit(Executors.callable(this));
+        }
+
+        public void run() {
+            // A previous attempt may have created the vApp even though it did not get the answer
+            if (mayExist) {
+                VAppType existing;
+                try {
+                    existing = Compute.getVAppByName(vdc, vmName, token, version);
+                } catch (RuntimeException e) {
+                    retryOrFail(e.toString(), true);
+                    return;
+                }
+
+                if (null != existing) {
+                    track(existing);
+                    return;
+                }
+            }
+
+            HttpResponse response;
+            try {
+                response = Compute.instantiateVAppTemplate(vdc, template, vmName, version, token);
+            } catch (RuntimeException e) {
+                // Only a connection that could not be opened guarantees the request was not sent
+                retryOrFail(e.toString(), !isConnectFailure(e));
+                return;
+            }
+
+            StatusLine status = response.getStatusLine();
+            statusCode = status.getStatusCode();
+            if (statusCode != HttpStatus.SC_CREATED) {
+                String error = "Instantiation request failed with HTTP " + statusCode + " "
+                        + status.getReasonPhrase();
+                if (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                    retryOrFail(error, true);
+                } else {
+                    finish(null, error);
+                }
+                return;
+            }
+
+            VAppType vapp;
+            try {
+                vapp = HttpUtils.unmarshal(response.getEntity(), VAppType.class);
+            } catch (RuntimeException e) {
+                retryOrFail(e.toString(), true);
+                return;
+            }
+
+            track(vapp);
+        }
+
+        private void track(VAppType vapp) {
+            List<TaskType> tasks = null != vapp.getTasks() ? vapp.getTasks().getTask()
+                    : Collections.<TaskType> emptyList();
+            if (tasks.isEmpty()) {
+                finish(vapp, null);
+                return;
+            }
+
+            // Finish once every task of the vApp has ended
+            final VAppType created = vapp;
+            final AtomicInteger remaining = new AtomicInteger(tasks.size());
+            final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+            for (TaskType task : tasks) {
+                TaskTracker.track(task, version, token, new FutureCallback<TaskType>() {
+                    public void completed(TaskType result) {
+                        if (!"success".equalsIgnoreCase(result.getStatus())) {
+                            errors.add("Task " + result.getOperationName() + " ended with status "
+                                    + result.getStatus());
+                        }
+                        taskDone();
+                    }
+
+                    public void failed(Exception e) {
+                        errors.add(e.toString());
+                        taskDone();
+                    }
+
+                    public void cancelled() {
+                        errors.add("Task tracking cancelled");
+                        taskDone();
+                    }
+
+                    private void taskDone() {
+                        if (remaining.decrementAndGet() == 0) {
+                            finish(created, errors.isEmpty() ? null : errors.get(0));
+                        }
+                    }
+                });
+            }
+        }
+
+        private void retryOrFail(String error, boolean ambiguous) {
+            mayExist |= ambiguous;
+            if (attempts < maxAttempts) {
+                long delay = retryDelayMillis << (attempts - 1);
+                retryScheduler.schedule(new Runnable() {
+                    public void run() {
+                        attempt();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } else {
+                finish(null, error);
+            }
+        }
+
+        private void finish(VAppType vapp, String error) {
+            Outcome outcome = new Outcome(vmName, vapp, error, attempts, statusCode,
+                    System.currentTimeMillis() - start);
+            outcomes.add(outcome);
+            window.release();
+
+            try {
+                if (null != listener) {
+                    listener.finished(outcome, finished.incrementAndGet(), total);
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private boolean isConnectFailure(RuntimeException e) {
+            Throwable cause = e.getCause();
+            return cause instanceof ConnectException || cause instanceof ConnectTimeoutException
+                    || cause instanceof UnknownHostException;
+        }
+    }
+
+    /**
+     * The outcome of the creation of one VM.
+     */
+    public static class Outcome {
+        private final String vmName;
+        private final VAppType vapp;
+        private final String error;
+        private final int attempts;
+        private final int statusCode;
+        private final long latencyMillis;
+
+        Outcome(String vmName, VAppType vapp, String error, int attempts, int statusCode,
+                long latencyMillis) {
+            this.vmName = vmName;
+            this.vapp = vapp;
+            this.error = error;
+            this.attempts = attempts;
+            this.statusCode = statusCode;
+            this.latencyMillis = latencyMillis;
+        }
+
+        public String getVmName() {
+            return vmName;
+        }
+
+        /**
+         * @return the created vApp as returned by the instantiation request, null if the request
+         *         never succeeded
+         */
+        public VAppType getVApp() {
+            return vapp;
+        }
+
+        /**
+         * @return the reason the VM could not be created, null if it was created
+         */
+        public String getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return null == error;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return the HTTP status of the last instantiation request answered, 0 if none was
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return the time from the first instantiation request to the end of the last task
+         */
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+    }
+
+    /**
+     * The outcomes of all the VMs of a provision() call, in the order they finished, along with
+     * throughput and latency figures.
+     */
+    public static class Report {
+        private final List<Outcome> outcomes;
+        private final long elapsedMillis;
+
+        Report(List<Outcome> outcomes, long elapsedMillis) {
+            this.outcomes = new ArrayList<Outcome>(outcomes);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public List<Outcome> getOutcomes() {
+            return outcomes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public int getSuccessCount() {
+            int count = 0;
+            for (Outcome outcome : outcomes) {
+                if (outcome.isSuccess()) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+
+        /**
+         * @return the number of VMs successfully created per minute
+         */
+        public double getVmsPerMinute() {
+            return elapsedMillis == 0 ? 0 : getSuccessCount() * 60000.0 / elapsedMillis;
+        }
+
+        /**
+         * Returns the latency below which the provided percentage of the VMs were finished with.
+         *
+         * @param percentile
+         *            the percentile, between 0 and 100
+         * @return the latency in milliseconds, or 0 if there are no outcomes
+         */
+        public long getLatencyPercentile(double percentile) {
+            if (outcomes.isEmpty()) {
+                return 0;
+            }
+
+            long[] latencies = new long[outcomes.size()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = outcomes.get(i).getLatencyMillis();
+            }
+            Arrays.sort(latencies);
+
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d VMs created in %.1fs (%.2f VMs/minute), "
+                    + "latency p50 %.1fs p95 %.1fs max %.1fs", getSuccessCount(), outcomes.size(),
+                    elapsedMillis / 1000.0, getVmsPerMinute(),
+                    getLatencyPercentile(50) / 1000.0, getLatencyPercentile(95) / 1000.0,
+                    getLatencyPercentile(100) / 1000.0);
+        }
+    }
+}
@@ -13,7 +13,13 @@ package com.vmware.vchs.api.samples.services;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import javax.xml.bind.JAXBElement;
@@ -27,7 +33,9 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 
 import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.helper.ExpiringCache;
 import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
 import com.vmware.vcloud.api.rest.schema_v1_5.DeployVAppParamsType;
 import com.vmware.vcloud.api.rest.schema_v1_5.InstantiateVAppTemplateParamsType;
 import com.vmware.vcloud.api.rest.schema_v1_5.InstantiateVdcTemplateParamsType;
@@ -39,11 +47,13 @@ import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
 import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
 import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordsType;
 import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultVAppTemplateRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultVMRecordType;
 import com.vmware.vcloud.api.rest.schema_v1_5.ReferenceType;
 import com.vmware.vcloud.api.rest.schema_v1_5.ResourceEntitiesType;
 import com.vmware.vcloud.api.rest.schema_v1_5.ResourceReferenceType;
 import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
 import com.vmware.vcloud.api.rest.schema_v1_5.TasksInProgressType;
+import com.vmware.vcloud.api.rest.schema_v1_5.UndeployVAppParamsType;
 import com.vmware.vcloud.api.rest.schema_v1_5.VAppTemplateType;
 import com.vmware.vcloud.api.rest.schema_v1_5.VAppType;
 import com.vmware.vcloud.api.rest.schema_v1_5.VdcTemplateListType;
@@ -55,6 +65,22 @@ import com.vmware.vcloud.api.rest.schema_v1_5.VmType;
  * This class implements API calls to the vCloud Compute API.
  */
 public class Compute {
+    /*
+     * How long waitForTasks() waits for each task, the 10 polls 10 seconds apart that
+     * waitForTaskCompletion() was always called with
+     */
+    public static final long WAIT_FOR_TASKS_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(100);
+
+    /*
+     * Default time the name of a vApp looked up by getVmFromVApp() is reused for. Names are not
+     * cached unless setVAppNameCacheTtl() is called, since a renamed vApp keeps its old name in
+     * the cache until it expires
+     */
+    public static final long DEFAULT_VAPP_NAME_TTL_MILLIS = 0;
+
+    private static final ExpiringCache<String> vAppNameCache = new ExpiringCache<String>(
+            DEFAULT_VAPP_NAME_TTL_MILLIS);
+
     /**
      * This method will log in to compute using the provided URL (which should be the /api/sessions
      * path).
@@ -112,6 +138,36 @@ public class Compute {
      */
     public static final VAppType createVmFromTemplate(VdcType vdc, VAppTemplateType template,
             String vAppName, String version, String token) {
+        HttpResponse response = instantiateVAppTemplate(vdc, template, vAppName, version, token);
+
+        // Make sure response status is 201 Created
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_CREATED) {
+            return HttpUtils.unmarshal(response.getEntity(), VAppType.class);
+        }
+
+        return null;
+    }
+
+    /**
+     * This method sends the request that createVmFromTemplate() uses to create a VM and returns
+     * the response as is, so that callers needing to tell apart the reasons a request failed can
+     * inspect its status code. The body of a 201 Created response is the VAppType of the new
+     * vApp.
+     * 
+     * @param vdc
+     *            the VdcType instance to create the VM in to
+     * @param template
+     *            the vApp template to create the VM from
+     * @param vAppName
+     *            the name of the created VM
+     * @param version
+     *            the version of the API to use
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @return the response of the instantiation request
+     */
+    public static final HttpResponse instantiateVAppTemplate(VdcType vdc,
+            VAppTemplateType template, String vAppName, String version, String token) {
         ReferenceType vappReference = new ReferenceType();
         vappReference.setHref(template.getHref());
 
@@ -170,14 +226,7 @@ public class Compute {
         post.setEntity(se);
 
         // Invoke the HttoPost to initiate the VM creation process
-        HttpResponse response = HttpUtils.httpInvoke(post);
-
-        // Make sure response status is 201 Created
-        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_CREATED) {
-            return HttpUtils.unmarshal(response.getEntity(), VAppType.class);
-        }
-
-        return null;
+        return HttpUtils.httpInvoke(post);
     }
 
     /**
@@ -195,23 +244,10 @@ public class Compute {
             String version) {
         if (null != org) {
             List<VdcType> vdcs = new ArrayList<VdcType>();
-            List<LinkType> links = org.getLink();
-            for (LinkType link : links) {
-                if (link.getRel().equalsIgnoreCase("down")
-                        && link.getType().equalsIgnoreCase("application/vnd.vmware.vcloud.vdc+xml")) {
-                    HttpGet get = new HttpGet(link.getHref());
-                    get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION
-                            + version + ";charset=utf-8");
-                    get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
-                    HttpResponse response = HttpUtils.httpInvoke(get);
-
-                    if (null != response
-                            && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-                        VdcType vdc = HttpUtils.unmarshal(response.getEntity(), VdcType.class);
-                        if (null != vdc) {
-                            vdcs.add(vdc);
-                        }
-                    }
+            for (String href : getVdcHrefs(org)) {
+                VdcType vdc = getVdc(href, token, version);
+                if (null != vdc) {
+                    vdcs.add(vdc);
                 }
             }
 
@@ -221,6 +257,51 @@ public class Compute {
         return null;
     }
 
+    /**
+     * This method will retrieve the VDC at the provided href.
+     * 
+     * @param href
+     *            the href of the VDC
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @return an instance of VdcType if found, null otherwise
+     */
+    public static final VdcType getVdc(String href, String token, String version) {
+        HttpGet get = new HttpGet(href);
+        get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION + version
+                + ";charset=utf-8");
+        get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
+        HttpResponse response = HttpUtils.httpInvoke(get);
+
+        if (null != response && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+            return HttpUtils.unmarshal(response.getEntity(), VdcType.class);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the hrefs of the VDCs the passed in org links down to, in the order they are listed.
+     * 
+     * @param org
+     *            the org to get the VDC hrefs of
+     * @return the VDC hrefs, empty if the org has no VDC
+     */
+    public static final List<String> getVdcHrefs(OrgListType org) {
+        List<String> hrefs = new ArrayList<String>();
+
+        for (LinkType link : org.getLink()) {
+            if (link.getRel().equalsIgnoreCase("down")
+                    && link.getType().equalsIgnoreCase("application/vnd.vmware.vcloud.vdc+xml")) {
+                hrefs.add(link.getHref());
+            }
+        }
+
+        return hrefs;
+    }
+
     /**
      * @param vApp
      *            the vApp to search for a matching Vm
@@ -245,40 +326,98 @@ public class Compute {
             String token) {
         // Get the status of initialization operation and IP details
         if (null != vApp.getChildren()) {
-            List<VmType> vms = vApp.getChildren().getVm();
-
-            for (VmType vm : vms) {
-                List<LinkType> links = vm.getLink();
-
-                for (LinkType link : links) {
-                    // If there is a rel="up", we use that to get the ID and match it to the
-                    // passed in vApp id
-                    if (link.getRel().equalsIgnoreCase("up")) {
-                        // make GET request to get the up vApp to compare it to the
-                        // passed in vApp
-                        HttpGet get = new HttpGet(vApp.getHref());
-                        get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
-                        get.setHeader(HttpHeaders.ACCEPT,
-                                SampleConstants.APPLICATION_PLUS_XML_VERSION + version
-                                        + ";charset=utf-8");
-                        HttpResponse response = HttpUtils.httpInvoke(get);
-                        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-                            VAppType upVApp = HttpUtils.unmarshal(response.getEntity(),
-                                    VAppType.class);
-                            if (upVApp.getName().equalsIgnoreCase(vmName)) {
-                                return vm;
-                            }
-                        }
+            VmType match = getVmsByName(vApp).get(vmName.toLowerCase(Locale.ENGLISH));
+            if (null != match) {
+                return match;
+            }
+
+            // If there is a rel="up", we use the name of the vApp to match the passed in name.
+            // Every up link leads to the same lookup of the passed in vApp, so it is only made for
+            // the first VM that has one.
+            for (VmType vm : vApp.getChildren().getVm()) {
+                if (hasUpLink(vm)) {
+                    if (vmName.equalsIgnoreCase(getVAppName(vApp.getHref(), version, token))) {
+                        return vm;
                     }
+                    break;
                 }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Indexes the VM children of the passed in vApp by name, so that many VMs of the same vApp can
+     * be looked up without going through the children each time. Names are matched without regard
+     * to case, as getVmFromVApp() does. If several VMs have the same name, the first one is kept.
+     * Unlike getVmFromVApp(), VMs are only matched by their own name.
+     * 
+     * @param vApp
+     *            the VAppType to index the VMs of
+     * @return the VMs of the vApp by lower case name, empty if the vApp has no children
+     */
+    public static final Map<String, VmType> getVmsByName(VAppType vApp) {
+        Map<String, VmType> vmsByName = new HashMap<String, VmType>();
 
-                if (vm.getName().equalsIgnoreCase(vmName)) {
-                    return vm;
+        if (null != vApp.getChildren()) {
+            for (VmType vm : vApp.getChildren().getVm()) {
+                if (null != vm.getName()) {
+                    String key = vm.getName().toLowerCase(Locale.ENGLISH);
+                    if (!vmsByName.containsKey(key)) {
+                        vmsByName.put(key, vm);
+                    }
                 }
             }
         }
 
-        return null;
+        return vmsByName;
+    }
+
+    /**
+     * Sets how long the name of a vApp looked up by getVmFromVApp() is reused for before it is
+     * requested again. A time to live of 0, the default, disables caching. While caching is
+     * enabled, a vApp renamed in the meantime is still matched by its old name until the entry
+     * expires.
+     * 
+     * @param ttlMillis
+     *            the time to live of cached vApp names, in milliseconds
+     */
+    public static void setVAppNameCacheTtl(long ttlMillis) {
+        vAppNameCache.setTtl(ttlMillis);
+    }
+
+    private static boolean hasUpLink(VmType vm) {
+        for (LinkType link : vm.getLink()) {
+            if (link.getRel().equalsIgnoreCase("up")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Returns the current name of the vApp at the provided href, from the cache if it was
+     * requested recently
+     */
+    private static String getVAppName(String href, String version, String token) {
+        String key = href + "|" + token;
+        ExpiringCache.Entry<String> cached = vAppNameCache.get(key);
+        if (vAppNameCache.isFresh(cached)) {
+            return cached.getValue();
+        }
+
+        VAppType vApp = getVApp(href, token, version);
+        if (null == vApp) {
+            return null;
+        }
+
+        // Names are never revalidated, so expired entries are only dropped to keep the cache small
+        vAppNameCache.removeExpired();
+        vAppNameCache.put(key, vApp.getName(), null);
+
+        return vApp.getName();
     }
 
     /**
@@ -317,6 +456,52 @@ public class Compute {
         return null;
     }
 
+    /**
+     * This method uses the vCloud Query API to return the VM records of all the VMs in the
+     * provided Vdc. Unlike getVmsForVdc(), which requests every vApp of the VDC to read its VM
+     * children, the records are requested a page at a time, so the number of requests depends on
+     * the number of pages instead of the number of vApps. VMs that are part of vApp templates are
+     * not included. The pages are followed through their nextPage links, so all the records are
+     * returned even if the server caps the page size below the one requested.
+     * 
+     * @param computeUrl
+     *            the compute instance API url
+     * @param vdc
+     *            the VdcType instance to get all Vm records for
+     * @param token
+     *            the vCloud API Auth token
+     * @param version
+     *            the version of the API to invoke
+     * @param pageSize
+     *            the number of records to request per page, or 0 to use the server default
+     * @return a collection of QueryResultVMRecordType instances, or null if a Query API request
+     *         failed
+     */
+    public static final Collection<QueryResultVMRecordType> getVmRecordsForVdc(String computeUrl,
+            VdcType vdc, String token, String version, int pageSize) {
+        if (null == vdc) {
+            return null;
+        }
+
+        String query = "type=vm&format=records&filter="
+                + HttpUtils.encodeQueryValue("(isVAppTemplate==false;vdc==" + vdc.getHref() + ")");
+
+        Collection<QueryResultVMRecordType> vms = new ArrayList<QueryResultVMRecordType>();
+        try {
+            for (QueryResultRecordType record : HttpUtils.queryRecords(getBaseUrl(computeUrl),
+                    query, pageSize, version, token)) {
+                if (record instanceof QueryResultVMRecordType) {
+                    vms.add((QueryResultVMRecordType) record);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Partial results are not returned, so callers can fall back to getVmsForVdc()
+            return null;
+        }
+
+        return vms;
+    }
+
     /**
      * This method will return a collection of vApps for the provided VDC if found.
      * 
@@ -331,21 +516,11 @@ public class Compute {
     public static final Collection<VAppType> getVAppsForVdc(VdcType vdc, String token,
             String version) {
         if (null != vdc && null != vdc.getResourceEntities()) {
-            ResourceEntitiesType resourceEntities = vdc.getResourceEntities();
-            List<ResourceReferenceType> resources = resourceEntities.getResourceEntity();
             Collection<VAppType> vapps = new ArrayList<VAppType>();
-            for (ResourceReferenceType resource : resources) {
-                if (resource.getType().equalsIgnoreCase("application/vnd.vmware.vcloud.vApp+xml")) {
-                    HttpGet get = new HttpGet(resource.getHref());
-                    get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
-                    get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION
-                            + version + ";charset=utf-8");
-                    HttpResponse response = HttpUtils.httpInvoke(get);
-
-                    if (null != response
-                            && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-                        vapps.add(HttpUtils.unmarshal(response.getEntity(), VAppType.class));
-                    }
+            for (String href : getVAppHrefs(vdc)) {
+                VAppType vapp = getVApp(href, token, version);
+                if (null != vapp) {
+                    vapps.add(vapp);
                 }
             }
 
@@ -355,6 +530,127 @@ public class Compute {
         return null;
     }
 
+    /**
+     * This method will return a collection of vApps for the provided VDC if found. Unlike
+     * getVAppsForVdc(VdcType, String, String), which requests each vApp one after the other, the
+     * vApps are requested concurrently with at most concurrency requests in flight at once.
+     * 
+     * @param vdc
+     *            the VdcType to get the VApp collection from
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @param concurrency
+     *            the maximum number of vApp requests to have in flight at once
+     * @param preserveOrder
+     *            if true the vApps are returned in the order the VDC lists them, otherwise in the
+     *            order the requests completed
+     * @param listener
+     *            optional listener notified with the latency of each vApp request, may be null
+     * @return a collection of VappType instances if found, null otherwise
+     */
+    public static final Collection<VAppType> getVAppsForVdc(VdcType vdc, final String token,
+            final String version, int concurrency, boolean preserveOrder,
+            ParallelRequests.RequestListener<? super VAppType> listener) {
+        if (null != vdc && null != vdc.getResourceEntities()) {
+            List<Callable<VAppType>> calls = new ArrayList<Callable<VAppType>>();
+            for (final String href : getVAppHrefs(vdc)) {
+                calls.add(new Callable<VAppType>() {
+                    public VAppType call() {
+                        return getVApp(href, token, version);
+                    }
+                });
+            }
+
+            return ParallelRequests.invokeAll(calls, concurrency, preserveOrder, listener);
+        }
+
+        return null;
+    }
+
+    /**
+     * This method will retrieve the vApp at the provided href.
+     * 
+     * @param href
+     *            the href of the vApp
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @return an instance of VAppType if found, null otherwise
+     */
+    public static final VAppType getVApp(String href, String token, String version) {
+        HttpGet get = new HttpGet(href);
+        get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
+        get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION + version
+                + ";charset=utf-8");
+        HttpResponse response = HttpUtils.httpInvoke(get);
+
+        if (null != response && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+            return HttpUtils.unmarshal(response.getEntity(), VAppType.class);
+        }
+
+        return null;
+    }
+
+    /**
+     * This method will retrieve the vApp with the provided name from the VDC. The VDC is requested
+     * again rather than read from the provided instance, so that vApps created since it was
+     * retrieved are found.
+     * 
+     * @param vdc
+     *            the VdcType to look the vApp up in
+     * @param vAppName
+     *            the name of the vApp
+     * @param token
+     *            the OAUTH2 authentication token from IAM
+     * @param version
+     *            the version of the API to call
+     * @return an instance of VAppType if found, null otherwise
+     */
+    public static final VAppType getVAppByName(VdcType vdc, String vAppName, String token,
+            String version) {
+        VdcType current = getVdc(vdc.getHref(), token, version);
+        if (null == current || null == current.getResourceEntities()) {
+            return null;
+        }
+
+        for (ResourceReferenceType resource : current.getResourceEntities().getResourceEntity()) {
+            if (resource.getType().equalsIgnoreCase("application/vnd.vmware.vcloud.vApp+xml")
+                    && vAppName.equals(resource.getName())) {
+                return getVApp(resource.getHref(), token, version);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * This method returns the hrefs of all the vApp resource entities of the provided VDC, in the
+     * order the VDC lists them.
+     * 
+     * @param vdc
+     *            the VdcType to get the vApp hrefs from
+     * @return the list of vApp hrefs
+     */
+    public static final List<String> getVAppHrefs(VdcType vdc) {
+        List<String> hrefs = new ArrayList<String>();
+        ResourceEntitiesType resourceEntities = vdc.getResourceEntities();
+        if (null == resourceEntities) {
+            return hrefs;
+        }
+
+        List<ResourceReferenceType> resources = resourceEntities.getResourceEntity();
+        for (ResourceReferenceType resource : resources) {
+            if (resource.getType().equalsIgnoreCase("application/vnd.vmware.vcloud.vApp+xml")) {
+                hrefs.add(resource.getHref());
+            }
+        }
+
+        return hrefs;
+    }
+
     /**
      * This method will retrieve the specified Org's details
      * 
@@ -383,7 +679,8 @@ public class Compute {
 
     /**
      * This method will use the vCloud Query API to search for a single template with a matching
-     * name. If found it is returned, otherwise null is returned.
+     * name. If found it is returned, otherwise null is returned. To look templates up repeatedly
+     * without a search per lookup, use a TemplateCatalog.
      * 
      * @param url
      *            the URL to make the API request to
@@ -556,7 +853,8 @@ public class Compute {
      * This method will retrieve all the VDC Templates (via the getVdcTemplates() method found in
      * this class) and then iterate the results looking for a matching VDC template with the name
      * passed in the templateName parameter. If a match is found, a GET request is done on the
-     * matching HREF to get the VdcTemplateType instance details and is returned.
+     * matching HREF to get the VdcTemplateType instance details and is returned. To look templates
+     * up repeatedly without listing them each time, use a TemplateCatalog.
      * 
      * @param url
      *            the url of the API to make requests to
@@ -611,31 +909,73 @@ public class Compute {
 
     /**
      * This method uses the vCloud Query API to retrieve vCloud VDC Templates. It will return a
-     * collection of VAppTemplateType instances for each template retrieved.
+     * collection of VAppTemplateType instances for each template retrieved. The templates are
+     * requested concurrently, at most ParallelRequests.DEFAULT_CONCURRENCY at once.
      * 
      * @param vdc
      *            the VDC to find and return all templates from
      */
     public static final Collection<VAppTemplateType> getTemplatesForVdc(String computeUrl,
             VdcType vdc, String version, String token) {
-        // Query the vCloud Query API to search for a vAppTemplate matching the
-        // options.templateName (command line option --templatename)
-        QueryResultRecordsType queryResults = HttpUtils.getQueryResults(getBaseUrl(computeUrl),
-                "type=vAppTemplate", version, token);
+        return getTemplatesForVdc(computeUrl, vdc, version, token,
+                ParallelRequests.DEFAULT_CONCURRENCY, false);
+    }
 
-        List<JAXBElement<? extends QueryResultRecordType>> rslt = queryResults.getRecord();
+    /**
+     * This method uses the vCloud Query API to retrieve vCloud VDC Templates. It will return a
+     * collection of VAppTemplateType instances for each template retrieved, in the order the
+     * query returned them.
+     * 
+     * When recordsOnly is true no template is requested: the returned VAppTemplateType instances
+     * only hold the href, id, name and description found in the query records. That is enough to
+     * list templates or to pass one to createVmFromTemplate(), and it takes a single request per
+     * page of records instead of one more request per template.
+     * 
+     * @param computeUrl
+     *            the compute instance API url
+     * @param vdc
+     *            the VDC to find and return all templates from
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the vCloud API token
+     * @param concurrency
+     *            the maximum number of template requests to have in flight at once
+     * @param recordsOnly
+     *            if true the templates are built from the query records without being requested
+     * @return a collection of VAppTemplateType instances, or null if no template was found
+     */
+    public static final Collection<VAppTemplateType> getTemplatesForVdc(String computeUrl,
+            VdcType vdc, final String version, final String token, int concurrency,
+            boolean recordsOnly) {
+        Collection<QueryResultVAppTemplateRecordType> records = getTemplateRecordsForVdc(
+                computeUrl, vdc, version, token);
 
-        // We should have only one record with the name matching templateName
-        if (null != rslt && rslt.size() > 0) {
+        if (records.isEmpty()) {
+            return null;
+        }
+
+        if (recordsOnly) {
             Collection<VAppTemplateType> templates = new ArrayList<VAppTemplateType>();
+            for (QueryResultVAppTemplateRecordType record : records) {
+                VAppTemplateType template = new VAppTemplateType();
+                template.setHref(record.getHref());
+                template.setId(record.getId());
+                template.setType(record.getType());
+                template.setName(record.getName());
+                template.setDescription(record.getDescription());
+                templates.add(template);
+            }
 
-            for (JAXBElement<? extends QueryResultRecordType> record : rslt) {
-                if (record.getDeclaredType().equals(QueryResultVAppTemplateRecordType.class)) {
-                    QueryResultVAppTemplateRecordType template = (QueryResultVAppTemplateRecordType) record
-                            .getValue();
+            return templates;
+        }
 
+        List<Callable<VAppTemplateType>> calls = new ArrayList<Callable<VAppTemplateType>>();
+        for (final QueryResultVAppTemplateRecordType record : records) {
+            calls.add(new Callable<VAppTemplateType>() {
+                public VAppTemplateType call() {
                     // invoke the GET request to the template href to get the VAppTemplateType
-                    HttpGet get = new HttpGet(template.getHref());
+                    HttpGet get = new HttpGet(record.getHref());
                     get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION
                             + version + ";charset=utf-8");
                     get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
@@ -645,76 +985,117 @@ public class Compute {
                     if (null != response
                             && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
                         // unmarshal the response entity into a VAppTemplateType
-                        VAppTemplateType vat = HttpUtils.unmarshal(response.getEntity(),
-                                VAppTemplateType.class);
-                        templates.add(vat);
+                        return HttpUtils.unmarshal(response.getEntity(), VAppTemplateType.class);
                     }
+
+                    return null;
                 }
-            }
+            });
+        }
 
-            return templates;
+        return ParallelRequests.invokeAll(calls, concurrency, true, null);
+    }
+
+    /**
+     * This method uses the vCloud Query API to retrieve the records of the vCloud VDC Templates,
+     * without requesting the templates themselves. All the pages of the query are retrieved.
+     * 
+     * @param computeUrl
+     *            the compute instance API url
+     * @param vdc
+     *            the VDC to find and return all template records from
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the vCloud API token
+     * @return a collection of QueryResultVAppTemplateRecordType instances, empty if none were
+     *         found
+     */
+    public static final Collection<QueryResultVAppTemplateRecordType> getTemplateRecordsForVdc(
+            String computeUrl, VdcType vdc, String version, String token) {
+        Collection<QueryResultVAppTemplateRecordType> records =
+                new ArrayList<QueryResultVAppTemplateRecordType>();
+
+        for (QueryResultRecordType record : HttpUtils.queryRecords(getBaseUrl(computeUrl),
+                "type=vAppTemplate&format=records", SampleConstants.DEFAULT_QUERY_PAGE_SIZE,
+                version, token)) {
+            if (record instanceof QueryResultVAppTemplateRecordType) {
+                records.add((QueryResultVAppTemplateRecordType) record);
+            }
         }
 
-        return null;
+        return records;
     }
 
     /**
      * This method will attempt to deploy (or undeploy) the provided vApp. The Boolean provided
-     * parameter, deploy, if set to true attempts to deploy the vApp, otherwise false will attempt
-     * to undeploy the vApp.
+     * parameter, deploy, if set to true attempts to deploy and power on the vApp by posting
+     * DeployVAppParams to its rel="deploy" link, otherwise false will attempt to power off and
+     * undeploy the vApp by posting UndeployVAppParams to its rel="undeploy" link. vCloud only
+     * lists the link that applies to the current state of the vApp. BulkPowerOperation runs this
+     * method for many vApps at once.
      * 
      * @param vApp
+     *            the vApp to deploy or undeploy
      * @param deploy
+     *            true to deploy the vApp, false to undeploy it
      * @param version
+     *            the version of the API to call
      * @param token
-     * @return
+     *            the vCloud API token
+     * @return the TaskType of the operation if the request was accepted, null otherwise
      */
     public static final TaskType deployUndeployVM(VAppType vApp, Boolean deploy, String version,
             String token) {
-        String deployHref = null;
+        String rel = deploy ? "deploy" : "undeploy";
+        String actionHref = null;
 
-        // Search the list of links for the vApp rel="deploy" to get the correct Href
+        // Search the list of links for the vApp rel="deploy" or rel="undeploy" to get the Href
         for (LinkType link : vApp.getLink()) {
-            if (link.getRel().equalsIgnoreCase("deploy")) {
-                deployHref = link.getHref();
+            if (link.getRel().equalsIgnoreCase(rel)) {
+                actionHref = link.getHref();
                 break;
             }
         }
 
-        // Only proceed if we found a valid deploy Href
-        if (null != deployHref) {
-            DeployVAppParamsType deployParams = new DeployVAppParamsType();
-            deployParams.setPowerOn(deploy);
-
-            // Create the XSD generated ObjectFactory factory class
-            ObjectFactory obj = new ObjectFactory();
-
-            // Create the DeployVAppParamsType from the ObjectFactory
-            JAXBElement<DeployVAppParamsType> deployParamsType = obj
-                    .createDeployVAppParams(deployParams);
-
-            // Get the StringEntity marshaled instance
-            StringEntity se = HttpUtils.marshal(DeployVAppParamsType.class, deployParamsType);
+        // Only proceed if we found a valid action Href
+        if (null == actionHref) {
+            return null;
+        }
 
-            HttpPost deployPost = new HttpPost(deployHref);
-            deployPost.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION
-                    + version + ";charset=utf-8");
-            deployPost.setHeader(HttpHeaders.AUTHORIZATION, token);
+        // Create the XSD generated ObjectFactory factory class
+        ObjectFactory obj = new ObjectFactory();
 
-            // Set the Content-Type header for the VM vApp template parameters
+        // Get the StringEntity marshaled instance of the parameters of the action
+        StringEntity se;
+        if (deploy) {
+            DeployVAppParamsType deployParams = new DeployVAppParamsType();
+            deployParams.setPowerOn(Boolean.TRUE);
+            se = HttpUtils.marshal(DeployVAppParamsType.class,
+                    obj.createDeployVAppParams(deployParams));
             se.setContentType("application/vnd.vmware.vcloud.deployVAppParams+xml");
+        } else {
+            UndeployVAppParamsType undeployParams = new UndeployVAppParamsType();
+            undeployParams.setUndeployPowerAction("powerOff");
+            se = HttpUtils.marshal(UndeployVAppParamsType.class,
+                    obj.createUndeployVAppParams(undeployParams));
+            se.setContentType("application/vnd.vmware.vcloud.undeployVAppParams+xml");
+        }
 
-            // Set it as the POST body
-            deployPost.setEntity(se);
+        HttpPost post = new HttpPost(actionHref);
+        post.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION + version
+                + ";charset=utf-8");
+        post.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
 
-            // Invoke the HttoPost to initiate the VM creation process
-            HttpResponse response = HttpUtils.httpInvoke(deployPost);
+        // Set it as the POST body
+        post.setEntity(se);
 
-            // Make sure response status is 201 Created
-            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_ACCEPTED) {
-                TaskType taskType = HttpUtils.unmarshal(response.getEntity(), TaskType.class);
-                return taskType;
-            }
+        // Invoke the HttpPost to start the deploy or undeploy task
+        HttpResponse response = HttpUtils.httpInvoke(post);
+
+        // Make sure response status is 202 Accepted
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_ACCEPTED) {
+            return HttpUtils.unmarshal(response.getEntity(), TaskType.class);
         }
 
         return null;
@@ -722,7 +1103,8 @@ public class Compute {
 
     /**
      * This method will retrieve the internal ip value for the passed in Vm using the Vms
-     * NetworkConfigSection to obtain the ip.
+     * NetworkConfigSection to obtain the ip. To resolve the addresses of many VMs, use an
+     * IpResolver.
      * 
      * @param vm
      *            the VmType to obtain the internal ip from
@@ -788,33 +1170,51 @@ public class Compute {
     }
 
     /**
-     * Loops through the list of tasks provided by the tasksInProgressType parameter, calling the
-     * waitForTaskCompletion method with each individual task.
+     * Waits for all the tasks provided by the tasksInProgressType parameter to finish. The tasks
+     * are tracked concurrently by the TaskTracker, so the total wait is as long as the slowest
+     * task rather than the sum of all of them.
+     * 
+     * As with waitForTaskCompletion(), each task is waited for a bounded amount of time,
+     * WAIT_FOR_TASKS_TIMEOUT_MILLIS, and this method returns quietly if a task does not finish in
+     * time or cannot be polled. Use the TaskTracker directly to wait longer or to see the final
+     * status of each task.
      * 
      * @param tasksInProgressType
      *            a collection of tasks to wait for
      */
     public static void waitForTasks(TasksInProgressType tasksInProgressType, String version,
             String token) {
-        List<TaskType> tasks = tasksInProgressType.getTask();
-        for (TaskType task : tasks) {
+        List<Future<TaskType>> futures = new ArrayList<Future<TaskType>>();
+        for (TaskType task : tasksInProgressType.getTask()) {
             if (null != task) {
-                waitForTaskCompletion(task, version, token, 10);
+                futures.add(TaskTracker.track(task, version, token, WAIT_FOR_TASKS_TIMEOUT_MILLIS,
+                        null));
+            }
+        }
+
+        for (Future<TaskType> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                // A task that timed out or could not be polled is no longer waited for
             }
         }
     }
 
     /**
-     * This is a private helper method called by other methods in this class to find the base URL of
-     * a compute instance from whatever URL is provided in the calling method. This is needed
-     * because the compute instance apiUrl returned often refers to the compute Org url, instead of
-     * just the base url.
+     * This is a helper method called by other methods in this class to find the base URL of a
+     * compute instance from whatever URL is provided in the calling method. This is needed because
+     * the compute instance apiUrl returned often refers to the compute Org url, instead of just the
+     * base url.
      * 
      * @param url
      *            the compute instance apiUrl to try to find the compute instance base URL from
      * @return the compute instance base API URL
      */
-    private static final String getBaseUrl(String url) {
+    public static final String getBaseUrl(String url) {
         String baseUrl = url;
 
         int indx = url.indexOf("/compute/api");
@@ -13,8 +13,6 @@ package com.vmware.vchs.api.samples.services;
 
 import java.io.IOException;
 
-import javax.xml.datatype.XMLGregorianCalendar;
-
 import org.apache.commons.codec.binary.Base64;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
@@ -24,7 +22,6 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.util.EntityUtils;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 import com.vmware.vchs.api.samples.SampleConstants;
 import com.vmware.vchs.api.samples.services.helper.HttpUtils;
@@ -189,12 +186,7 @@ public class IAM {
         StringBuilder sb = new StringBuilder(url);
         sb.append(SampleConstants.API_IAM_USERS);
 
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                new HttpUtils.XMLGregorianClassConverter.Serializer());
-        gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                new HttpUtils.XMLGregorianClassConverter.Deserializer());
-        Gson g = gsonBuilder.create();
+        Gson g = HttpUtils.getGson();
 
         String userToSend = g.toJson(user);
 
@@ -249,13 +241,8 @@ public class IAM {
         sb.append("/");
         sb.append(user.getId());
 
-        // Configure the GSON object
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                new HttpUtils.XMLGregorianClassConverter.Serializer());
-        gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                new HttpUtils.XMLGregorianClassConverter.Deserializer());
-        Gson g = gsonBuilder.create();
+        // Get the shared GSON object
+        Gson g = HttpUtils.getGson();
 
         // Convert the object to JSON
         String userToSend = g.toJson(user);
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.helper.ExpiringCache;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
+import com.vmware.vcloud.api.rest.schema_v1_5.NetworkConnectionSectionType;
+import com.vmware.vcloud.api.rest.schema_v1_5.NetworkConnectionType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultVMRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VmType;
+
+/**
+ * This class resolves the IP addresses of many VMs at once. Unlike Compute.getIpForVm(), which
+ * makes one request per VM and only returns the address of its first network connection, every
+ * network connection of every VM is returned.
+ *
+ * The VMs of a VDC are listed with the Query API, a page of records per request, and their
+ * NetworkConnectionSection is then requested concurrently. Sections are cached for a time to live,
+ * so sweeps repeated more often than that make no request at all, and once a section has expired
+ * it is revalidated with If-None-Match when the server returned an ETag for it. After each sweep,
+ * the expired sections of VMs that were not part of it, such as deleted VMs or VMs resolved with
+ * an earlier token, are dropped so that the cache does not grow without bound.
+ */
+public class IpResolver {
+    /*
+     * Default time a resolved NetworkConnectionSection is reused for before it is revalidated
+     */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String NETWORK_CONNECTION_SECTION = "/networkConnectionSection/";
+
+    private final String version;
+    private final ExpiringCache<List<Nic>> cache = new ExpiringCache<List<Nic>>(
+            DEFAULT_TTL_MILLIS);
+    private volatile int concurrency = ParallelRequests.DEFAULT_CONCURRENCY;
+
+    /**
+     * @param version
+     *            the version of the API to call
+     */
+    public IpResolver(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Sets how long resolved addresses are reused for before they are requested again. A time to
+     * live of 0 disables caching.
+     *
+     * @param ttlMillis
+     *            the time to live in milliseconds
+     */
+    public void setTtl(long ttlMillis) {
+        cache.setTtl(ttlMillis);
+    }
+
+    /**
+     * @param max
+     *            the maximum number of NetworkConnectionSection requests in flight at once
+     */
+    public void setConcurrency(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Concurrency must be greater than 0");
+        }
+
+        concurrency = max;
+    }
+
+    /**
+     * Drops all cached addresses.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Resolves the addresses of all the VMs of the provided VDCs.
+     *
+     * @param computeUrl
+     *            the compute instance API url
+     * @param vdcs
+     *            the VDCs to resolve the VMs of
+     * @param token
+     *            the vCloud API token
+     * @return the network connections of each VM by VM href. VMs whose connections could not be
+     *         retrieved are left out
+     */
+    public Map<String, List<Nic>> resolveForVdcs(String computeUrl, Collection<VdcType> vdcs,
+            String token) {
+        List<String> hrefs = new ArrayList<String>();
+        for (VdcType vdc : vdcs) {
+            hrefs.addAll(getVmHrefs(computeUrl, vdc, token));
+        }
+
+        return resolve(hrefs, token);
+    }
+
+    /**
+     * Resolves the addresses of all the VMs of the provided VDC.
+     *
+     * @param computeUrl
+     *            the compute instance API url
+     * @param vdc
+     *            the VDC to resolve the VMs of
+     * @param token
+     *            the vCloud API token
+     * @return the network connections of each VM by VM href. VMs whose connections could not be
+     *         retrieved are left out
+     */
+    public Map<String, List<Nic>> resolveForVdc(String computeUrl, VdcType vdc, String token) {
+        return resolve(getVmHrefs(computeUrl, vdc, token), token);
+    }
+
+    /**
+     * Resolves the addresses of the provided VMs, requesting the ones that are not cached
+     * concurrently.
+     *
+     * @param vmHrefs
+     *            the hrefs of the VMs
+     * @param token
+     *            the vCloud API token
+     * @return the network connections of each VM by VM href, in the order of vmHrefs. VMs whose
+     *         connections could not be retrieved are left out
+     */
+    public Map<String, List<Nic>> resolve(Collection<String> vmHrefs, final String token) {
+        Map<String, List<Nic>> resolved = new LinkedHashMap<String, List<Nic>>();
+        List<Callable<Resolved>> calls = new ArrayList<Callable<Resolved>>();
+        Set<String> keys = new HashSet<String>();
+
+        for (final String href : vmHrefs) {
+            String key = cacheKey(href, token);
+            keys.add(key);
+
+            ExpiringCache.Entry<List<Nic>> cached = cache.get(key);
+
+            if (cache.isFresh(cached)) {
+                resolved.put(href, cached.getValue());
+            } else {
+                // Reserve the position of the VM in the result
+                resolved.put(href, null);
+                calls.add(new Callable<Resolved>() {
+                    public Resolved call() {
+                        // A VM that cannot be resolved is left out rather than failing the others
+                        List<Nic> nics;
+                        try {
+                            nics = resolve(href, token);
+                        } catch (RuntimeException e) {
+                            nics = null;
+                        }
+
+                        return null != nics ? new Resolved(href, nics) : null;
+                    }
+                });
+            }
+        }
+
+        for (Resolved result : ParallelRequests.invokeAll(calls, concurrency, false, null)) {
+            resolved.put(result.href, result.nics);
+        }
+
+        resolved.values().removeAll(Collections.singleton(null));
+        cache.removeExpired(keys);
+
+        return resolved;
+    }
+
+    /**
+     * Resolves the addresses of a single VM.
+     *
+     * @param vmHref
+     *            the href of the VM
+     * @param token
+     *            the vCloud API token
+     * @return the network connections of the VM, or null if they could not be retrieved
+     */
+    public List<Nic> resolve(String vmHref, String token) {
+        String key = cacheKey(vmHref, token);
+        ExpiringCache.Entry<List<Nic>> cached = cache.get(key);
+
+        if (cache.isFresh(cached)) {
+            return cached.getValue();
+        }
+
+        HttpGet get = new HttpGet(vmHref + NETWORK_CONNECTION_SECTION);
+        get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION + version
+                + ";charset=utf-8");
+        get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
+        if (null != cached && null != cached.getETag()) {
+            get.setHeader(HttpHeaders.IF_NONE_MATCH, cached.getETag());
+        }
+
+        HttpResponse response = HttpUtils.httpInvoke(get);
+        if (null == response || null == response.getStatusLine()) {
+            return null;
+        }
+
+        int status = response.getStatusLine().getStatusCode();
+
+        // The cached connections have not changed on the server
+        if (status == HttpStatus.SC_NOT_MODIFIED && null != cached) {
+            cache.revalidated(key, cached);
+            return cached.getValue();
+        }
+
+        if (status == HttpStatus.SC_OK) {
+            NetworkConnectionSectionType section = HttpUtils.unmarshal(response.getEntity(),
+                    NetworkConnectionSectionType.class);
+
+            if (null != section) {
+                List<Nic> nics = toNics(section);
+                Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+                cache.put(key, nics, null != etag ? etag.getValue() : null);
+
+                return nics;
+            }
+        }
+
+        return null;
+    }
+
+    /*
+     * Lists the hrefs of the VMs of a VDC with the Query API, falling back to the vApps of the VDC
+     * if the query fails
+     */
+    private List<String> getVmHrefs(String computeUrl, VdcType vdc, String token) {
+        List<String> hrefs = new ArrayList<String>();
+
+        Collection<QueryResultVMRecordType> records = Compute.getVmRecordsForVdc(computeUrl, vdc,
+                token, version, SampleConstants.DEFAULT_QUERY_PAGE_SIZE);
+        if (null != records) {
+            for (QueryResultVMRecordType record : records) {
+                hrefs.add(record.getHref());
+            }
+        } else {
+            Collection<VmType> vms = Compute.getVmsForVdc(vdc, token, version);
+            if (null != vms) {
+                for (VmType vm : vms) {
+                    hrefs.add(vm.getHref());
+                }
+            }
+        }
+
+        return hrefs;
+    }
+
+    private static List<Nic> toNics(NetworkConnectionSectionType section) {
+        Integer primary = section.getPrimaryNetworkConnectionIndex();
+        List<Nic> nics = new ArrayList<Nic>();
+
+        for (NetworkConnectionType connection : section.getNetworkConnection()) {
+            int index = connection.getNetworkConnectionIndex();
+            boolean isPrimary = null != primary && primary.intValue() == index;
+
+            nics.add(new Nic(index, connection.getNetwork(), connection.getIpAddress(),
+                    connection.getExternalIpAddress(), connection.getMACAddress(),
+                    connection.isIsConnected(), isPrimary));
+        }
+
+        return Collections.unmodifiableList(nics);
+    }
+
+    private static String cacheKey(String href, String token) {
+        return href + "|" + token;
+    }
+
+    /**
+     * A network connection of a VM.
+     */
+    public static class Nic {
+        private final int index;
+        private final String network;
+        private final String ipAddress;
+        private final String externalIpAddress;
+        private final String macAddress;
+        private final boolean connected;
+        private final boolean primary;
+
+        Nic(int index, String network, String ipAddress, String externalIpAddress,
+                String macAddress, boolean connected, boolean primary) {
+            this.index = index;
+            this.network = network;
+            this.ipAddress = ipAddress;
+            this.externalIpAddress = externalIpAddress;
+            this.macAddress = macAddress;
+            this.connected = connected;
+            this.primary = primary;
+        }
+
+        /**
+         * @return the index of the connection within the VM
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the name of the network the connection is attached to
+         */
+        public String getNetwork() {
+            return network;
+        }
+
+        /**
+         * @return the IP address of the connection, may be null
+         */
+        public String getIpAddress() {
+            return ipAddress;
+        }
+
+        /**
+         * @return the NATed external IP address of the connection, may be null
+         */
+        public String getExternalIpAddress() {
+            return externalIpAddress;
+        }
+
+        public String getMacAddress() {
+            return macAddress;
+        }
+
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /**
+         * @return true if this is the primary network connection of the VM
+         */
+        public boolean isPrimary() {
+            return primary;
+        }
+
+        @Override
+        public String toString() {
+            return index + " " + network + " " + ipAddress;
+        }
+    }
+
+    private static class Resolved {
+        final String href;
+        final List<Nic> nics;
+
+        Resolved(String href, List<Nic> nics) {
+            this.href = href;
+            this.nics = nics;
+        }
+    }
+}
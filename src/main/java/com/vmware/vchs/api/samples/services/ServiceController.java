@@ -15,7 +15,16 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
-
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
@@ -29,7 +38,10 @@ import org.apache.http.util.EntityUtils;
 
 import com.google.gson.Gson;
 import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.helper.ExpiringCache;
 import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
+import com.vmware.vchs.api.samples.services.helper.ResponseCache;
 import com.vmware.vchs.sc.instance.v1.InstanceListType;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vchs.sc.service.v1.PlanListType;
@@ -39,8 +51,58 @@ import com.vmware.vchs.sc.service.v1.PlanType;
  * This helper class implements API calls to the service controller. It provides methods to get the
  * list of plans and instances for the provided authorization token, as well as creating a new
  * instance or deleting an existing instance.
+ *
+ * Plans and instances are cached, since they are requested by most samples but change rarely.
+ * Both depend on who is logged in, so they are cached per host, version and principal, the user
+ * and org TokenManager registered the token for with ResponseCache, or per token when none is
+ * registered. Cached lists are used as is until their time to live runs out, after which they are
+ * revalidated with If-None-Match when the server returned an ETag for them. The cached instances
+ * of a host are dropped whenever an instance is created or deleted through this class.
+ *
+ * These caches only live as long as the process. When HttpUtils has a ResponseCache with a
+ * directory, such as the one set up by the --responsecachedir option of the samples, the first
+ * request of a run goes through it, so a later run revalidates the plans instead of downloading
+ * them again.
  */
 public class ServiceController {
+    /*
+     * Default time plans are reused for before they are revalidated
+     */
+    public static final long DEFAULT_PLANS_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /*
+     * Default time instances are reused for before they are revalidated
+     */
+    public static final long DEFAULT_INSTANCES_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ExpiringCache<Collection<PlanType>> planCache =
+            new ExpiringCache<Collection<PlanType>>(DEFAULT_PLANS_TTL_MILLIS);
+
+    private static final ExpiringCache<Collection<InstanceType>> instanceCache =
+            new ExpiringCache<Collection<InstanceType>>(DEFAULT_INSTANCES_TTL_MILLIS);
+
+    /**
+     * Sets how long plans and instances are reused for before they are requested again. A time to
+     * live of 0 disables caching of that resource.
+     *
+     * @param plansTtlMillis
+     *            the time to live of cached plans, in milliseconds
+     * @param instancesTtlMillis
+     *            the time to live of cached instances, in milliseconds
+     */
+    public static void setCacheTtl(long plansTtlMillis, long instancesTtlMillis) {
+        planCache.setTtl(plansTtlMillis);
+        instanceCache.setTtl(instancesTtlMillis);
+    }
+
+    /**
+     * Drops all cached plans and instances.
+     */
+    public static void invalidateCache() {
+        planCache.clear();
+        instanceCache.clear();
+    }
+
     /**
      * Returns a collection of plans
      * 
@@ -53,14 +115,28 @@ public class ServiceController {
      * @return a collection of PlanType instances if successful, null otherwise
      */
     public static Collection<PlanType> getPlans(String hostname, String version, String token) {
+        String key = cacheKey(hostname, version, token);
+        ExpiringCache.Entry<Collection<PlanType>> cached = planCache.get(key);
+
+        if (planCache.isFresh(cached)) {
+            return new ArrayList<PlanType>(cached.getValue());
+        }
 
         HttpGet get = new HttpGet(hostname + SampleConstants.API_SERVICECONTROLLER_PLANS);
         get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
         get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_XML_VERSION + version);
+        setIfNoneMatch(get, cached);
 
         HttpResponse response = HttpUtils.httpInvoke(get);
 
         if (null != response) {
+            // The cached plans have not changed on the server
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED
+                    && null != cached) {
+                planCache.revalidated(key, cached);
+                return new ArrayList<PlanType>(cached.getValue());
+            }
+
             // If the response status is 400 - 599
             if (response.getStatusLine().getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
                 // This is here to show when an error occurs, the response should always be
@@ -74,6 +150,8 @@ public class ServiceController {
                     PlanListType plans = HttpUtils.unmarshal(response.getEntity(),
                             PlanListType.class);
                     if (null != plans) {
+                        planCache.put(key, new ArrayList<PlanType>(plans.getPlans()),
+                                getETag(response));
                         return plans.getPlans();
                     }
                 }
@@ -97,13 +175,28 @@ public class ServiceController {
      */
     public static Collection<InstanceType> getInstances(String hostname, String version,
             String token) {
+        String key = cacheKey(hostname, version, token);
+        ExpiringCache.Entry<Collection<InstanceType>> cached = instanceCache.get(key);
+
+        if (instanceCache.isFresh(cached)) {
+            return new ArrayList<InstanceType>(cached.getValue());
+        }
+
         HttpGet get = new HttpGet(hostname + "/api/sc/instances");
         get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
         get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_XML_VERSION + version);
+        setIfNoneMatch(get, cached);
 
         HttpResponse response = HttpUtils.httpInvoke(get);
 
         if (null != response) {
+            // The cached instances have not changed on the server
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED
+                    && null != cached) {
+                instanceCache.revalidated(key, cached);
+                return new ArrayList<InstanceType>(cached.getValue());
+            }
+
             // If the response status is 400 - 599
             if (response.getStatusLine().getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
                 // This is here to show when an error occurs, the response should always be
@@ -117,6 +210,8 @@ public class ServiceController {
                     InstanceListType instances = HttpUtils.unmarshal(response.getEntity(),
                             InstanceListType.class);
                     if (null != instances) {
+                        instanceCache.put(key, new ArrayList<InstanceType>(instances
+                                .getInstances()), getETag(response));
                         return instances.getInstances();
                     }
                 }
@@ -142,24 +237,59 @@ public class ServiceController {
      *            the Plan serviceName attribute string to use to match plans with
      * @return a collection of instances, or null if nothing is found
      */
-    public static Collection<InstanceType> getInstancesForServiceType(String hostname,
-            String version, String token, String serviceType) {
+    public static Collection<InstanceType> getInstancesForServiceType(final String hostname,
+            final String version, final String token, String serviceType) {
+        // Plans and instances are independent, so retrieve the instances in the background while
+        // the plans are retrieved on this thread
+        Future<Collection<InstanceType>> pendingInstances = ParallelRequests
+                .submit(new Callable<Collection<InstanceType>>() {
+                    public Collection<InstanceType> call() {
+                        return getInstances(hostname, version, token);
+                    }
+                });
+
         // Retrieve all plans for the authenticated user
         Collection<PlanType> plans = getPlans(hostname, version, token);
 
         // Retrieve all instances for the authenticated user
-        Collection<InstanceType> instances = getInstances(hostname, version, token);
+        Collection<InstanceType> instances;
+        try {
+            instances = pendingInstances.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
 
         if (null != plans && null != instances && plans.size() > 0 && instances.size() > 0) {
+            // Index the instances by plan id once rather than scanning them for every plan
+            Map<String, List<InstanceType>> instancesByPlanId =
+                    new HashMap<String, List<InstanceType>>();
+            for (InstanceType instance : instances) {
+                if (null != instance.getPlanId()) {
+                    String planId = instance.getPlanId().toLowerCase(Locale.ENGLISH);
+                    List<InstanceType> planInstances = instancesByPlanId.get(planId);
+                    if (null == planInstances) {
+                        planInstances = new ArrayList<InstanceType>();
+                        instancesByPlanId.put(planId, planInstances);
+                    }
+                    planInstances.add(instance);
+                }
+            }
+
             Collection<InstanceType> matchedInstances = new ArrayList<InstanceType>();
 
             for (PlanType plan : plans) {
-                if (plan.getServiceName().equalsIgnoreCase(serviceType)) {
-                    // Now get the service instance, if available, that was created from this plan
-                    for (InstanceType instance : instances) {
-                        if (instance.getPlanId().equalsIgnoreCase(plan.getId())) {
-                            matchedInstances.add(instance);
-                        }
+                if (plan.getServiceName().equalsIgnoreCase(serviceType) && null != plan.getId()) {
+                    // Now get the service instances, if available, that were created from this plan
+                    List<InstanceType> planInstances = instancesByPlanId.get(plan.getId()
+                            .toLowerCase(Locale.ENGLISH));
+                    if (null != planInstances) {
+                        matchedInstances.addAll(planInstances);
                     }
                 }
             }
@@ -200,7 +330,7 @@ public class ServiceController {
         it.setPlanId(planId);
         it.setServiceGroupId(serviceGroupId);
 
-        Gson g = new Gson();
+        Gson g = HttpUtils.getGson();
 
         String instanceToCreate = g.toJson(it);
 
@@ -214,6 +344,9 @@ public class ServiceController {
 
         HttpResponse response = HttpUtils.httpInvoke(post);
 
+        // The instance list of this host is about to change, whatever the outcome
+        instanceCache.invalidatePrefix(hostname + "|");
+
         if (null != response) {
             // If the response status is 400 - 599
             if (response.getStatusLine().getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
@@ -262,13 +395,16 @@ public class ServiceController {
 
         HttpResponse response = HttpUtils.httpInvoke(delete);
 
+        // The instance list of this host is about to change, whatever the outcome
+        instanceCache.invalidatePrefix(hostname + "|");
+
         if (null != response) {
             // If the response status is 400 - 599
             if (response.getStatusLine().getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
                 // This is here to show when an error occurs, the response should always be
                 // an Error instance
                 String s = null;
-                Gson g = new Gson();
+                Gson g = HttpUtils.getGson();
 
                 try {
                     s = EntityUtils.toString(response.getEntity());
@@ -289,4 +425,22 @@ public class ServiceController {
 
         return false;
     }
-}
\ No newline at end of file
+
+    private static String cacheKey(String hostname, String version, String token) {
+        // Keyed by login rather than session, so a new token of the same user reuses the lists
+        String principal = ResponseCache.getPrincipal(token);
+        return hostname + "|" + version + "|" + (null == principal ? token : principal);
+    }
+
+    private static void setIfNoneMatch(HttpGet get, ExpiringCache.Entry<?> cached) {
+        if (null != cached && null != cached.getETag()) {
+            get.setHeader(HttpHeaders.IF_NONE_MATCH, cached.getETag());
+        }
+    }
+
+    private static String getETag(HttpResponse response) {
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+
+        return null != etag ? etag.getValue() : null;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vcloud.api.rest.schema_v1_5.TaskType;
+
+/**
+ * This class tracks any number of vCloud tasks until they finish. The polls of all tasks are timed
+ * by a single scheduler thread, so waiting on dozens of tasks does not tie up one thread per task.
+ * The scheduler only hands each due poll to the AsyncExecutor pool, which makes the request, so a
+ * slow poll of one task does not delay the polls of the others. Each task is polled quickly at
+ * first, since many tasks finish within seconds, and then less and less often the longer it runs,
+ * up to a maximum interval. The last poll is made no later than the timeout.
+ *
+ * Tracking a task returns a Future that completes with the last TaskType retrieved once the task
+ * reaches a final status (success, error, canceled or aborted). The caller is expected to check
+ * the status of the returned TaskType. A poll that fails with a 5xx status or an IOException is
+ * retried like any other poll, since the task carries on regardless. The Future only fails if a
+ * poll is rejected with a 4xx status or the task did not finish within the timeout.
+ */
+public class TaskTracker {
+    /*
+     * Delay before the first poll of a task
+     */
+    public static final long INITIAL_POLL_MILLIS = 1000;
+
+    /*
+     * Upper bound on the delay between two polls of the same task
+     */
+    public static final long MAX_POLL_MILLIS = 30000;
+
+    /*
+     * Default amount of time to wait for a task to finish
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final ScheduledExecutorService scheduler = Executors
+            .newSingleThreadScheduledExecutor(new AsyncExecutor.DaemonThreadFactory(
+                    "vchs-task-tracker"));
+
+    /*
+     * Monitor notified every time a tracked task finishes, used by waitForAny()
+     */
+    private static final Object completionLock = new Object();
+
+    /**
+     * Starts tracking the provided task using the default timeout.
+     *
+     * @param task
+     *            the TaskType instance to track
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the vCloud API token
+     * @param callback
+     *            optional callback notified when the task finishes, may be null
+     * @return a Future that completes with the final TaskType
+     */
+    public static Future<TaskType> track(TaskType task, String version, String token,
+            FutureCallback<TaskType> callback) {
+        return track(task, version, token, DEFAULT_TIMEOUT_MILLIS, callback);
+    }
+
+    /**
+     * Starts tracking the provided task.
+     *
+     * @param task
+     *            the TaskType instance to track
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the vCloud API token
+     * @param timeoutMillis
+     *            how long to wait for the task to finish before failing the Future with a
+     *            TimeoutException
+     * @param callback
+     *            optional callback notified when the task finishes, may be null
+     * @return a Future that completes with the final TaskType
+     */
+    public static Future<TaskType> track(TaskType task, String version, String token,
+            long timeoutMillis, FutureCallback<TaskType> callback) {
+        BasicFuture<TaskType> future = new BasicFuture<TaskType>(callback);
+        Poll poll = new Poll(task, version, token, System.currentTimeMillis() + timeoutMillis,
+                future);
+
+        if (isFinished(task)) {
+            poll.complete(task);
+        } else {
+            poll.schedule();
+        }
+
+        return future;
+    }
+
+    /**
+     * Starts tracking all the provided tasks using the default timeout. Null tasks are ignored.
+     *
+     * @param tasks
+     *            the TaskType instances to track
+     * @param version
+     *            the version of the API to call
+     * @param token
+     *            the vCloud API token
+     * @return a Future per tracked task, in the same order as the tasks
+     */
+    public static List<Future<TaskType>> trackAll(Collection<TaskType> tasks, String version,
+            String token) {
+        List<Future<TaskType>> futures = new ArrayList<Future<TaskType>>();
+
+        for (TaskType task : tasks) {
+            if (null != task) {
+                futures.add(track(task, version, token, null));
+            }
+        }
+
+        return futures;
+    }
+
+    /**
+     * Waits for all the provided tasks to finish.
+     *
+     * @param futures
+     *            the Futures returned by track() or trackAll()
+     * @return the final TaskType of each task, in the same order as the futures
+     */
+    public static List<TaskType> waitForAll(Collection<Future<TaskType>> futures) {
+        List<TaskType> results = new ArrayList<TaskType>();
+
+        for (Future<TaskType> future : futures) {
+            results.add(get(future));
+        }
+
+        return results;
+    }
+
+    /**
+     * Waits for any one of the provided tasks to finish.
+     *
+     * @param futures
+     *            the Futures returned by track() or trackAll()
+     * @return the final TaskType of the first task found to be finished, or null if futures is
+     *         empty
+     */
+    public static TaskType waitForAny(Collection<Future<TaskType>> futures) {
+        if (futures.isEmpty()) {
+            return null;
+        }
+
+        synchronized (completionLock) {
+            while (true) {
+                for (Future<TaskType> future : futures) {
+                    if (future.isDone()) {
+                        return get(future);
+                    }
+                }
+
+                try {
+                    // Timed wait so that futures cancelled by the caller are noticed as well
+                    completionLock.wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the provided task has reached a final status.
+     *
+     * @param task
+     *            the TaskType to check
+     * @return true if the task is no longer queued or running
+     */
+    public static boolean isFinished(TaskType task) {
+        String status = task.getStatus();
+
+        return "success".equalsIgnoreCase(status) || "error".equalsIgnoreCase(status)
+                || "canceled".equalsIgnoreCase(status) || "aborted".equalsIgnoreCase(status);
+    }
+
+    private static TaskType get(Future<TaskType> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * One scheduled poll of a task. Each poll reschedules itself with a longer delay until the
+     * task finishes, a poll is rejected, the timeout is reached or the Future is cancelled. The
+     * scheduler thread only submits the poll to the AsyncExecutor pool when it is due, run()
+     * makes the request.
+     */
+    private static class Poll implements Runnable {
+        private final String href;
+        private final String version;
+        private final String token;
+        private final long deadline;
+        private final BasicFuture<TaskType> future;
+        private long delay = INITIAL_POLL_MILLIS;
+
+        Poll(TaskType task, String version, String token, long deadline,
+                BasicFuture<TaskType> future) {
+            this.href = task.getHref();
+            this.version = version;
+            this.token = token;
+            this.deadline = deadline;
+            this.future = future;
+        }
+
+        public void run() {
+            if (future.isCancelled()) {
+                return;
+            }
+
+            Exception error = null;
+            try {
+                HttpGet get = new HttpGet(href);
+                get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION
+                        + version + ";charset=utf-8");
+                get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
+
+                HttpResponse response = HttpUtils.httpInvoke(get);
+                int status = response.getStatusLine().getStatusCode();
+
+                if (status == HttpStatus.SC_OK) {
+                    TaskType task = HttpUtils.unmarshal(response.getEntity(), TaskType.class);
+                    if (isFinished(task)) {
+                        complete(task);
+                        return;
+                    }
+                } else {
+                    error = new RuntimeException("Polling task " + href + " returned "
+                            + response.getStatusLine());
+                    if (status >= HttpStatus.SC_BAD_REQUEST
+                            && status < HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                        fail(error);
+                        return;
+                    }
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                TimeoutException timeout = new TimeoutException("Task " + href
+                        + " did not finish in time");
+                timeout.initCause(error);
+                fail(timeout);
+                return;
+            }
+
+            delay = Math.min(delay * 2, MAX_POLL_MILLIS);
+            schedule();
+        }
+
+        /*
+         * Schedules the next poll after the current delay, or at the deadline if that comes first
+         */
+        void schedule() {
+            final Runnable poll = this;
+            long wait = Math.max(0, Math.min(delay, deadline - System.currentTimeMillis()));
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    if (!future.isCancelled()) {
+                        AsyncExecutor.getExecutor().execute(poll);
+                    }
+                }
+            }, wait, TimeUnit.MILLISECONDS);
+        }
+
+        void complete(TaskType task) {
+            future.completed(task);
+            notifyCompletion();
+        }
+
+        void fail(Exception e) {
+            future.failed(e);
+            notifyCompletion();
+        }
+
+        private static void notifyCompletion() {
+            synchronized (completionLock) {
+                completionLock.notifyAll();
+            }
+        }
+    }
+}
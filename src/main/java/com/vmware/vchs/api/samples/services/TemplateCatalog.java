@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultVAppTemplateRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.ReferenceType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppTemplateType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
+
+/**
+ * This class keeps the VDC templates and vApp templates of a compute instance in memory, indexed
+ * by name, id and catalog, so they can be looked up without any network call. It replaces the
+ * pattern of calling Compute.findVdcTemplateByName(), which lists every VDC template and scans it
+ * on each call, or Compute.getTemplateForVdc(), which runs a Query API search on each call.
+ *
+ * A refresh loads the VDC templates with Compute.getVdcTemplates() and the vApp template records
+ * with the Query API, builds new indexes and swaps them in at once, so lookups never see a
+ * partially loaded catalog. Refreshes can be run on demand with refresh() or periodically in the
+ * background with start().
+ *
+ * Names are matched without regard to case, as findVdcTemplateByName() does. The full
+ * VAppTemplateType of a vApp template is retrieved the first time it is asked for and kept until
+ * a refresh finds the template gone.
+ */
+public class TemplateCatalog {
+    private final String computeUrl;
+    private final String version;
+    private final Callable<String> tokenSource;
+
+    private ScheduledExecutorService scheduler = null;
+
+    private volatile Indexes indexes = new Indexes();
+    private final Map<String, VAppTemplateType> details =
+            new ConcurrentHashMap<String, VAppTemplateType>();
+
+    private volatile long lastRefreshMillis = 0;
+    private volatile RuntimeException lastError = null;
+
+    /**
+     * @param computeUrl
+     *            the compute instance API url
+     * @param version
+     *            the version of the API to call
+     * @param tokenSource
+     *            called before each refresh to get a valid vCloud API token, for example through
+     *            TokenManager.getComputeToken()
+     */
+    public TemplateCatalog(String computeUrl, String version, Callable<String> tokenSource) {
+        this.computeUrl = computeUrl;
+        this.version = version;
+        this.tokenSource = tokenSource;
+    }
+
+    /**
+     * Loads the catalog now, on the calling thread. The previous content stays available to
+     * lookups until the load has completed.
+     *
+     * @return the number of VDC templates and vApp templates loaded
+     */
+    public synchronized int refresh() {
+        String token = getToken();
+        Indexes loaded = new Indexes();
+
+        Collection<ReferenceType> vdcTemplates = Compute.getVdcTemplates(computeUrl, token,
+                version);
+        if (null != vdcTemplates) {
+            for (ReferenceType ref : vdcTemplates) {
+                loaded.add(ref);
+            }
+        }
+
+        for (QueryResultRecordType record : HttpUtils.queryRecords(
+                Compute.getBaseUrl(computeUrl), "type=vAppTemplate&format=records",
+                SampleConstants.DEFAULT_QUERY_PAGE_SIZE, version, token)) {
+            if (record instanceof QueryResultVAppTemplateRecordType) {
+                loaded.add((QueryResultVAppTemplateRecordType) record);
+            }
+        }
+
+        indexes = loaded;
+        details.keySet().retainAll(loaded.vAppTemplatesByHref.keySet());
+        lastRefreshMillis = System.currentTimeMillis();
+
+        return loaded.vdcTemplatesByHref.size() + loaded.vAppTemplatesByHref.size();
+    }
+
+    /**
+     * Starts refreshing the catalog in the background, the first time right away and then with
+     * the provided delay between the end of a refresh and the start of the next. A failed refresh
+     * is recorded in getLastError() and the previous content is kept until the next interval.
+     *
+     * @param intervalMillis
+     *            the delay between two refreshes, in milliseconds
+     */
+    public synchronized void start(long intervalMillis) {
+        if (null != scheduler) {
+            throw new IllegalStateException("The template catalog refresh is already running");
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new AsyncExecutor.DaemonThreadFactory("vchs-template-catalog"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                    lastError = null;
+                } catch (RuntimeException e) {
+                    lastError = e;
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background refreshes started with start() and releases their thread. A refresh in
+     * progress is completed.
+     */
+    public synchronized void stop() {
+        if (null != scheduler) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return the time the last successful refresh completed at, or 0 if there was none
+     */
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    /**
+     * @return the failure of the last background refresh, or null if it succeeded
+     */
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Finds a VDC template by name, the same way Compute.findVdcTemplateByName() does.
+     *
+     * @param name
+     *            the name of the VDC template
+     * @return the reference to the VDC template, or null if there is none with that name
+     */
+    public ReferenceType getVdcTemplate(String name) {
+        return first(indexes.vdcTemplatesByName.get(normalize(name)));
+    }
+
+    /**
+     * @param id
+     *            the id or href of the VDC template
+     * @return the reference to the VDC template, or null if there is none with that id or href
+     */
+    public ReferenceType getVdcTemplateById(String id) {
+        Indexes current = indexes;
+        ReferenceType ref = current.vdcTemplatesById.get(id);
+
+        return null != ref ? ref : current.vdcTemplatesByHref.get(id);
+    }
+
+    /**
+     * @return the references to all the VDC templates
+     */
+    public Collection<ReferenceType> getVdcTemplates() {
+        return Collections.unmodifiableCollection(indexes.vdcTemplatesByHref.values());
+    }
+
+    /**
+     * Finds the vApp templates with the provided name, in any catalog and VDC.
+     *
+     * @param name
+     *            the name of the vApp template
+     * @return the records of the matching vApp templates, empty if there are none
+     */
+    public List<QueryResultVAppTemplateRecordType> findVAppTemplates(String name) {
+        return unmodifiable(indexes.vAppTemplatesByName.get(normalize(name)));
+    }
+
+    /**
+     * Finds the vApp template with the provided name. When a VDC is provided, only the templates
+     * stored in that VDC are considered.
+     *
+     * @param name
+     *            the name of the vApp template
+     * @param vdc
+     *            the VDC the template must be stored in, or null for any VDC
+     * @return the record of the vApp template, or null if there is not exactly one match
+     */
+    public QueryResultVAppTemplateRecordType getVAppTemplateRecord(String name, VdcType vdc) {
+        QueryResultVAppTemplateRecordType match = null;
+
+        for (QueryResultVAppTemplateRecordType record : findVAppTemplates(name)) {
+            if (null == vdc || vdc.getHref().equals(record.getVdc())) {
+                if (null != match) {
+                    return null;
+                }
+                match = record;
+            }
+        }
+
+        return match;
+    }
+
+    /**
+     * @param id
+     *            the id or href of the vApp template
+     * @return the record of the vApp template, or null if there is none with that id or href
+     */
+    public QueryResultVAppTemplateRecordType getVAppTemplateRecordById(String id) {
+        Indexes current = indexes;
+        QueryResultVAppTemplateRecordType record = current.vAppTemplatesById.get(id);
+
+        return null != record ? record : current.vAppTemplatesByHref.get(id);
+    }
+
+    /**
+     * @param catalogName
+     *            the name of the catalog
+     * @return the records of the vApp templates of the catalog, empty if there are none
+     */
+    public List<QueryResultVAppTemplateRecordType> getVAppTemplatesInCatalog(String catalogName) {
+        return unmodifiable(indexes.vAppTemplatesByCatalog.get(normalize(catalogName)));
+    }
+
+    /**
+     * Returns the full vApp template with the provided name, as Compute.getTemplateForVdc() does.
+     * Only the first call for a given template makes a request, later calls return the same
+     * instance.
+     *
+     * @param name
+     *            the name of the vApp template
+     * @param vdc
+     *            the VDC the template must be stored in, or null for any VDC
+     * @return the vApp template, or null if there is not exactly one match or it could not be
+     *         retrieved
+     */
+    public VAppTemplateType getVAppTemplate(String name, VdcType vdc) {
+        QueryResultVAppTemplateRecordType record = getVAppTemplateRecord(name, vdc);
+
+        return null != record ? getVAppTemplate(record) : null;
+    }
+
+    /**
+     * Returns the full vApp template of the provided record. Only the first call for a given
+     * template makes a request, later calls return the same instance.
+     *
+     * @param record
+     *            the record of the vApp template, as returned by the lookups of this class
+     * @return the vApp template, or null if it could not be retrieved
+     */
+    public VAppTemplateType getVAppTemplate(QueryResultVAppTemplateRecordType record) {
+        VAppTemplateType template = details.get(record.getHref());
+        if (null != template) {
+            return template;
+        }
+
+        HttpGet get = new HttpGet(record.getHref());
+        get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION + version
+                + ";charset=utf-8");
+        get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, getToken());
+
+        HttpResponse response = HttpUtils.httpInvoke(get);
+        if (null != response && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+            template = HttpUtils.unmarshal(response.getEntity(), VAppTemplateType.class);
+            if (null != template) {
+                details.put(record.getHref(), template);
+            }
+        }
+
+        return template;
+    }
+
+    private String getToken() {
+        try {
+            return tokenSource.call();
+        } catch (Exception e) {
+            throw new RuntimeException("Cannot get a token to load the template catalog", e);
+        }
+    }
+
+    private static String normalize(String name) {
+        return null != name ? name.toLowerCase(Locale.ENGLISH) : null;
+    }
+
+    private static <T> T first(List<T> list) {
+        return null != list ? list.get(0) : null;
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list) {
+        return null != list ? Collections.unmodifiableList(list) : Collections.<T> emptyList();
+    }
+
+    private static <T> void index(Map<String, List<T>> map, String key, T value) {
+        if (null == key) {
+            return;
+        }
+
+        List<T> values = map.get(key);
+        if (null == values) {
+            values = new ArrayList<T>(1);
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * The indexes built by one refresh. They are never modified once published.
+     */
+    private static class Indexes {
+        final Map<String, ReferenceType> vdcTemplatesByHref = new HashMap<String, ReferenceType>();
+        final Map<String, ReferenceType> vdcTemplatesById = new HashMap<String, ReferenceType>();
+        final Map<String, List<ReferenceType>> vdcTemplatesByName =
+                new HashMap<String, List<ReferenceType>>();
+
+        final Map<String, QueryResultVAppTemplateRecordType> vAppTemplatesByHref =
+                new HashMap<String, QueryResultVAppTemplateRecordType>();
+        final Map<String, QueryResultVAppTemplateRecordType> vAppTemplatesById =
+                new HashMap<String, QueryResultVAppTemplateRecordType>();
+        final Map<String, List<QueryResultVAppTemplateRecordType>> vAppTemplatesByName =
+                new HashMap<String, List<QueryResultVAppTemplateRecordType>>();
+        final Map<String, List<QueryResultVAppTemplateRecordType>> vAppTemplatesByCatalog =
+                new HashMap<String, List<QueryResultVAppTemplateRecordType>>();
+
+        void add(ReferenceType ref) {
+            vdcTemplatesByHref.put(ref.getHref(), ref);
+            if (null != ref.getId()) {
+                vdcTemplatesById.put(ref.getId(), ref);
+            }
+            index(vdcTemplatesByName, normalize(ref.getName()), ref);
+        }
+
+        void add(QueryResultVAppTemplateRecordType record) {
+            vAppTemplatesByHref.put(record.getHref(), record);
+            if (null != record.getId()) {
+                vAppTemplatesById.put(record.getId(), record);
+            }
+            index(vAppTemplatesByName, normalize(record.getName()), record);
+            index(vAppTemplatesByCatalog, normalize(record.getCatalogName()), record);
+        }
+    }
+}
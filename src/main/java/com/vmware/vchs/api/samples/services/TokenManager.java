@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.ResponseCache;
+
+/**
+ * This class caches the tokens returned by IAM.login() and Compute.login() so that repeated
+ * operations against the same account reuse one session instead of logging in every time.
+ * Sessions are keyed by host, username and (for compute) org name.
+ *
+ * A cached token is considered valid for a configurable time to live. Once a token gets close to
+ * the end of that time it is refreshed in the background while the current token keeps being
+ * handed out, so callers do not wait on a login. Concurrent requests for a token of the same
+ * session result in a single login.
+ *
+ * While this class is in use it is registered with HttpUtils, so any request sent with a token it
+ * manages that is rejected with 401 Unauthorized is retried once with a freshly obtained token.
+ * The credentials of each session are kept in memory for this purpose.
+ */
+public class TokenManager {
+    /*
+     * Default time a token is reused for before logging in again. vCloud sessions time out after
+     * 30 minutes of inactivity by default.
+     */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(25);
+
+    /*
+     * Default time before the end of the time to live at which a background refresh is started
+     */
+    public static final long DEFAULT_REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private static volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+    private static volatile long refreshAheadMillis = DEFAULT_REFRESH_AHEAD_MILLIS;
+
+    private static final ConcurrentMap<String, Session> sessions =
+            new ConcurrentHashMap<String, Session>();
+
+    /*
+     * Reverse lookup from a handed out token to its session, used to handle 401 responses
+     */
+    private static final ConcurrentMap<String, Session> sessionsByToken =
+            new ConcurrentHashMap<String, Session>();
+
+    static {
+        HttpUtils.setTokenRefresher(new HttpUtils.TokenRefresher() {
+            public String refresh(String expiredToken) {
+                Session session = sessionsByToken.get(expiredToken);
+
+                return null != session ? session.refresh(expiredToken) : null;
+            }
+        });
+    }
+
+    /**
+     * Sets how long tokens are reused for and how long before that a background refresh starts.
+     *
+     * @param ttl
+     *            the time to live of a token, in milliseconds
+     * @param refreshAhead
+     *            the time before the end of the time to live at which to refresh, in milliseconds
+     */
+    public static void configure(long ttl, long refreshAhead) {
+        if (ttl <= 0 || refreshAhead < 0 || refreshAhead >= ttl) {
+            throw new IllegalArgumentException("Invalid token time to live or refresh time");
+        }
+
+        ttlMillis = ttl;
+        refreshAheadMillis = refreshAhead;
+    }
+
+    /**
+     * Returns a token for the IAM service, logging in with IAM.login() only if there is no valid
+     * cached token for the hostname and username.
+     *
+     * @param hostname
+     *            the url of the API to make requests to
+     * @param username
+     *            the username of the account to log in with
+     * @param password
+     *            the password of the account to log in with
+     * @param version
+     *            the version of the API to call
+     * @return the value of the vchs-authorization token, or null if login failed
+     */
+    public static String getIamToken(final String hostname, final String username,
+            final String password, final String version) {
+        Session session = getSession(key(hostname, username, null), new Login() {
+            public String login() {
+                return IAM.login(hostname, username, password, version);
+            }
+        });
+
+        return session.getToken();
+    }
+
+    /**
+     * Returns a token for a compute instance, logging in with Compute.login() only if there is no
+     * valid cached token for the session url, username and org name.
+     *
+     * @param url
+     *            the url to the VCD API sessions resource
+     * @param username
+     *            the username to log in with
+     * @param password
+     *            the password to log in with
+     * @param orgName
+     *            the org name to use as part of the login process
+     * @param version
+     *            the version of the API to call
+     * @return the value of the x-vcloud-authorization token, or null if login failed
+     */
+    public static String getComputeToken(final String url, final String username,
+            final String password, final String orgName, final String version) {
+        Session session = getSession(key(url, username, orgName), new Login() {
+            public String login() {
+                return Compute.login(url, username, password, orgName, version);
+            }
+        });
+
+        return session.getToken();
+    }
+
+    /**
+     * Forgets all cached sessions. The next request for any token logs in again.
+     */
+    public static void clear() {
+        sessions.clear();
+        sessionsByToken.clear();
+    }
+
+    private static String key(String host, String username, String orgName) {
+        return host + "|" + username + "|" + (null != orgName ? orgName : "");
+    }
+
+    private static Session getSession(String key, Login login) {
+        Session session = sessions.get(key);
+
+        if (null == session) {
+            Session created = new Session(key, login);
+            session = sessions.putIfAbsent(key, created);
+            if (null == session) {
+                session = created;
+            }
+        }
+
+        return session;
+    }
+
+    /**
+     * Performs the actual login of a session.
+     */
+    private interface Login {
+        String login();
+    }
+
+    /**
+     * A cached token along with the means to renew it. All logins of a session are serialized on
+     * the session, which is what de-duplicates concurrent logins for the same key.
+     */
+    private static class Session {
+        private final String key;
+        private final Login login;
+        private String token = null;
+        private long obtainedAt = 0;
+        private boolean refreshing = false;
+
+        Session(String key, Login login) {
+            this.key = key;
+            this.login = login;
+        }
+
+        synchronized String getToken() {
+            long age = System.currentTimeMillis() - obtainedAt;
+
+            if (null == token || age >= ttlMillis) {
+                return loginNow();
+            }
+
+            if (age >= ttlMillis - refreshAheadMillis && !refreshing) {
+                refreshing = true;
+                AsyncExecutor.getExecutor().execute(new Runnable() {
+                    public void run() {
+                        // Log in without holding the lock so callers keep getting the current token
+                        String newToken = null;
+                        try {
+                            newToken = login.login();
+                        } finally {
+                            synchronized (Session.this) {
+                                refreshing = false;
+                                install(newToken);
+                            }
+                        }
+                    }
+                });
+            }
+
+            return token;
+        }
+
+        /**
+         * Logs in again unless the token was already replaced since expiredToken was handed out.
+         *
+         * @param expiredToken
+         *            the token known to be expired
+         * @return the current token, or null if login failed
+         */
+        synchronized String refresh(String expiredToken) {
+            if (expiredToken.equals(token)) {
+                return loginNow();
+            }
+
+            return token;
+        }
+
+        private String loginNow() {
+            String newToken = login.login();
+            install(newToken);
+
+            return newToken;
+        }
+
+        private void install(String newToken) {
+            if (null != newToken) {
+                if (null != token) {
+                    sessionsByToken.remove(token);
+                    ResponseCache.removePrincipal(token);
+                }
+
+                token = newToken;
+                obtainedAt = System.currentTimeMillis();
+                sessionsByToken.put(token, this);
+
+                // Lets cached responses of the previous session be revalidated by this one
+                ResponseCache.setPrincipal(token, key);
+            }
+        }
+    }
+}
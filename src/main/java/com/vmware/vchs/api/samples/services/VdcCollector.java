@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
+
+/**
+ * This class retrieves the VDCs of every compute instance the user has access to, across all
+ * orgs and regions. The samples do this one instance after the other and, within an instance,
+ * one VDC after the other with Compute.getVDCsForOrgs(). Here all the instances are processed
+ * concurrently, and so are the VDCs of each instance.
+ *
+ * Requests are limited per API host rather than overall: no more than a given number of requests
+ * are in flight to the same host at once, so a slow region only holds up the requests sent to it
+ * while the other regions carry on. A region that fails is reported with its error and does not
+ * affect the others, and a VDC that cannot be retrieved is reported in its region without failing
+ * the other VDCs of the region.
+ *
+ * Tokens are obtained through TokenManager, so collecting again reuses the existing sessions.
+ */
+public class VdcCollector {
+    /*
+     * Default number of requests in flight to the same API host at once
+     */
+    public static final int DEFAULT_PER_HOST_CONCURRENCY = 4;
+
+    private final String hostname;
+    private final String username;
+    private final String password;
+    private final String version;
+
+    private final ConcurrentMap<String, Semaphore> hostPermits =
+            new ConcurrentHashMap<String, Semaphore>();
+    private volatile int perHostConcurrency = DEFAULT_PER_HOST_CONCURRENCY;
+
+    /**
+     * @param hostname
+     *            the vCHS host to log in to and list the compute instances from
+     * @param username
+     *            the username to log in with
+     * @param password
+     *            the password to log in with
+     * @param version
+     *            the version of the API to call
+     */
+    public VdcCollector(String hostname, String username, String password, String version) {
+        this.hostname = hostname;
+        this.username = username;
+        this.password = password;
+        this.version = version;
+    }
+
+    /**
+     * Sets the maximum number of requests in flight to the same API host at once. This only
+     * applies to hosts not contacted yet by this collector.
+     *
+     * @param max
+     *            the maximum number of concurrent requests per host
+     */
+    public void setPerHostConcurrency(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Per host concurrency must be greater than 0");
+        }
+
+        perHostConcurrency = max;
+    }
+
+    /**
+     * Retrieves the VDCs of all the compute instances and waits for all of them.
+     *
+     * @param listener
+     *            optional listener notified as each instance is done with, may be null. The index
+     *            passed to it is the position of the instance in the list ServiceController
+     *            returned
+     * @return one Region per compute instance, in the order they were done with
+     */
+    public List<Region> collect(ParallelRequests.RequestListener<? super Region> listener) {
+        String iamToken = TokenManager.getIamToken(hostname, username, password, version);
+        if (null == iamToken) {
+            throw new RuntimeException("Cannot log in to " + hostname);
+        }
+
+        Collection<InstanceType> instances = ServiceController.getInstancesForServiceType(
+                hostname, version, iamToken, SampleConstants.COMPUTE_SERVICE_TYPE);
+        if (null == instances || instances.isEmpty()) {
+            return new ArrayList<Region>();
+        }
+
+        List<Callable<Region>> calls = new ArrayList<Callable<Region>>();
+        for (final InstanceType instance : instances) {
+            calls.add(new Callable<Region>() {
+                public Region call() {
+                    return collectInstance(instance);
+                }
+            });
+        }
+
+        // Every instance gets its own thread, the requests are bounded by the host permits
+        return ParallelRequests.invokeAll(calls, calls.size(), false, listener);
+    }
+
+    /**
+     * Retrieves the VDCs of all the compute instances and returns them together.
+     *
+     * @return the VDCs of all the instances whose VDCs could be retrieved
+     */
+    public List<VdcType> collectVdcs() {
+        List<VdcType> vdcs = new ArrayList<VdcType>();
+        for (Region region : collect(null)) {
+            vdcs.addAll(region.getVdcs());
+        }
+
+        return vdcs;
+    }
+
+    /*
+     * Retrieves the VDCs of one compute instance. Failures are reported in the returned Region
+     * rather than thrown, so they do not cancel the other instances.
+     */
+    private Region collectInstance(InstanceType instance) {
+        long start = System.currentTimeMillis();
+        String orgName = null;
+        final List<String> failedVdcs = Collections.synchronizedList(new ArrayList<String>());
+
+        try {
+            JsonObject attributes = HttpUtils.getGson().fromJson(
+                    instance.getInstanceAttributes(), JsonObject.class);
+            orgName = getAttribute(attributes, "orgName");
+            String sessionUri = getAttribute(attributes, "sessionUri");
+            final Semaphore permits = getPermits(instance.getApiUrl());
+
+            acquire(permits);
+            final String token;
+            OrgListType org;
+            try {
+                token = TokenManager.getComputeToken(sessionUri, username, password, orgName,
+                        version);
+                if (null == token) {
+                    throw new RuntimeException("Cannot log in to " + sessionUri);
+                }
+
+                org = Compute.getOrgDetails(instance.getApiUrl(), token, version);
+                if (null == org) {
+                    throw new RuntimeException("Cannot retrieve the org at "
+                            + instance.getApiUrl());
+                }
+            } finally {
+                permits.release();
+            }
+
+            List<Callable<VdcType>> calls = new ArrayList<Callable<VdcType>>();
+            for (final String href : Compute.getVdcHrefs(org)) {
+                calls.add(new Callable<VdcType>() {
+                    public VdcType call() {
+                        VdcType vdc = null;
+                        acquire(permits);
+                        try {
+                            vdc = Compute.getVdc(href, token, version);
+                        } catch (RuntimeException e) {
+                            // Reported below along with the VDCs that were not found
+                        } finally {
+                            permits.release();
+                        }
+
+                        if (null == vdc) {
+                            failedVdcs.add(href);
+                        }
+
+                        return vdc;
+                    }
+                });
+            }
+
+            List<VdcType> vdcs = ParallelRequests.invokeAll(calls, perHostConcurrency, true, null);
+
+            return new Region(instance, orgName, vdcs, failedVdcs, null,
+                    System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            return new Region(instance, orgName, Collections.<VdcType> emptyList(), failedVdcs,
+                    e, System.currentTimeMillis() - start);
+        }
+    }
+
+    /*
+     * Returns the value of one of the instance attributes, which ServiceController returns as a
+     * JSON string
+     */
+    private static String getAttribute(JsonObject attributes, String name) {
+        JsonElement value = null != attributes ? attributes.get(name) : null;
+        if (null == value || value.isJsonNull()) {
+            throw new RuntimeException("The instance attributes have no " + name);
+        }
+
+        return value.getAsString();
+    }
+
+    private Semaphore getPermits(String url) {
+        String host = URI.create(url).getHost();
+        host = null != host ? host.toLowerCase(Locale.ENGLISH) : url;
+
+        Semaphore permits = hostPermits.get(host);
+        if (null == permits) {
+            Semaphore created = new Semaphore(perHostConcurrency);
+            permits = hostPermits.putIfAbsent(host, created);
+            if (null == permits) {
+                permits = created;
+            }
+        }
+
+        return permits;
+    }
+
+    private static void acquire(Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The VDCs of one compute instance.
+     */
+    public static class Region {
+        private final InstanceType instance;
+        private final String orgName;
+        private final List<VdcType> vdcs;
+        private final List<String> failedVdcHrefs;
+        private final RuntimeException error;
+        private final long elapsedMillis;
+
+        Region(InstanceType instance, String orgName, List<VdcType> vdcs,
+                List<String> failedVdcHrefs, RuntimeException error, long elapsedMillis) {
+            this.instance = instance;
+            this.orgName = orgName;
+            this.vdcs = vdcs;
+            this.failedVdcHrefs = new ArrayList<String>(failedVdcHrefs);
+            this.error = error;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public InstanceType getInstance() {
+            return instance;
+        }
+
+        public String getRegion() {
+            return instance.getRegion();
+        }
+
+        /**
+         * @return the name of the org of the instance, null if the instance attributes could not
+         *         be read
+         */
+        public String getOrgName() {
+            return orgName;
+        }
+
+        /**
+         * @return the VDCs of the instance that could be retrieved, empty if none could
+         */
+        public List<VdcType> getVdcs() {
+            return vdcs;
+        }
+
+        /**
+         * @return the hrefs of the VDCs the org lists but that could not be retrieved, empty if
+         *         all of them were
+         */
+        public List<String> getFailedVdcHrefs() {
+            return failedVdcHrefs;
+        }
+
+        /**
+         * @return true if the org and every VDC it lists were retrieved
+         */
+        public boolean isComplete() {
+            return null == error && failedVdcHrefs.isEmpty();
+        }
+
+        /**
+         * @return the reason the VDCs of the instance could not be listed, null if they were.
+         *         VDCs that failed on their own are reported by getFailedVdcHrefs() instead
+         */
+        public RuntimeException getError() {
+            return error;
+        }
+
+        /**
+         * @return how long retrieving the VDCs of the instance took
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * This class runs API calls in the background on a shared, bounded pool of daemon threads. It is
+ * used by the Async* service classes so that a caller can have many requests in flight without
+ * managing threads itself.
+ * 
+ * The calls are the blocking calls of the service classes, so every call in flight holds one
+ * worker thread until its response has been read; calls beyond the number of threads wait in a
+ * queue. The number of threads follows the size of the HttpUtils connection pool unless set with
+ * configure(), since more concurrent calls than pooled connections would only wait for a
+ * connection. Idle threads exit after a minute.
+ * 
+ * Results are returned as a Future which can optionally notify a FutureCallback when the call
+ * completes, fails or is cancelled. These are Future wrappers around blocking calls, not
+ * non-blocking I/O: the FutureCallback and BasicFuture types come from httpcore, but no
+ * HttpAsyncClient is involved.
+ */
+public final class AsyncExecutor {
+    /*
+     * Seconds an idle worker thread is kept before it exits
+     */
+    private static final long IDLE_THREAD_SECONDS = 60;
+
+    /*
+     * The number of worker threads set with configure(), 0 to follow the connection pool size
+     */
+    private static int threads = 0;
+
+    private static ThreadPoolExecutor executor = null;
+
+    /*
+     * Prevent this class from being instantiated
+     */
+    private AsyncExecutor() {
+    }
+
+    /**
+     * Sets the number of worker threads used to run asynchronous calls, overriding the default of
+     * one thread per connection of the HttpUtils connection pool. If the pool of worker threads
+     * already exists it is resized in place.
+     *
+     * @param threadCount
+     *            the number of worker threads
+     */
+    public static synchronized void configure(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be greater than 0");
+        }
+
+        threads = threadCount;
+        if (null != executor) {
+            resize(threadCount);
+        }
+    }
+
+    /**
+     * Returns the shared executor, creating it on first use. Unless configure() was called, the
+     * number of worker threads is adjusted to the current size of the HttpUtils connection pool.
+     *
+     * @return the shared ExecutorService
+     */
+    public static synchronized ExecutorService getExecutor() {
+        int size = threads > 0 ? threads : HttpUtils.getMaxConnections();
+
+        if (null == executor) {
+            executor = new ThreadPoolExecutor(size, size, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("vchs-async"));
+            executor.allowCoreThreadTimeOut(true);
+        } else if (executor.getMaximumPoolSize() != size) {
+            resize(size);
+        }
+
+        return executor;
+    }
+
+    /*
+     * The core size can never be above the maximum size, so the order of the two calls depends on
+     * whether the pool grows or shrinks
+     */
+    private static void resize(int size) {
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Runs the provided call on the shared executor.
+     *
+     * @param call
+     *            the call to run
+     * @param callback
+     *            an optional callback to notify when the call finishes, may be null
+     * @return a Future that completes with the result of the call
+     */
+    public static <T> Future<T> submit(Callable<T> call, FutureCallback<T> callback) {
+        return submit(getExecutor(), call, callback);
+    }
+
+    /**
+     * Runs the provided call on the provided executor.
+     *
+     * @param executorService
+     *            the executor to run the call on
+     * @param call
+     *            the call to run
+     * @param callback
+     *            an optional callback to notify when the call finishes, may be null
+     * @return a Future that completes with the result of the call
+     */
+    public static <T> Future<T> submit(ExecutorService executorService, final Callable<T> call,
+            FutureCallback<T> callback) {
+        final BasicFuture<T> future = new BasicFuture<T>(callback);
+
+        executorService.execute(new Runnable() {
+            public void run() {
+                if (future.isCancelled()) {
+                    return;
+                }
+
+                try {
+                    future.completed(call.call());
+                } catch (Exception e) {
+                    future.failed(e);
+                }
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Thread factory creating named daemon threads, so pending background calls never keep a
+     * sample from exiting.
+     */
+    public static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        public DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
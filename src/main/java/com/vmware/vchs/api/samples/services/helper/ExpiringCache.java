@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class caches API responses for a fixed amount of time. Each entry also keeps the ETag the
+ * server returned with it, if any, so once an entry has expired it can be revalidated with a
+ * conditional request instead of downloading the resource again.
+ *
+ * Expired entries are not removed on their own; get() still returns them so that their ETag can be
+ * used, and isFresh() tells whether an entry can be used without going back to the server. Callers
+ * that do not revalidate entries, or whose keys change over time, should call removeExpired() so
+ * that the cache does not keep growing.
+ */
+public class ExpiringCache<V> {
+    private final ConcurrentMap<String, Entry<V>> entries =
+            new ConcurrentHashMap<String, Entry<V>>();
+    private volatile long ttlMillis;
+
+    /**
+     * @param ttlMillis
+     *            how long an entry can be used without revalidation, in milliseconds. 0 disables
+     *            caching
+     */
+    public ExpiringCache(long ttlMillis) {
+        setTtl(ttlMillis);
+    }
+
+    /**
+     * Sets how long entries can be used without revalidation. This also applies to the entries
+     * already in the cache.
+     *
+     * @param ttlMillis
+     *            the time to live in milliseconds, 0 disables caching
+     */
+    public void setTtl(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("Time to live must not be negative");
+        }
+
+        this.ttlMillis = ttlMillis;
+
+        if (ttlMillis == 0) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return how long entries can be used without revalidation, in milliseconds
+     */
+    public long getTtl() {
+        return ttlMillis;
+    }
+
+    /**
+     * Returns the entry for the provided key, whether it is still fresh or not.
+     *
+     * @param key
+     *            the key of the entry
+     * @return the entry, or null if there is none
+     */
+    public Entry<V> get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Adds or replaces an entry. Nothing is stored while caching is disabled.
+     *
+     * @param key
+     *            the key of the entry
+     * @param value
+     *            the value to cache
+     * @param etag
+     *            the ETag returned with the value, may be null
+     */
+    public void put(String key, V value, String etag) {
+        if (ttlMillis > 0 && null != value) {
+            entries.put(key, new Entry<V>(value, etag, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Marks an entry as fresh again, after the server confirmed it has not changed.
+     *
+     * @param key
+     *            the key of the entry
+     * @param entry
+     *            the entry that was revalidated
+     */
+    public void revalidated(String key, Entry<V> entry) {
+        put(key, entry.getValue(), entry.getETag());
+    }
+
+    /**
+     * Removes the entry for the provided key.
+     *
+     * @param key
+     *            the key of the entry to remove
+     */
+    public void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes all entries whose key starts with the provided prefix.
+     *
+     * @param prefix
+     *            the key prefix of the entries to remove
+     */
+    public void invalidatePrefix(String prefix) {
+        Iterator<String> keys = entries.keySet().iterator();
+
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries that can no longer be used without revalidation.
+     */
+    public void removeExpired() {
+        removeExpired(Collections.<String> emptySet());
+    }
+
+    /**
+     * Removes all entries that can no longer be used without revalidation, except the entries for
+     * the provided keys, which are kept so that they can still be revalidated with their ETag.
+     *
+     * @param retain
+     *            the keys of the expired entries to keep
+     */
+    public void removeExpired(Collection<String> retain) {
+        Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+
+        while (it.hasNext()) {
+            Map.Entry<String, Entry<V>> entry = it.next();
+            if (!isFresh(entry.getValue()) && !retain.contains(entry.getKey())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns true if the provided entry can still be used without revalidation.
+     *
+     * @param entry
+     *            the entry to check, may be null
+     * @return true if the entry is not null and has not expired
+     */
+    public boolean isFresh(Entry<V> entry) {
+        return null != entry && System.currentTimeMillis() - entry.getCreated() < ttlMillis;
+    }
+
+    /**
+     * A cached value along with the ETag it was returned with.
+     */
+    public static class Entry<V> {
+        private final V value;
+        private final String etag;
+        private final long created;
+
+        Entry(V value, String etag, long created) {
+            this.value = value;
+            this.etag = etag;
+            this.created = created;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+    }
+}
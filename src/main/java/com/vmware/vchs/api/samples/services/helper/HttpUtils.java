@@ -12,7 +12,6 @@
 package com.vmware.vchs.api.samples.services.helper;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -22,20 +21,30 @@ import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
 import java.security.cert.X509Certificate;
 import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
-import javax.xml.bind.JAXB;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+import org.apache.http.Consts;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
@@ -43,18 +52,26 @@ import org.apache.http.HttpStatus;
 import org.apache.http.ParseException;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -66,39 +83,335 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonReader;
 import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.iam.v2.User;
+import com.vmware.vchs.iam.v2.Users;
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+import com.vmware.vchs.sc.service.v1.PlanType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
 import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordsType;
 /**
  * This class provides the common http functionality using the Apache HttpClient library.
  */
 public class HttpUtils {
+    /*
+     * Default upper bound on the number of pooled connections across all routes
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 50;
+
+    /*
+     * Default upper bound on the number of pooled connections to a single host
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+
+    /*
+     * How long an idle connection is kept alive when the server does not send a Keep-Alive
+     * timeout of its own
+     */
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+
+    /*
+     * How often the idle connection monitor sweeps the pool for expired or idle connections
+     */
+    private static final long IDLE_CONNECTION_SWEEP_MILLIS = 5000;
+
+    private static int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private static int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+    /*
+     * Shared StAX factory used to stream XML response bodies into JAXB. Once configured it is safe
+     * to create readers from multiple threads.
+     */
+    private static final XMLInputFactory xmlInputFactory = createXMLInputFactory();
+
+    /*
+     * Shared Gson instance used for every json request and response. Gson is thread safe and
+     * caches the type adapters it reflects, so building it once avoids redoing that work per call.
+     */
+    private static final Gson gson = createGson();
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private static volatile TokenRefresher tokenRefresher = null;
+
+    private static volatile ResponseCache responseCache = null;
+
+    private static PoolingHttpClientConnectionManager connectionManager = null;
+    private static CloseableHttpClient httpClient = null;
+
     /**
-     * Executes an http request using the passed in request parameter.
+     * Sets the limits of the shared connection pool used by every request made through this
+     * class. This can be called before or after the first request is made; if the pool already
+     * exists its limits are adjusted in place.
+     * 
+     * @param maxTotal
+     *            the maximum number of connections across all hosts
+     * @param maxPerRoute
+     *            the maximum number of connections to any single host
+     */
+    public static synchronized void configureConnectionPool(int maxTotal, int maxPerRoute) {
+        if (maxTotal <= 0 || maxPerRoute <= 0) {
+            throw new IllegalArgumentException("Connection pool limits must be greater than 0");
+        }
+
+        maxConnections = maxTotal;
+        maxConnectionsPerRoute = maxPerRoute;
+
+        if (null != connectionManager) {
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        }
+    }
+
+    /**
+     * @return the maximum number of connections of the shared pool across all hosts
+     */
+    public static synchronized int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Creates the StAX XMLInputFactory used for all XML responses. DTDs and external entities are
+     * not needed by any vCloud or vCHS response, so they are turned off.
+     * 
+     * @return a configured XMLInputFactory
+     */
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+        return factory;
+    }
+
+    /**
+     * Creates the shared Gson instance with the XMLGregorianCalendar adapters registered and the
+     * type adapters of the most commonly exchanged json types created up front.
+     * 
+     * @return a configured Gson instance
+     */
+    private static Gson createGson() {
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
+                new XMLGregorianClassConverter.Serializer());
+        gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
+                new XMLGregorianClassConverter.Deserializer());
+
+        Gson g = gsonBuilder.create();
+        g.getAdapter(User.class);
+        g.getAdapter(Users.class);
+        g.getAdapter(InstanceType.class);
+        g.getAdapter(PlanType.class);
+
+        return g;
+    }
+
+    /**
+     * Returns the shared, thread safe Gson instance configured with the XMLGregorianCalendar
+     * adapters. All json serialization and deserialization should go through this instance.
+     * 
+     * @return the shared Gson instance
+     */
+    public static Gson getGson() {
+        return gson;
+    }
+
+    /**
+     * Returns the shared, thread safe HttpClient instance, creating it on first use.
+     * 
+     * @return the shared HttpClient instance
+     */
+    static synchronized CloseableHttpClient getHttpClient() {
+        if (null == httpClient) {
+            httpClient = createTrustingHttpClient();
+        }
+
+        return httpClient;
+    }
+
+    /**
+     * Executes an http request using the passed in request parameter. All requests share a single
+     * pooled HttpClient so that connections (and their TLS sessions) are reused across calls.
+     * 
+     * The response entity is buffered before this method returns so that the underlying connection
+     * is handed back to the pool right away, whether or not the caller reads the body.
+     * 
+     * If the response is 401 Unauthorized and a TokenRefresher is registered that can provide a
+     * new token for the one the request was sent with, the request is sent once more with the new
+     * token.
+     * 
+     * If a ResponseCache is set, GET requests are sent with the validators of the cached response
+     * and a 304 Not Modified answer is returned to the caller as 200 OK with the cached body.
+     * 
+     * If RequestMetrics is enabled, the latency, status code and size of every request sent are
+     * recorded under the endpoint of the request.
      * 
      * @param request
      *            the HttpRequestBase subclass to make a request with
      * @return the response of the request
      */
     public static HttpResponse httpInvoke(HttpRequestBase request) {
-        HttpResponse httpResponse = null;
-        HttpClient httpClient = null;
+        ResponseCache cache = responseCache;
+        String cacheKey = null;
+        ResponseCache.CachedResponse cached = null;
+
+        if (null != cache && ResponseCache.isCacheable(request)) {
+            cacheKey = cache.getKey(request);
+            cached = cache.get(cacheKey);
+            if (null != cached) {
+                cached.addValidators(request);
+            }
+        }
+
+        RequestMetrics.Endpoint endpoint = RequestMetrics.isEnabled() ? RequestMetrics
+                .forRequest(request) : null;
+
+        HttpResponse response = execute(request, endpoint);
+
+        TokenRefresher refresher = tokenRefresher;
+        if (null != refresher
+                && response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+            if (replaceExpiredToken(request, refresher)) {
+                request.reset();
+                response = execute(request, endpoint);
+            }
+        }
+
+        if (null != cacheKey) {
+            response = cache.update(cacheKey, cached, response);
+        }
+
+        if (null != endpoint && null != response.getEntity()) {
+            response.setEntity(RequestMetrics.meter(response.getEntity(), endpoint));
+        }
+
+        return response;
+    }
+
+    /**
+     * Sets the cache GET requests made through httpInvoke() go through. Passing null, which is the
+     * default, disables response caching.
+     * 
+     * @param cache
+     *            the ResponseCache to use, may be null
+     */
+    public static void setResponseCache(ResponseCache cache) {
+        responseCache = cache;
+    }
+
+    /**
+     * @return the ResponseCache GET requests go through, or null if response caching is disabled
+     */
+    public static ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * This private helper method executes the request once and buffers the response entity.
+     * 
+     * @param request
+     *            the HttpRequestBase subclass to make a request with
+     * @param endpoint
+     *            the statistics to record the request under, null if RequestMetrics is disabled
+     * @return the response of the request
+     */
+    private static HttpResponse execute(HttpRequestBase request, RequestMetrics.Endpoint endpoint) {
+        CloseableHttpResponse httpResponse = null;
+        long start = null != endpoint ? System.nanoTime() : 0;
+        boolean completed = false;
 
         try {
-            // Create a fresh HttpClient.. some samples will make calls to two (or more)
-            // urls in a single run, sharing a static non-multithreaded instance causes
-            // exceptions. This prevents that by ensuring each call to httpInvoke gets
-            // its own instance.
-            httpClient = createTrustingHttpClient();
-            httpResponse = httpClient.execute(request);
+            httpResponse = getHttpClient().execute(request);
+
+            HttpEntity entity = httpResponse.getEntity();
+            if (null != entity) {
+                httpResponse.setEntity(new BufferedHttpEntity(entity));
+            }
+
+            completed = true;
         } catch (ClientProtocolException e) {
             throw new RuntimeException(e);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            if (null != endpoint) {
+                endpoint.record(request, completed ? httpResponse : null, System.nanoTime()
+                        - start);
+            }
+
+            try {
+                if (null != httpResponse) {
+                    httpResponse.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
 
         return httpResponse;
     }
 
+    /**
+     * Callback used by httpInvoke() to get a new token when a request is rejected with 401
+     * Unauthorized.
+     */
+    public interface TokenRefresher {
+        /**
+         * @param expiredToken
+         *            the token the rejected request was sent with
+         * @return a new token to retry the request with, or null if the token is not known to
+         *         this refresher or could not be renewed
+         */
+        String refresh(String expiredToken);
+    }
+
+    /**
+     * Registers the TokenRefresher used to retry requests rejected with 401 Unauthorized. Passing
+     * null disables the retry.
+     * 
+     * @param refresher
+     *            the TokenRefresher to use, may be null
+     */
+    public static void setTokenRefresher(TokenRefresher refresher) {
+        tokenRefresher = refresher;
+    }
+
+    /**
+     * This private helper method finds the token the request was sent with, either in the
+     * x-vcloud-authorization header or as a Bearer Authorization header, and replaces it with a
+     * refreshed one.
+     * 
+     * @param request
+     *            the request that was rejected
+     * @param refresher
+     *            the TokenRefresher to get the new token from
+     * @return true if the token was replaced and the request can be retried
+     */
+    private static boolean replaceExpiredToken(HttpRequestBase request, TokenRefresher refresher) {
+        Header vcd = request.getFirstHeader(SampleConstants.VCD_AUTHORIZATION_HEADER);
+        if (null != vcd) {
+            String token = refresher.refresh(vcd.getValue());
+            if (null != token) {
+                request.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
+                return true;
+            }
+
+            return false;
+        }
+
+        Header auth = request.getFirstHeader(HttpHeaders.AUTHORIZATION);
+        if (null != auth && auth.getValue().startsWith(BEARER_PREFIX)) {
+            String token = refresher.refresh(auth.getValue().substring(BEARER_PREFIX.length()));
+            if (null != token) {
+                request.setHeader(HttpHeaders.AUTHORIZATION, BEARER_PREFIX + token);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * This method returns a secure HttpClient instance.
      * 
@@ -109,13 +422,11 @@ public class HttpUtils {
     }
 
     /**
-     * This method returns an HttpClient instance wrapped to trust all HTTPS certificates.
+     * This method returns a pooled HttpClient instance wrapped to trust all HTTPS certificates.
      * 
-     * @return HttpClient a new instance of HttpClient
+     * @return CloseableHttpClient a new instance of a pooled HttpClient
      */
-    static HttpClient createTrustingHttpClient() {
-        HttpClient base = new DefaultHttpClient();
-
+    static CloseableHttpClient createTrustingHttpClient() {
         try {
             SSLContext ctx = SSLContext.getInstance("TLS");
 
@@ -137,13 +448,22 @@ public class HttpUtils {
             };
 
             ctx.init(null, trustAllCerts, null);
-            SSLSocketFactory ssf = new SSLSocketFactory(ctx);
-            ssf.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-            ClientConnectionManager ccm = base.getConnectionManager();
-            SchemeRegistry sr = ccm.getSchemeRegistry();
-            sr.register(new Scheme("https", 443, ssf));
+            SSLConnectionSocketFactory ssf = new SSLConnectionSocketFactory(ctx,
+                    SSLConnectionSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
 
-            return new DefaultHttpClient(ccm, base.getParams());
+            Registry<ConnectionSocketFactory> registry = RegistryBuilder
+                    .<ConnectionSocketFactory> create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", ssf).build();
+
+            connectionManager = new PoolingHttpClientConnectionManager(registry);
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+            new IdleConnectionMonitor(connectionManager).start();
+
+            return HttpClients.custom().setConnectionManager(connectionManager)
+                    .setKeepAliveStrategy(new DefaultKeepAliveStrategy()).build();
         } catch (Exception ex) {
             ex.printStackTrace();
             return null;
@@ -151,7 +471,47 @@ public class HttpUtils {
     }
 
     /**
-     * This helper method will create the JAXB context for the provided Class<T> and
+     * Keep-alive strategy that honors the server supplied Keep-Alive timeout, falling back to
+     * DEFAULT_KEEP_ALIVE_MILLIS so connections are never kept open indefinitely.
+     */
+    private static class DefaultKeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = super.getKeepAliveDuration(response, context);
+
+            return duration > 0 ? duration : DEFAULT_KEEP_ALIVE_MILLIS;
+        }
+    }
+
+    /**
+     * Daemon thread that periodically evicts expired and idle connections from the pool, so that
+     * connections closed by the server while sitting in the pool are not handed out again.
+     */
+    private static class IdleConnectionMonitor extends Thread {
+        private final HttpClientConnectionManager manager;
+
+        IdleConnectionMonitor(HttpClientConnectionManager manager) {
+            super("vchs-idle-connection-monitor");
+            this.manager = manager;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    Thread.sleep(IDLE_CONNECTION_SWEEP_MILLIS);
+                    manager.closeExpiredConnections();
+                    manager.closeIdleConnections(DEFAULT_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                // exit quietly
+            }
+        }
+    }
+
+    /**
+     * This helper method will look up the cached JAXB context for the provided Class<T> and
      * marshal the provided JAXBElement<T> into a StringEntity.
      * 
      * @param clazz
@@ -159,18 +519,10 @@ public class HttpUtils {
      * @return
      */
     public static <T> StringEntity marshal(Class<T> clazz, JAXBElement<T> jaxb) {
-        JAXBContext jaxbContexts = null;
         OutputStream os = null;
 
         try {
-            jaxbContexts = JAXBContext.newInstance(clazz);
-        } catch (JAXBException ex) {
-            throw new RuntimeException("Problem creating JAXB Context: ", ex);
-        }
-
-        try {
-            javax.xml.bind.Marshaller marshaller = jaxbContexts.createMarshaller();
-            marshaller.setProperty(javax.xml.bind.Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+            Marshaller marshaller = JAXBContextRegistry.getMarshaller(clazz);
             os = new ByteArrayOutputStream();
             // Marshal the object via JAXB to XML
             marshaller.marshal(jaxb, os);
@@ -187,8 +539,10 @@ public class HttpUtils {
 
     /**
      * This method will unmarshal the passed in entity using the passed in class type. It will check
-     * the content-type to determine if the response is json or xml and use the appropriate
-     * deserializer.
+     * the content-type header to determine if the response is json or xml and use the appropriate
+     * deserializer. The body is read straight from the entity stream, it is never copied into an
+     * intermediate String. If the entity was returned by httpInvoke() while RequestMetrics was
+     * enabled, the time spent is recorded under the endpoint of the request.
      * 
      * @param entity
      *            the entity to unmarshal
@@ -197,31 +551,35 @@ public class HttpUtils {
      * @return unmarshal an instance of the provided class type
      */
     public static <T> T unmarshal(HttpEntity entity, Class<T> clazz) {
+        RequestMetrics.Endpoint endpoint = RequestMetrics.meteredBy(entity);
+        long start = null != endpoint ? System.nanoTime() : 0;
         InputStream is = null;
 
         try {
-            String s = EntityUtils.toString(entity);
-
-            // Check if the response content-type contains the string json.. if so use GSON to
-            // convert from json to the provided Class<T> type
-            if (entity.getContentType().toString().toLowerCase().contains("json")) {
-                GsonBuilder gsonBuilder = new GsonBuilder();
-                gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                        new XMLGregorianClassConverter.Serializer());
-                gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                        new XMLGregorianClassConverter.Deserializer());
-
-                Gson g = gsonBuilder.create();
-                return g.fromJson(s, clazz);
+            is = entity.getContent();
+
+            Header contentType = entity.getContentType();
+            Charset charset = null;
+            try {
+                ContentType ct = ContentType.get(entity);
+                if (null != ct) {
+                    charset = ct.getCharset();
+                }
+            } catch (ParseException e) {
+                // fall back to the default below
+            } catch (UnsupportedCharsetException e) {
+                // fall back to the default below
             }
 
-            is = new ByteArrayInputStream(s.getBytes("UTF-8"));
-            return JAXB.unmarshal(is, clazz);
-        } catch (ParseException e) {
-            throw new RuntimeException(e);
+            return unmarshal(is, null != contentType ? contentType.getValue() : null, charset,
+                    clazz);
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
+            if (null != endpoint) {
+                endpoint.recordUnmarshal(System.nanoTime() - start);
+            }
+
             try {
                 if (null != is) {
                     is.close();
@@ -232,6 +590,54 @@ public class HttpUtils {
         }
     }
 
+    /**
+     * This method will unmarshal the passed in stream using the passed in class type. If the
+     * contentType contains the string json the stream is read with a Gson JsonReader, otherwise it
+     * is read as XML with a StAX XMLStreamReader and unmarshalled with JAXB. The stream is not
+     * closed by this method.
+     * 
+     * @param is
+     *            the stream to read the response body from
+     * @param contentType
+     *            the value of the Content-Type header of the response, may be null
+     * @param charset
+     *            the charset of a json body, if null UTF-8 is used. XML bodies are decoded using
+     *            the encoding of the XML declaration.
+     * @param clazz
+     *            the class type to base the unmarshal from
+     * @return unmarshal an instance of the provided class type
+     */
+    public static <T> T unmarshal(InputStream is, String contentType, Charset charset,
+            Class<T> clazz) {
+        // Check if the response content-type contains the string json.. if so use GSON to
+        // convert from json to the provided Class<T> type
+        if (null != contentType && contentType.toLowerCase().contains("json")) {
+            JsonReader reader = new JsonReader(new InputStreamReader(is,
+                    null != charset ? charset : Consts.UTF_8));
+            return gson.fromJson(reader, clazz);
+        }
+
+        XMLStreamReader reader = null;
+
+        try {
+            reader = xmlInputFactory.createXMLStreamReader(is);
+            Unmarshaller unmarshaller = JAXBContextRegistry.getUnmarshaller(clazz);
+            return unmarshaller.unmarshal(reader, clazz).getValue();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Problem reading " + clazz.getName(), e);
+        } catch (JAXBException e) {
+            throw new RuntimeException("Problem unmarshalling " + clazz.getName(), e);
+        } finally {
+            try {
+                if (null != reader) {
+                    reader.close();
+                }
+            } catch (XMLStreamException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     /**
      * This method can be used to query the vCloud Query API. The baseVcdUrl represents the portion
      * of the url up to the /api at the end. The /query is appended. Query parameters allow any of
@@ -248,12 +654,11 @@ public class HttpUtils {
      *            the vCloud Query API version to call against
      * @param token
      *            the vCloud API token retrieved after a successful login
-     * @return
+     * @return the first page of results if the request succeeded, null otherwise
      */
     public static QueryResultRecordsType getQueryResults(String baseVcdUrl, String queryParameters,
             String version, String token) {
         URL url = null;
-        QueryResultRecordsType results = null;
 
         try {
             // Construct the URL from the baseVcdUrl to utilize the vCloud Query API to find a
@@ -263,7 +668,41 @@ public class HttpUtils {
             throw new RuntimeException("Invalid URL: " + baseVcdUrl);
         }
 
-        HttpGet httpGet = new HttpGet(url.toString());
+        return getQueryResultsPage(url.toString(), version, token);
+    }
+
+    /**
+     * Encodes a value, such as the filter expression of a vCloud Query API query, so that it can be
+     * used as a query parameter. Filters often contain hrefs and characters such as ; and = that
+     * are not allowed unencoded in a query string.
+     * 
+     * @param value
+     *            the value to encode
+     * @return the value encoded as UTF-8 application/x-www-form-urlencoded
+     */
+    public static String encodeQueryValue(String value) {
+        try {
+            return URLEncoder.encode(value, Consts.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * This method requests a single page of vCloud Query API results from the provided, complete,
+     * query url. It is typically used with the href of a nextPage link of a previous page.
+     * 
+     * @param queryUrl
+     *            the complete url of the query page, including any query parameters
+     * @param version
+     *            the vCloud Query API version to call against
+     * @param token
+     *            the vCloud API token retrieved after a successful login
+     * @return the page of results if the request succeeded, null otherwise
+     */
+    public static QueryResultRecordsType getQueryResultsPage(String queryUrl, String version,
+            String token) {
+        HttpGet httpGet = new HttpGet(queryUrl);
         httpGet.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION
                 + version);
 
@@ -273,10 +712,40 @@ public class HttpUtils {
 
         // make sure the status is 200 OK
         if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-            results = HttpUtils.unmarshal(response.getEntity(), QueryResultRecordsType.class);
+            return HttpUtils.unmarshal(response.getEntity(), QueryResultRecordsType.class);
         }
 
-        return results;
+        return null;
+    }
+
+    /**
+     * This method returns all the records of a vCloud Query API query, requesting the pages lazily
+     * as the records are iterated. While the records of one page are consumed, the next page is
+     * already being requested in the background. The baseVcdUrl, version and token are the same
+     * as for getQueryResults().
+     * 
+     * @param baseVcdUrl
+     *            the base vCloud API url up to the /api on the end
+     * @param queryParameters
+     *            any vCloud Query API Parameters, such as type= and filter=, without page or
+     *            pageSize
+     * @param pageSize
+     *            the number of records to request per page, or 0 to use the server default
+     * @param version
+     *            the vCloud Query API version to call against
+     * @param token
+     *            the vCloud API token retrieved after a successful login
+     * @return an Iterable over all the records of the query
+     */
+    public static Iterable<QueryResultRecordType> queryRecords(final String baseVcdUrl,
+            final String queryParameters, final int pageSize, final String version,
+            final String token) {
+        return new Iterable<QueryResultRecordType>() {
+            public Iterator<QueryResultRecordType> iterator() {
+                return new QueryResultIterator(baseVcdUrl, queryParameters, pageSize, version,
+                        token);
+            }
+        };
     }
 
     /**
@@ -358,10 +827,26 @@ public class HttpUtils {
         }
 
         public static class Deserializer implements JsonDeserializer {
+            /*
+             * DatatypeFactory.newInstance() does a service lookup on every call, and factories are
+             * not guaranteed to be thread safe, so one is kept per thread.
+             */
+            private static final ThreadLocal<DatatypeFactory> datatypeFactory =
+                    new ThreadLocal<DatatypeFactory>() {
+                        @Override
+                        protected DatatypeFactory initialValue() {
+                            try {
+                                return DatatypeFactory.newInstance();
+                            } catch (DatatypeConfigurationException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    };
+
             public Object deserialize(JsonElement jsonElement, Type type,
                     JsonDeserializationContext jsonDeserializationContext) {
                 try {
-                    return DatatypeFactory.newInstance().newXMLGregorianCalendar(
+                    return datatypeFactory.get().newXMLGregorianCalendar(
                             jsonElement.getAsString());
                 } catch (Exception e) {
                     return null;
@@ -371,7 +856,7 @@ public class HttpUtils {
     }
 
     /**
-     * This private helper method will construct the Accept or Content-Type headers from 1, 2 or
+     * This helper method will construct the Accept or Content-Type headers from 1, 2 or
      * 3 parts depending on if the parts passed in are null or not. The mediaType passed in should
      * be one of application/xml, application/json, or any variance that would typically be
      * acceptable. The classType is optional, so if it's not needed, passing in null will avoid
@@ -386,7 +871,8 @@ public class HttpUtils {
      *            the version= value, if needed (optional... pass in null to avoid it being used)
      * @return a concatenated string of the 1, 2 or 3 parts depending on what was provided
      */
-    private static String buildMediaType(String mediaType, String classType, String version) {
+    // Package private rather than private so the benchmarks module can measure it
+    static String buildMediaType(String mediaType, String classType, String version) {
         StringBuilder sb = new StringBuilder(mediaType);
 
         if (null != classType && classType.length() > 0) {
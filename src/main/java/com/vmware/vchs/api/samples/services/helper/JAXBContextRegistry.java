@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * This class caches JAXBContext instances by class so the (expensive) context creation for the
+ * vCloud and vCHS schema types happens once per class instead of once per request. JAXBContext is
+ * thread safe and is shared, while Marshaller and Unmarshaller are not, so one of each is kept per
+ * thread and per class.
+ *
+ * Hit and miss counters are kept so the effectiveness of the cache can be checked at runtime. A
+ * hit is any lookup served without creating a new JAXBContext, a miss is one that had to create
+ * it.
+ */
+public final class JAXBContextRegistry {
+    private static final ConcurrentMap<Class<?>, JAXBContext> contexts =
+            new ConcurrentHashMap<Class<?>, JAXBContext>();
+
+    private static final ThreadLocal<Map<Class<?>, Marshaller>> marshallers =
+            new ThreadLocal<Map<Class<?>, Marshaller>>() {
+                @Override
+                protected Map<Class<?>, Marshaller> initialValue() {
+                    return new HashMap<Class<?>, Marshaller>();
+                }
+            };
+
+    private static final ThreadLocal<Map<Class<?>, Unmarshaller>> unmarshallers =
+            new ThreadLocal<Map<Class<?>, Unmarshaller>>() {
+                @Override
+                protected Map<Class<?>, Unmarshaller> initialValue() {
+                    return new HashMap<Class<?>, Unmarshaller>();
+                }
+            };
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /*
+     * Prevent this class from being instantiated
+     */
+    private JAXBContextRegistry() {
+    }
+
+    /**
+     * Returns the shared JAXBContext for the provided class, creating it on first use.
+     *
+     * @param clazz
+     *            the class to get the JAXBContext for
+     * @return the JAXBContext for the provided class
+     * @throws JAXBException
+     *             if the context could not be created
+     */
+    public static JAXBContext getContext(Class<?> clazz) throws JAXBException {
+        JAXBContext context = contexts.get(clazz);
+
+        if (null != context) {
+            hits.incrementAndGet();
+            return context;
+        }
+
+        misses.incrementAndGet();
+
+        // Two threads may race to create the context for the same class; only the first one to
+        // finish is kept and the other is simply discarded.
+        context = JAXBContext.newInstance(clazz);
+        JAXBContext existing = contexts.putIfAbsent(clazz, context);
+
+        return null != existing ? existing : context;
+    }
+
+    /**
+     * Returns a Marshaller for the provided class that is owned by the calling thread. The
+     * Marshaller is configured to produce formatted output.
+     *
+     * @param clazz
+     *            the class to get the Marshaller for
+     * @return a Marshaller that must only be used by the calling thread
+     * @throws JAXBException
+     *             if the Marshaller could not be created
+     */
+    public static Marshaller getMarshaller(Class<?> clazz) throws JAXBException {
+        Map<Class<?>, Marshaller> threadMarshallers = marshallers.get();
+        Marshaller marshaller = threadMarshallers.get(clazz);
+
+        if (null == marshaller) {
+            marshaller = getContext(clazz).createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+            threadMarshallers.put(clazz, marshaller);
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return marshaller;
+    }
+
+    /**
+     * Returns an Unmarshaller for the provided class that is owned by the calling thread.
+     *
+     * @param clazz
+     *            the class to get the Unmarshaller for
+     * @return an Unmarshaller that must only be used by the calling thread
+     * @throws JAXBException
+     *             if the Unmarshaller could not be created
+     */
+    public static Unmarshaller getUnmarshaller(Class<?> clazz) throws JAXBException {
+        Map<Class<?>, Unmarshaller> threadUnmarshallers = unmarshallers.get();
+        Unmarshaller unmarshaller = threadUnmarshallers.get(clazz);
+
+        if (null == unmarshaller) {
+            unmarshaller = getContext(clazz).createUnmarshaller();
+            threadUnmarshallers.put(clazz, unmarshaller);
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return unmarshaller;
+    }
+
+    /**
+     * @return the number of lookups that were served without creating a new JAXBContext
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that had to create a new JAXBContext
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of classes a JAXBContext is currently cached for
+     */
+    public static int size() {
+        return contexts.size();
+    }
+
+    /**
+     * Resets the hit and miss counters. The cached contexts are kept.
+     */
+    public static void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts latencies into fixed buckets, from 100 microseconds up to a minute, so that
+ * recording is a couple of atomic increments regardless of how many samples are recorded.
+ * Percentiles are reported as the upper bound of the bucket they fall in, capped at the largest
+ * latency seen, which is precise enough to tell which calls are slow.
+ */
+public class LatencyHistogram {
+    /*
+     * Upper bounds of the buckets in microseconds, the last bucket holds everything above
+     */
+    private static final long[] BOUNDS_MICROS = { 100, 200, 500, 1000, 2000, 5000, 10000, 20000,
+            50000, 100000, 200000, 500000, 1000000, 2000000, 5000000, 10000000, 30000000,
+            60000000 };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MICROS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos
+     *            the latency to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = 0;
+        while (bucket < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean latency in milliseconds, 0 if nothing was recorded
+     */
+    public double getMeanMillis() {
+        long n = count.get();
+
+        return n > 0 ? toMillis(totalNanos.get()) / n : 0;
+    }
+
+    /**
+     * @return the largest latency recorded in milliseconds
+     */
+    public double getMaxMillis() {
+        return toMillis(maxNanos.get());
+    }
+
+    /**
+     * @param percentile
+     *            the percentile to compute, from 0 to 100
+     * @return the upper bound in milliseconds of the bucket the percentile falls in, 0 if nothing
+     *         was recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = getBucketCounts();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+
+        if (0 == total) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < snapshot.length; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                double max = getMaxMillis();
+                return bucket < BOUNDS_MICROS.length ? Math.min(BOUNDS_MICROS[bucket] / 1000.0,
+                        max) : max;
+            }
+        }
+
+        return getMaxMillis();
+    }
+
+    /**
+     * @return the upper bounds of the buckets in milliseconds, the last bucket, which holds
+     *         everything above the last bound, has none
+     */
+    public static double[] getBucketBoundsMillis() {
+        double[] bounds = new double[BOUNDS_MICROS.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = BOUNDS_MICROS[i] / 1000.0;
+        }
+
+        return bounds;
+    }
+
+    /**
+     * @return the number of latencies recorded in each bucket
+     */
+    public long[] getBucketCounts() {
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+        }
+
+        return snapshot;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
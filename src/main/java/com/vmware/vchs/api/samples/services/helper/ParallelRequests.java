@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs a list of independent API calls concurrently while keeping no more than a given
+ * number of them in flight at once. It is used to fan out the one-GET-per-resource loops found in
+ * the service classes (for example one GET per vApp of a VDC).
+ *
+ * Calls run on a dedicated pool of daemon threads rather than on the AsyncExecutor pool, so a fan
+ * out started from inside an asynchronous call can never starve the pool it is running on. The
+ * number of threads in use is bounded by the concurrency of the fan outs currently running.
+ */
+public final class ParallelRequests {
+    /*
+     * Default number of calls kept in flight by a single fan out
+     */
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    private static final ExecutorService executor = Executors
+            .newCachedThreadPool(new AsyncExecutor.DaemonThreadFactory("vchs-fanout"));
+
+    /*
+     * Prevent this class from being instantiated
+     */
+    private ParallelRequests() {
+    }
+
+    /**
+     * Listener notified as each call of a fan out finishes, with how long that call took.
+     */
+    public interface RequestListener<T> {
+        /**
+         * @param index
+         *            the position of the call in the list passed to invokeAll()
+         * @param result
+         *            the result of the call, may be null
+         * @param elapsedMillis
+         *            how long the call took to run, in milliseconds
+         */
+        void completed(int index, T result, long elapsedMillis);
+    }
+
+    /**
+     * Runs a single call in the background on the fan out pool. This is meant for short lived
+     * background work, such as prefetching, that may be started from any thread.
+     *
+     * @param call
+     *            the call to run
+     * @return a Future for the result of the call
+     */
+    public static <T> Future<T> submit(Callable<T> call) {
+        return executor.submit(call);
+    }
+
+    /**
+     * Runs all the provided calls with at most concurrency of them in flight at once, waits for
+     * all of them to finish and returns their non null results.
+     *
+     * If any call throws, the calls still waiting to run are cancelled and a RuntimeException
+     * wrapping the failure is thrown.
+     *
+     * @param calls
+     *            the calls to run
+     * @param concurrency
+     *            the maximum number of calls to run at once
+     * @param preserveOrder
+     *            if true the results are in the same order as the calls, otherwise they are in
+     *            the order the calls finished in
+     * @param listener
+     *            optional listener notified as each call finishes, may be null
+     * @return the non null results of the calls
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> calls, int concurrency,
+            boolean preserveOrder, RequestListener<? super T> listener) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be greater than 0");
+        }
+
+        int size = calls.size();
+        List<T> results = new ArrayList<T>(size);
+
+        if (size == 0) {
+            return results;
+        }
+
+        CompletionService<TimedResult<T>> completionService =
+                new ExecutorCompletionService<TimedResult<T>>(executor);
+        List<Future<TimedResult<T>>> submitted = new ArrayList<Future<TimedResult<T>>>(size);
+
+        // Results indexed by call position, only used when the order has to be preserved
+        List<T> ordered = null;
+        if (preserveOrder) {
+            ordered = new ArrayList<T>(size);
+            for (int i = 0; i < size; i++) {
+                ordered.add(null);
+            }
+        }
+
+        int next = 0;
+
+        try {
+            // Fill the window, then submit one more call each time one finishes
+            while (next < size && next < concurrency) {
+                submitted.add(completionService.submit(new TimedCall<T>(next, calls.get(next))));
+                next++;
+            }
+
+            for (int done = 0; done < size; done++) {
+                TimedResult<T> result = completionService.take().get();
+
+                if (next < size) {
+                    submitted.add(completionService
+                            .submit(new TimedCall<T>(next, calls.get(next))));
+                    next++;
+                }
+
+                if (null != listener) {
+                    listener.completed(result.index, result.value, result.elapsedMillis);
+                }
+
+                if (preserveOrder) {
+                    ordered.set(result.index, result.value);
+                } else if (null != result.value) {
+                    results.add(result.value);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel(submitted);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            cancel(submitted);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+
+        if (preserveOrder) {
+            for (T value : ordered) {
+                if (null != value) {
+                    results.add(value);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    private static <T> void cancel(List<Future<T>> futures) {
+        for (Future<T> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Wraps a call to record its position and how long it took to run.
+     */
+    private static class TimedCall<T> implements Callable<TimedResult<T>> {
+        private final int index;
+        private final Callable<T> call;
+
+        TimedCall(int index, Callable<T> call) {
+            this.index = index;
+            this.call = call;
+        }
+
+        public TimedResult<T> call() throws Exception {
+            long start = System.nanoTime();
+            T value = call.call();
+
+            return new TimedResult<T>(index, value, (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    private static class TimedResult<T> {
+        final int index;
+        final T value;
+        final long elapsedMillis;
+
+        TimedResult(int index, T value, long elapsedMillis) {
+            this.index = index;
+            this.value = value;
+            this.elapsedMillis = elapsedMillis;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBElement;
+
+import com.vmware.vcloud.api.rest.schema_v1_5.LinkType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordsType;
+
+/**
+ * This class iterates over all the records of a vCloud Query API query, one page at a time. The
+ * first page is only requested when the iterator is first used, and each following page is found
+ * through the nextPage link of the page before it. As soon as a page is received, the request for
+ * the next page is started in the background, so it is usually already available by the time the
+ * records of the current page have been consumed.
+ *
+ * If a page request does not return 200 OK, hasNext() throws a RuntimeException rather than
+ * silently ending the iteration with a partial result.
+ */
+public class QueryResultIterator implements Iterator<QueryResultRecordType> {
+    private static final String NEXT_PAGE_REL = "nextPage";
+
+    private final String version;
+    private final String token;
+
+    /*
+     * The url of the next page when it has not been requested yet
+     */
+    private String nextPageUrl;
+
+    /*
+     * The next page when its request has already been started in the background
+     */
+    private Future<QueryResultRecordsType> nextPage;
+
+    private Iterator<JAXBElement<? extends QueryResultRecordType>> records = null;
+    private int pageCount = 0;
+
+    /**
+     * @param baseVcdUrl
+     *            the base vCloud API url up to the /api on the end
+     * @param queryParameters
+     *            any vCloud Query API Parameters, such as type= and filter=, without page or
+     *            pageSize
+     * @param pageSize
+     *            the number of records to request per page, or 0 to use the server default
+     * @param version
+     *            the vCloud Query API version to call against
+     * @param token
+     *            the vCloud API token retrieved after a successful login
+     */
+    public QueryResultIterator(String baseVcdUrl, String queryParameters, int pageSize,
+            String version, String token) {
+        StringBuilder sb = new StringBuilder(baseVcdUrl);
+        sb.append("/query?");
+        sb.append(queryParameters);
+
+        if (pageSize > 0) {
+            sb.append("&pageSize=");
+            sb.append(pageSize);
+        }
+
+        this.nextPageUrl = sb.toString();
+        this.version = version;
+        this.token = token;
+    }
+
+    public boolean hasNext() {
+        while (null == records || !records.hasNext()) {
+            QueryResultRecordsType page = null;
+
+            if (null != nextPage) {
+                page = waitFor(nextPage);
+                nextPage = null;
+            } else if (null != nextPageUrl) {
+                page = HttpUtils.getQueryResultsPage(nextPageUrl, version, token);
+                nextPageUrl = null;
+            } else {
+                return false;
+            }
+
+            if (null == page) {
+                throw new RuntimeException("Query API request failed for page " + (pageCount + 1));
+            }
+
+            pageCount++;
+
+            // Start on the next page while the caller works through this one
+            String href = getNextPageHref(page);
+            if (null != href) {
+                nextPage = ParallelRequests.submit(new PageRequest(href));
+            }
+
+            records = page.getRecord().iterator();
+        }
+
+        return true;
+    }
+
+    public QueryResultRecordType next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return records.next().getValue();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the number of pages received so far
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    private QueryResultRecordsType waitFor(Future<QueryResultRecordsType> page) {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static String getNextPageHref(QueryResultRecordsType page) {
+        for (LinkType link : page.getLink()) {
+            if (NEXT_PAGE_REL.equalsIgnoreCase(link.getRel())) {
+                return link.getHref();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Background request for a single page of results.
+     */
+    private class PageRequest implements Callable<QueryResultRecordsType> {
+        private final String href;
+
+        PageRequest(String href) {
+            this.href = href;
+        }
+
+        public QueryResultRecordsType call() {
+            return HttpUtils.getQueryResultsPage(href, version, token);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class spaces out requests so that no more than a given number of them are started per
+ * second, across all the threads sharing the limiter. Each call to acquire() reserves the next
+ * free slot and sleeps until it is reached, so requests are spread evenly instead of being sent
+ * in bursts.
+ */
+public class RateLimiter {
+    private final long intervalNanos;
+    private long nextSlot = System.nanoTime();
+
+    /**
+     * @param permitsPerSecond
+     *            the maximum number of permits handed out per second
+     */
+    public RateLimiter(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Permits per second must be greater than 0");
+        }
+
+        intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+
+    /**
+     * Waits until the next request may be started.
+     */
+    public void acquire() {
+        long wait;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextSlot < now) {
+                nextSlot = now;
+            }
+
+            wait = nextSlot - now;
+            nextSlot += intervalNanos;
+        }
+
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
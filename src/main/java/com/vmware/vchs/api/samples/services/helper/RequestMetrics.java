@@ -0,0 +1,682 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * This class keeps per endpoint statistics of the requests made through HttpUtils.httpInvoke():
+ * a latency histogram, the count of each status code, the bytes sent and received and the time
+ * spent unmarshalling the responses. Endpoints are the request method plus the path of the URL
+ * with the identifiers replaced by {id}, for example GET /compute/api/vApp/vapp-{id}, so that all
+ * calls for the same kind of resource add up.
+ * 
+ * Collection is disabled by default, in which case the only cost to a request is reading a
+ * volatile flag. The statistics can be read with toText() or toJson(), dumped periodically with
+ * startDump() and exported over JMX with registerMBeans().
+ */
+public final class RequestMetrics {
+    /*
+     * Domain of the MBeans registered by registerMBeans()
+     */
+    public static final String JMX_DOMAIN = "com.vmware.vchs.api.samples";
+
+    /*
+     * Upper limit on the number of endpoints tracked, calls to any further endpoint are counted
+     * under {other} so that a URL pattern this class does not recognize cannot grow the map
+     * without bounds
+     */
+    private static final int MAX_ENDPOINTS = 500;
+
+    private static final Pattern ID_SEGMENT = Pattern.compile("(?i)[0-9a-f]{8}-[0-9a-f]{4}-"
+            + "[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}|[0-9]+(-[0-9]+)*|[0-9a-f]{16,}|urn:.*");
+    private static final Pattern PREFIXED_ID_SEGMENT = Pattern.compile("([A-Za-z]+-)(.+)");
+    private static final Pattern QUERY_TYPE = Pattern.compile("(?:^|&)type=([^&]*)");
+
+    private static volatile boolean enabled = false;
+
+    private static final ConcurrentMap<String, Endpoint> endpoints =
+            new ConcurrentHashMap<String, Endpoint>();
+
+    private static MBeanServer mbeanServer = null;
+    private static ScheduledExecutorService dumpExecutor = null;
+
+    private RequestMetrics() {
+    }
+
+    /**
+     * Turns the collection of request statistics on or off. Statistics collected so far are kept
+     * when collection is turned off.
+     * 
+     * @param on
+     *            true to collect statistics for the requests made from now on
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @return true if statistics are collected for the requests made through httpInvoke()
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param name
+     *            the endpoint template, as returned by getEndpointTemplate()
+     * @return the statistics of the endpoint, or null if no request was recorded for it
+     */
+    public static Endpoint getEndpoint(String name) {
+        return endpoints.get(name);
+    }
+
+    /**
+     * @return the statistics of every endpoint a request was recorded for, sorted by name
+     */
+    public static List<Endpoint> getEndpoints() {
+        List<Endpoint> list = new ArrayList<Endpoint>(endpoints.values());
+        Collections.sort(list, new Comparator<Endpoint>() {
+            public int compare(Endpoint e1, Endpoint e2) {
+                return e1.getName().compareTo(e2.getName());
+            }
+        });
+
+        return list;
+    }
+
+    /**
+     * Discards the statistics of all endpoints, along with their MBeans if registered.
+     */
+    public static synchronized void reset() {
+        for (Endpoint endpoint : endpoints.values()) {
+            unregister(endpoint.getObjectName());
+        }
+
+        endpoints.clear();
+    }
+
+    /**
+     * This method reduces a request to the endpoint template its statistics are kept under. The
+     * host is dropped, path segments that look like identifiers (UUIDs, numbers, long hex strings
+     * and URNs) become {id} and segments such as vapp-<uuid> keep their prefix and become
+     * vapp-{id}. The query string is dropped except for the type parameter of vCloud queries,
+     * since the query type decides what the call returns.
+     * 
+     * @param method
+     *            the method of the request, such as GET
+     * @param uri
+     *            the URI of the request
+     * @return the endpoint template, for example GET /compute/api/vApp/vapp-{id}
+     */
+    public static String getEndpointTemplate(String method, URI uri) {
+        StringBuilder template = new StringBuilder(method).append(' ');
+
+        String path = uri.getRawPath();
+        if (null == path || path.isEmpty()) {
+            path = "/";
+        }
+
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+
+            template.append(templateSegment(path.substring(start, end)));
+            if (end < path.length()) {
+                template.append('/');
+            }
+
+            start = end + 1;
+        }
+
+        String query = uri.getRawQuery();
+        if (null != query && path.endsWith("/query")) {
+            Matcher matcher = QUERY_TYPE.matcher(query);
+            if (matcher.find()) {
+                template.append("?type=").append(matcher.group(1));
+            }
+        }
+
+        return template.toString();
+    }
+
+    private static String templateSegment(String segment) {
+        if (segment.isEmpty()) {
+            return segment;
+        }
+
+        if (ID_SEGMENT.matcher(segment).matches()) {
+            return "{id}";
+        }
+
+        Matcher matcher = PREFIXED_ID_SEGMENT.matcher(segment);
+        if (matcher.matches() && ID_SEGMENT.matcher(matcher.group(2)).matches()) {
+            return matcher.group(1) + "{id}";
+        }
+
+        return segment;
+    }
+
+    /**
+     * This package private method returns the statistics the request is recorded under, creating
+     * them on the first call for the endpoint.
+     * 
+     * @param request
+     *            the request about to be sent
+     * @return the statistics of the endpoint of the request
+     */
+    static Endpoint forRequest(HttpRequestBase request) {
+        String name = getEndpointTemplate(request.getMethod(), request.getURI());
+
+        Endpoint endpoint = endpoints.get(name);
+        if (null != endpoint) {
+            return endpoint;
+        }
+
+        if (endpoints.size() >= MAX_ENDPOINTS) {
+            name = request.getMethod() + " {other}";
+            endpoint = endpoints.get(name);
+            if (null != endpoint) {
+                return endpoint;
+            }
+        }
+
+        endpoint = new Endpoint(name);
+        Endpoint existing = endpoints.putIfAbsent(name, endpoint);
+        if (null != existing) {
+            return existing;
+        }
+
+        synchronized (RequestMetrics.class) {
+            if (null != mbeanServer) {
+                register(endpoint, endpoint.getObjectName());
+            }
+        }
+
+        return endpoint;
+    }
+
+    /**
+     * This package private method tags a response entity with the endpoint it was returned by so
+     * that HttpUtils.unmarshal() can record the time spent unmarshalling it.
+     * 
+     * @param entity
+     *            the response entity
+     * @param endpoint
+     *            the statistics of the endpoint the entity was returned by
+     * @return the tagged entity
+     */
+    static HttpEntity meter(HttpEntity entity, Endpoint endpoint) {
+        if (entity instanceof MeteredEntity) {
+            return entity;
+        }
+
+        return new MeteredEntity(entity, endpoint);
+    }
+
+    /**
+     * @param entity
+     *            an entity passed to HttpUtils.unmarshal()
+     * @return the statistics of the endpoint the entity was returned by, or null if the entity was
+     *         not tagged by meter()
+     */
+    static Endpoint meteredBy(HttpEntity entity) {
+        return entity instanceof MeteredEntity ? ((MeteredEntity) entity).endpoint : null;
+    }
+
+    /**
+     * @return the statistics of all endpoints as a table, one line per endpoint
+     */
+    public static String toText() {
+        List<Endpoint> list = getEndpoints();
+        int width = "Endpoint".length();
+        for (Endpoint endpoint : list) {
+            width = Math.max(width, endpoint.getName().length());
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-" + width + "s %8s %7s %9s %9s %9s %9s %10s %10s %9s  %s%n",
+                "Endpoint", "Calls", "Errors", "p50 ms", "p90 ms", "p99 ms", "max ms", "KB out",
+                "KB in", "unm. ms", "Status"));
+
+        for (Endpoint endpoint : list) {
+            StringBuilder statuses = new StringBuilder();
+            for (Map.Entry<String, Long> status : endpoint.getStatusCounts().entrySet()) {
+                statuses.append(status.getKey()).append('=').append(status.getValue())
+                        .append(' ');
+            }
+
+            text.append(String.format("%-" + width
+                    + "s %8d %7d %9.1f %9.1f %9.1f %9.1f %10.1f %10.1f %9.2f  %s%n",
+                    endpoint.getName(), endpoint.getCount(), endpoint.getErrorCount(),
+                    endpoint.getP50Millis(), endpoint.getP90Millis(), endpoint.getP99Millis(),
+                    endpoint.getMaxMillis(), endpoint.getBytesOut() / 1024.0,
+                    endpoint.getBytesIn() / 1024.0, endpoint.getUnmarshalMeanMillis(),
+                    statuses.toString().trim()));
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * @return the statistics of all endpoints as a single line JSON document, including the bucket
+     *         counts of the latency histograms
+     */
+    public static String toJson() {
+        List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+        for (Endpoint endpoint : getEndpoints()) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("endpoint", endpoint.getName());
+            map.put("count", endpoint.getCount());
+            map.put("errors", endpoint.getErrorCount());
+            map.put("status", endpoint.getStatusCounts());
+            map.put("bytesOut", endpoint.getBytesOut());
+            map.put("bytesIn", endpoint.getBytesIn());
+            map.put("meanMillis", endpoint.getMeanMillis());
+            map.put("p50Millis", endpoint.getP50Millis());
+            map.put("p90Millis", endpoint.getP90Millis());
+            map.put("p99Millis", endpoint.getP99Millis());
+            map.put("maxMillis", endpoint.getMaxMillis());
+            map.put("buckets", endpoint.getLatency().getBucketCounts());
+            map.put("unmarshalCount", endpoint.getUnmarshalCount());
+            map.put("unmarshalMeanMillis", endpoint.getUnmarshalMeanMillis());
+            list.add(map);
+        }
+
+        Map<String, Object> document = new LinkedHashMap<String, Object>();
+        document.put("timestamp", System.currentTimeMillis());
+        document.put("bucketBoundsMillis", LatencyHistogram.getBucketBoundsMillis());
+        document.put("endpoints", list);
+
+        return HttpUtils.getGson().toJson(document);
+    }
+
+    /**
+     * Starts writing the statistics to the passed in stream at a fixed period, from a daemon
+     * thread. Any dump started earlier is stopped first.
+     * 
+     * @param periodMillis
+     *            the time between two dumps in milliseconds
+     * @param out
+     *            the stream to write to
+     * @param json
+     *            true to write toJson(), one line per dump, false to write toText()
+     */
+    public static synchronized void startDump(long periodMillis, final PrintStream out,
+            final boolean json) {
+        stopDump();
+
+        dumpExecutor = Executors.newSingleThreadScheduledExecutor(
+                new AsyncExecutor.DaemonThreadFactory("request-metrics"));
+        dumpExecutor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                out.println(json ? toJson() : toText());
+                out.flush();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic dump started with startDump(), if any.
+     */
+    public static synchronized void stopDump() {
+        if (null != dumpExecutor) {
+            dumpExecutor.shutdownNow();
+            dumpExecutor = null;
+        }
+    }
+
+    /**
+     * Registers with the platform MBeanServer an MBean to control the collection, named
+     * com.vmware.vchs.api.samples:type=RequestMetrics,name=Control, and one MBean per endpoint,
+     * named com.vmware.vchs.api.samples:type=RequestMetrics,endpoint="GET /...". MBeans of
+     * endpoints seen later are registered as they appear.
+     */
+    public static synchronized void registerMBeans() {
+        if (null != mbeanServer) {
+            return;
+        }
+
+        mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        register(new Control(), controlObjectName());
+        for (Endpoint endpoint : endpoints.values()) {
+            register(endpoint, endpoint.getObjectName());
+        }
+    }
+
+    /**
+     * Unregisters the MBeans registered by registerMBeans().
+     */
+    public static synchronized void unregisterMBeans() {
+        if (null == mbeanServer) {
+            return;
+        }
+
+        unregister(controlObjectName());
+        for (Endpoint endpoint : endpoints.values()) {
+            unregister(endpoint.getObjectName());
+        }
+
+        mbeanServer = null;
+    }
+
+    private static ObjectName controlObjectName() {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=RequestMetrics,name=Control");
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void register(Object mbean, ObjectName name) {
+        try {
+            if (!mbeanServer.isRegistered(name)) {
+                mbeanServer.registerMBean(mbean, name);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void unregister(ObjectName name) {
+        if (null == mbeanServer) {
+            return;
+        }
+
+        try {
+            if (mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Management interface of the MBean registered as
+     * com.vmware.vchs.api.samples:type=RequestMetrics,name=Control.
+     */
+    public interface ControlMXBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean on);
+
+        List<String> getEndpoints();
+
+        String getText();
+
+        String getJson();
+
+        void reset();
+    }
+
+    private static class Control implements ControlMXBean {
+        public boolean isEnabled() {
+            return RequestMetrics.isEnabled();
+        }
+
+        public void setEnabled(boolean on) {
+            RequestMetrics.setEnabled(on);
+        }
+
+        public List<String> getEndpoints() {
+            List<String> names = new ArrayList<String>();
+            for (Endpoint endpoint : RequestMetrics.getEndpoints()) {
+                names.add(endpoint.getName());
+            }
+
+            return names;
+        }
+
+        public String getText() {
+            return toText();
+        }
+
+        public String getJson() {
+            return toJson();
+        }
+
+        public void reset() {
+            RequestMetrics.reset();
+        }
+    }
+
+    /**
+     * Management interface of the per endpoint MBeans.
+     */
+    public interface EndpointMXBean {
+        String getName();
+
+        long getCount();
+
+        long getErrorCount();
+
+        Map<String, Long> getStatusCounts();
+
+        long getBytesOut();
+
+        long getBytesIn();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP90Millis();
+
+        double getP99Millis();
+
+        double getMaxMillis();
+
+        long getUnmarshalCount();
+
+        double getUnmarshalMeanMillis();
+    }
+
+    /**
+     * The statistics of one endpoint. Every request sent, including the retry after a 401
+     * Unauthorized, is recorded; requests that fail with an IOException are counted as errors.
+     */
+    public static class Endpoint implements EndpointMXBean {
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram unmarshalLatency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final ConcurrentMap<Integer, AtomicLong> statusCounts =
+                new ConcurrentHashMap<Integer, AtomicLong>();
+
+        Endpoint(String name) {
+            this.name = name;
+        }
+
+        /**
+         * This package private method records one request sent to the endpoint.
+         * 
+         * @param request
+         *            the request sent
+         * @param response
+         *            the response received with its entity already buffered, or null if the
+         *            request failed
+         * @param nanos
+         *            the time the request took in nanoseconds
+         */
+        void record(HttpRequest request, HttpResponse response, long nanos) {
+            latency.record(nanos);
+
+            if (request instanceof HttpEntityEnclosingRequest) {
+                HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+                if (null != entity && entity.getContentLength() > 0) {
+                    bytesOut.addAndGet(entity.getContentLength());
+                }
+            }
+
+            if (null == response) {
+                errors.incrementAndGet();
+                return;
+            }
+
+            Integer status = response.getStatusLine().getStatusCode();
+            AtomicLong count = statusCounts.get(status);
+            if (null == count) {
+                AtomicLong newCount = new AtomicLong();
+                count = statusCounts.putIfAbsent(status, newCount);
+                if (null == count) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+
+            HttpEntity entity = response.getEntity();
+            if (null != entity && entity.getContentLength() > 0) {
+                bytesIn.addAndGet(entity.getContentLength());
+            }
+        }
+
+        /**
+         * This package private method records the time spent unmarshalling a response of the
+         * endpoint.
+         * 
+         * @param nanos
+         *            the time spent in nanoseconds
+         */
+        void recordUnmarshal(long nanos) {
+            unmarshalLatency.record(nanos);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        public long getErrorCount() {
+            return errors.get();
+        }
+
+        /**
+         * @return the number of responses received for each status code
+         */
+        public Map<String, Long> getStatusCounts() {
+            Map<String, Long> counts = new TreeMap<String, Long>();
+            for (Map.Entry<Integer, AtomicLong> entry : statusCounts.entrySet()) {
+                counts.put(entry.getKey().toString(), entry.getValue().get());
+            }
+
+            return counts;
+        }
+
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        public double getMeanMillis() {
+            return latency.getMeanMillis();
+        }
+
+        public double getP50Millis() {
+            return latency.getPercentileMillis(50);
+        }
+
+        public double getP90Millis() {
+            return latency.getPercentileMillis(90);
+        }
+
+        public double getP99Millis() {
+            return latency.getPercentileMillis(99);
+        }
+
+        public double getMaxMillis() {
+            return latency.getMaxMillis();
+        }
+
+        public long getUnmarshalCount() {
+            return unmarshalLatency.getCount();
+        }
+
+        public double getUnmarshalMeanMillis() {
+            return unmarshalLatency.getMeanMillis();
+        }
+
+        /**
+         * @return the histogram of the time requests to the endpoint took
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the histogram of the time spent unmarshalling responses of the endpoint
+         */
+        public LatencyHistogram getUnmarshalLatency() {
+            return unmarshalLatency;
+        }
+
+        ObjectName getObjectName() {
+            try {
+                return new ObjectName(JMX_DOMAIN + ":type=RequestMetrics,endpoint="
+                        + ObjectName.quote(name));
+            } catch (JMException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Response entity tagged with the endpoint it was returned by.
+     */
+    private static class MeteredEntity extends HttpEntityWrapper {
+        private final Endpoint endpoint;
+
+        MeteredEntity(HttpEntity entity, Endpoint endpoint) {
+            super(entity);
+            this.endpoint = endpoint;
+        }
+    }
+}
@@ -0,0 +1,650 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+
+import com.vmware.vchs.api.samples.SampleConstants;
+
+/**
+ * This class is an optional cache of GET responses used by HttpUtils.httpInvoke(). Responses
+ * returned with an ETag or Last-Modified header are kept, and the next GET of the same resource is
+ * sent with If-None-Match or If-Modified-Since. When the server answers 304 Not Modified, the
+ * cached body is handed back to the caller as a regular 200 OK response, so unchanged resources are
+ * not downloaded again.
+ *
+ * Responses are keyed by URL, Accept header and principal. The principal is the user a token was
+ * registered for with setPrincipal(), which TokenManager does for every token it obtains, or the
+ * token itself otherwise. Keys are hashed, so tokens never end up on disk.
+ *
+ * Entries are kept in memory, evicting the least recently used ones once the memory limit is
+ * reached. If a directory is provided, entries with a registered principal are also written there
+ * so that they survive across runs, evicting the least recently used files once the disk limit is
+ * reached. Entries keyed by a bare token are kept in memory only: the next run logs in with a new
+ * token, so they could never be hit again and would only fill the disk. The cache is best
+ * effort: a disk error only results in a cache miss.
+ *
+ * Hit and miss counters are kept so the effectiveness of the cache can be checked at runtime. A
+ * hit is a GET answered with 304 Not Modified and served from the cache, a miss is any other GET
+ * that went through the cache.
+ */
+public class ResponseCache {
+    /*
+     * Default upper bound on the total size of the bodies kept in memory
+     */
+    public static final long DEFAULT_MAX_MEMORY_BYTES = 16 * 1024 * 1024;
+
+    /*
+     * Default upper bound on the total size of the files kept on disk
+     */
+    public static final long DEFAULT_MAX_DISK_BYTES = 256 * 1024 * 1024;
+
+    private static final String FILE_SUFFIX = ".cache";
+
+    /*
+     * Prefix of the keys of requests whose token has no registered principal, which are not
+     * written to disk
+     */
+    private static final String SESSION_KEY_PREFIX = "session-";
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    /*
+     * Version of the on disk format, files written with another version are ignored
+     */
+    private static final int FILE_FORMAT = 1;
+
+    private static final ConcurrentMap<String, String> principals =
+            new ConcurrentHashMap<String, String>();
+
+    private final long maxMemoryBytes;
+    private final File directory;
+    private final long maxDiskBytes;
+
+    /*
+     * Access ordered map, the eldest entry is the least recently used one. Guarded by this.
+     */
+    private final LinkedHashMap<String, CachedResponse> memory =
+            new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+    private long memoryBytes = 0;
+    private long diskBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache kept in memory only.
+     *
+     * @param maxMemoryBytes
+     *            the maximum total size of the response bodies kept in memory
+     */
+    public ResponseCache(long maxMemoryBytes) {
+        this(maxMemoryBytes, null, 0);
+    }
+
+    /**
+     * Creates a cache kept in memory and in the provided directory.
+     *
+     * @param maxMemoryBytes
+     *            the maximum total size of the response bodies kept in memory
+     * @param directory
+     *            the directory to keep cached responses in, created if needed. May be null to keep
+     *            the cache in memory only
+     * @param maxDiskBytes
+     *            the maximum total size of the files kept in directory
+     */
+    public ResponseCache(long maxMemoryBytes, File directory, long maxDiskBytes) {
+        if (maxMemoryBytes <= 0 || (null != directory && maxDiskBytes <= 0)) {
+            throw new IllegalArgumentException("Cache size limits must be greater than 0");
+        }
+
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+
+        if (null != directory) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalArgumentException("Cannot create cache directory " + directory);
+            }
+
+            for (File file : listFiles()) {
+                diskBytes += file.length();
+            }
+        }
+    }
+
+    /**
+     * Associates a token with the user it belongs to, so that responses cached for one session of
+     * that user can be revalidated by the next session instead of being downloaded again.
+     *
+     * @param token
+     *            the token as sent in the x-vcloud-authorization or Bearer Authorization header
+     * @param principal
+     *            a string identifying the user, host and org the token was issued for
+     */
+    public static void setPrincipal(String token, String principal) {
+        principals.put(token, principal);
+    }
+
+    /**
+     * Returns the principal registered for a token with setPrincipal().
+     *
+     * @param token
+     *            the token to look up
+     * @return the principal of the token, or null if none is registered
+     */
+    public static String getPrincipal(String token) {
+        return null == token ? null : principals.get(token);
+    }
+
+    /**
+     * Forgets the principal of a token that is no longer in use.
+     *
+     * @param token
+     *            the token to forget
+     */
+    public static void removePrincipal(String token) {
+        principals.remove(token);
+    }
+
+    /**
+     * Returns true if the response to the provided request may be cached. Only GET requests that
+     * are not already conditional are cached, since a caller sending its own validators expects
+     * to see the 304 Not Modified response.
+     *
+     * @param request
+     *            the request about to be sent
+     * @return true if the request can go through the cache
+     */
+    public static boolean isCacheable(HttpRequestBase request) {
+        return HttpGet.METHOD_NAME.equals(request.getMethod())
+                && null == request.getFirstHeader(HttpHeaders.IF_NONE_MATCH)
+                && null == request.getFirstHeader(HttpHeaders.IF_MODIFIED_SINCE);
+    }
+
+    /**
+     * Returns the key the response to the provided request is cached under.
+     *
+     * @param request
+     *            the request about to be sent
+     * @return a hash of the URL, Accept header and principal of the request, prefixed with
+     *         session- if the token of the request has no registered principal
+     */
+    public String getKey(HttpRequestBase request) {
+        StringBuilder sb = new StringBuilder(request.getURI().toString());
+        sb.append('\n');
+        sb.append(getHeaderValue(request, HttpHeaders.ACCEPT));
+        sb.append('\n');
+
+        String token = getHeaderValue(request, SampleConstants.VCD_AUTHORIZATION_HEADER);
+        if (token.length() == 0) {
+            token = getHeaderValue(request, HttpHeaders.AUTHORIZATION);
+            if (token.startsWith(BEARER_PREFIX)) {
+                token = token.substring(BEARER_PREFIX.length());
+            }
+        }
+
+        String principal = principals.get(token);
+        if (null == principal) {
+            sb.append(token);
+            return SESSION_KEY_PREFIX + sha256(sb.toString());
+        }
+
+        sb.append(principal);
+        return sha256(sb.toString());
+    }
+
+    /**
+     * Returns the cached response for the provided key, loading it from disk if it is not in
+     * memory.
+     *
+     * @param key
+     *            the key returned by getKey()
+     * @return the cached response, or null if there is none
+     */
+    public CachedResponse get(String key) {
+        synchronized (this) {
+            CachedResponse cached = memory.get(key);
+            if (null != cached) {
+                return cached;
+            }
+        }
+
+        CachedResponse cached = read(key);
+        if (null != cached) {
+            putInMemory(key, cached);
+        }
+
+        return cached;
+    }
+
+    /**
+     * Updates the cache with the response to a request sent with the validators of cached, and
+     * returns the response the caller should see. A 304 Not Modified response is turned into a 200
+     * OK response carrying the cached body; a 200 OK response with validators is cached.
+     *
+     * @param key
+     *            the key returned by getKey()
+     * @param cached
+     *            the cached response the request was sent with the validators of, may be null
+     * @param response
+     *            the response received from the server
+     * @return the response to hand back to the caller
+     */
+    public HttpResponse update(String key, CachedResponse cached, HttpResponse response) {
+        int status = response.getStatusLine().getStatusCode();
+
+        if (status == HttpStatus.SC_NOT_MODIFIED && null != cached) {
+            hits.incrementAndGet();
+            touch(key);
+
+            response.setStatusLine(response.getProtocolVersion(), HttpStatus.SC_OK, "OK");
+            response.setEntity(cached.toEntity());
+            if (null != cached.contentType) {
+                response.setHeader(HttpHeaders.CONTENT_TYPE, cached.contentType);
+            }
+
+            return response;
+        }
+
+        misses.incrementAndGet();
+
+        if (status == HttpStatus.SC_OK) {
+            CachedResponse fresh = CachedResponse.from(response);
+
+            if (null != fresh) {
+                putInMemory(key, fresh);
+                write(key, fresh);
+            } else if (null != cached) {
+                // The resource no longer carries validators, stop revalidating it
+                remove(key);
+            }
+        } else if (status == HttpStatus.SC_NOT_FOUND || status == HttpStatus.SC_GONE) {
+            remove(key);
+        }
+
+        return response;
+    }
+
+    /**
+     * Removes all cached responses, from memory and from disk.
+     */
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+
+        if (null != directory) {
+            for (File file : listFiles()) {
+                file.delete();
+            }
+            diskBytes = 0;
+        }
+    }
+
+    /**
+     * @return the number of GETs served from the cache after a 304 Not Modified response
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of GETs through the cache that downloaded the resource
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the ratio of hits to all GETs through the cache, or 0 if there were none
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return the number of entries evicted from memory or disk to stay within the size limits
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of responses currently cached in memory
+     */
+    public synchronized int size() {
+        return memory.size();
+    }
+
+    /**
+     * @return the total size of the response bodies currently cached in memory
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters to 0.
+     */
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    private synchronized void putInMemory(String key, CachedResponse cached) {
+        if (cached.body.length > maxMemoryBytes) {
+            return;
+        }
+
+        CachedResponse previous = memory.put(key, cached);
+        if (null != previous) {
+            memoryBytes -= previous.body.length;
+        }
+        memoryBytes += cached.body.length;
+
+        Iterator<Map.Entry<String, CachedResponse>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= eldest.next().getValue().body.length;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private synchronized void remove(String key) {
+        CachedResponse previous = memory.remove(key);
+        if (null != previous) {
+            memoryBytes -= previous.body.length;
+        }
+
+        if (null != directory) {
+            File file = getFile(key);
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    /*
+     * Disk eviction is based on the file modification time, so refresh it on every hit
+     */
+    private void touch(String key) {
+        if (null != directory) {
+            getFile(key).setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    private CachedResponse read(String key) {
+        if (null == directory || key.startsWith(SESSION_KEY_PREFIX)) {
+            return null;
+        }
+
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (in.readInt() != FILE_FORMAT) {
+                return null;
+            }
+
+            String contentType = readString(in);
+            String etag = readString(in);
+            String lastModified = readString(in);
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+
+            return new CachedResponse(body, contentType, etag, lastModified);
+        } catch (IOException e) {
+            // A truncated or unreadable file is simply a miss
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private void write(String key, CachedResponse cached) {
+        if (null == directory || key.startsWith(SESSION_KEY_PREFIX)) {
+            return;
+        }
+
+        File file = getFile(key);
+        File tmp = null;
+        DataOutputStream out = null;
+
+        try {
+            // Concurrent writers of the same key each get their own temporary file, so a file is
+            // only ever renamed into place once it holds a whole response
+            tmp = File.createTempFile(key, ".tmp", directory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FILE_FORMAT);
+            writeString(out, cached.contentType);
+            writeString(out, cached.etag);
+            writeString(out, cached.lastModified);
+            out.writeInt(cached.body.length);
+            out.write(cached.body);
+            out.close();
+            out = null;
+
+            synchronized (this) {
+                long previous = file.length();
+                file.delete();
+                if (tmp.renameTo(file)) {
+                    diskBytes += file.length() - previous;
+                    evictFromDisk();
+                }
+            }
+        } catch (IOException e) {
+            // The response stays cached in memory for this run
+        } finally {
+            close(out);
+            if (null != tmp) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /*
+     * Deletes the least recently used files until the disk limit is met. Must hold the lock.
+     */
+    private void evictFromDisk() {
+        if (diskBytes <= maxDiskBytes) {
+            return;
+        }
+
+        File[] files = listFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length && diskBytes > maxDiskBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                diskBytes -= length;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = directory.listFiles();
+        if (null == files) {
+            return new File[0];
+        }
+
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(FILE_SUFFIX)) {
+                files[count++] = file;
+            }
+        }
+
+        return Arrays.copyOf(files, count);
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key + FILE_SUFFIX);
+    }
+
+    private static String getHeaderValue(HttpRequestBase request, String name) {
+        Header header = request.getFirstHeader(name);
+
+        return null != header ? header.getValue() : "";
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(null != value);
+        if (null != value) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (null != closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do with this stream
+            }
+        }
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    value.getBytes(Consts.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A cached response body along with its content type and validators.
+     */
+    public static class CachedResponse {
+        private final byte[] body;
+        private final String contentType;
+        private final String etag;
+        private final String lastModified;
+
+        CachedResponse(byte[] body, String contentType, String etag, String lastModified) {
+            this.body = body;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns a CachedResponse for a 200 OK response, or null if it cannot be revalidated or
+         * must not be stored.
+         */
+        static CachedResponse from(HttpResponse response) {
+            Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+            Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+            Header cacheControl = response.getFirstHeader(HttpHeaders.CACHE_CONTROL);
+            HttpEntity entity = response.getEntity();
+
+            if ((null == etag && null == lastModified) || null == entity
+                    || (null != cacheControl && cacheControl.getValue().contains("no-store"))) {
+                return null;
+            }
+
+            try {
+                // httpInvoke() buffers the entity, so it can be read here and again by the caller
+                byte[] body = EntityUtils.toByteArray(entity);
+                Header contentType = entity.getContentType();
+
+                return new CachedResponse(body, null != contentType ? contentType.getValue()
+                        : null, null != etag ? etag.getValue() : null,
+                        null != lastModified ? lastModified.getValue() : null);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Adds the validators of this response to the provided request.
+         *
+         * @param request
+         *            the request about to be sent
+         */
+        public void addValidators(HttpRequestBase request) {
+            if (null != etag) {
+                request.setHeader(HttpHeaders.IF_NONE_MATCH, etag);
+            }
+            if (null != lastModified) {
+                request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+            }
+        }
+
+        HttpEntity toEntity() {
+            ByteArrayEntity entity = new ByteArrayEntity(body);
+            entity.setContentType(contentType);
+
+            return entity;
+        }
+    }
+}
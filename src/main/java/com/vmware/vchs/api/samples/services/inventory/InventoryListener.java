@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.inventory;
+
+/**
+ * Listener notified by an InventoryStore of every change to its records, whether it comes from a
+ * full refresh or an incremental sync. Listeners are called on the thread that made the change,
+ * after the store has been updated, so they should return quickly.
+ */
+public interface InventoryListener {
+    /**
+     * @param previous
+     *            the record before the change, null if the record was added
+     * @param current
+     *            the record after the change, null if the record was removed
+     */
+    void changed(InventoryRecord previous, InventoryRecord current);
+}
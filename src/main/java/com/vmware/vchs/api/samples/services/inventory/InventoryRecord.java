@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.inventory;
+
+/**
+ * This class is a single entry of the local inventory: an org, VDC, vApp or VM along with the href
+ * of the entity it belongs to. Records are immutable and identified by their href.
+ */
+public class InventoryRecord {
+    /**
+     * The kinds of entities kept in the inventory, from the top of the tree down.
+     */
+    public enum Type {
+        ORG, VDC, VAPP, VM
+    }
+
+    /*
+     * Names of the vCloud status codes of vApps and VMs, as returned by the Query API. The status
+     * of a resource entity retrieved with a GET is a number indexing this array, offset by one
+     * since FAILED_CREATION is -1.
+     */
+    private static final String[] STATUS_NAMES = new String[] { "FAILED_CREATION", "UNRESOLVED",
+            "RESOLVED", "DEPLOYED", "SUSPENDED", "POWERED_ON", "WAITING_FOR_INPUT", "UNKNOWN",
+            "UNRECOGNIZED", "POWERED_OFF", "INCONSISTENT_STATE", "MIXED" };
+
+    /*
+     * Names of the creation status codes of VDCs, which have a table of their own, offset by one
+     * the same way
+     */
+    private static final String[] VDC_STATUS_NAMES = new String[] { "FAILED_CREATION",
+            "NOT_READY", "READY", "UNKNOWN", "UNRECOGNIZED" };
+
+    private final Type type;
+    private final String href;
+    private final String id;
+    private final String name;
+    private final String parentHref;
+    private final String status;
+
+    /**
+     * @param type
+     *            the kind of entity
+     * @param href
+     *            the href of the entity, never null
+     * @param id
+     *            the id of the entity (e.g. urn:vcloud:vm:...), may be null
+     * @param name
+     *            the name of the entity, may be null
+     * @param parentHref
+     *            the href of the entity this one belongs to, null for an org
+     * @param status
+     *            the status name of the entity (e.g. POWERED_ON), may be null
+     */
+    public InventoryRecord(Type type, String href, String id, String name, String parentHref,
+            String status) {
+        if (null == type || null == href) {
+            throw new IllegalArgumentException("Inventory records need a type and an href");
+        }
+
+        this.type = type;
+        this.href = href;
+        this.id = id;
+        this.name = name;
+        this.parentHref = parentHref;
+        this.status = status;
+    }
+
+    /**
+     * Converts the numeric vCloud status code of a vApp or VM into the name the Query API uses for
+     * it.
+     *
+     * @param status
+     *            the status code of a vApp or VM, may be null
+     * @return the status name, or null if status is null or not a known code
+     */
+    public static String getStatusName(Integer status) {
+        return lookup(STATUS_NAMES, status);
+    }
+
+    /**
+     * Converts the numeric creation status code of a VDC into its name. VDCs do not share the
+     * status codes of vApps and VMs: 1 means the VDC is ready.
+     *
+     * @param status
+     *            the status code of a VDC, may be null
+     * @return the status name, or null if status is null or not a known code
+     */
+    public static String getVdcStatusName(Integer status) {
+        return lookup(VDC_STATUS_NAMES, status);
+    }
+
+    private static String lookup(String[] names, Integer status) {
+        if (null == status || status.intValue() + 1 < 0 || status.intValue() + 1 >= names.length) {
+            return null;
+        }
+
+        return names[status.intValue() + 1];
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getHref() {
+        return href;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getParentHref() {
+        return parentHref;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof InventoryRecord)) {
+            return false;
+        }
+
+        InventoryRecord other = (InventoryRecord) obj;
+
+        return type == other.type && href.equals(other.href) && equal(id, other.id)
+                && equal(name, other.name) && equal(parentHref, other.parentHref)
+                && equal(status, other.status);
+    }
+
+    @Override
+    public int hashCode() {
+        return href.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + name + " (" + href + ")";
+    }
+
+    private static boolean equal(String s1, String s2) {
+        return null == s1 ? null == s2 : s1.equals(s2);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.inventory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vchs.api.samples.services.Compute;
+import com.vmware.vchs.api.samples.services.helper.AsyncExecutor;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
+import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VmType;
+
+/**
+ * This class populates an InventoryStore from the Compute API for one org of one compute instance.
+ * A refresh walks the org, VDC, vApp and VM tree with Compute.getVdc() and Compute.getVApp(),
+ * writes every entity found to the store and removes the records of the org that no longer exist.
+ * Only records that actually changed are written.
+ *
+ * An entity the org or its VDC still lists but that could not be retrieved, for instance because
+ * the request failed with 503 or timed out, is not treated as deleted: its record and the records
+ * below it are left as they are until a later refresh retrieves it.
+ *
+ * Refreshes can be run on demand with refresh() or periodically in the background with start(),
+ * so readers of the store never have to wait on the network.
+ */
+public class InventoryRefresher {
+    private final InventoryStore store;
+    private final String orgUrl;
+    private final String version;
+    private final Callable<String> tokenSource;
+
+    private ScheduledExecutorService scheduler = null;
+
+    private volatile long lastRefreshMillis = 0;
+    private volatile RuntimeException lastError = null;
+
+    /**
+     * @param store
+     *            the store to keep up to date
+     * @param orgUrl
+     *            the compute instance API url the org is retrieved from, as passed to
+     *            Compute.getOrgDetails()
+     * @param version
+     *            the version of the API to call
+     * @param tokenSource
+     *            called before each refresh to get a valid vCloud API token, for example through
+     *            TokenManager.getComputeToken()
+     */
+    public InventoryRefresher(InventoryStore store, String orgUrl, String version,
+            Callable<String> tokenSource) {
+        this.store = store;
+        this.orgUrl = orgUrl;
+        this.version = version;
+        this.tokenSource = tokenSource;
+    }
+
+    /**
+     * Refreshes the store now, on the calling thread.
+     *
+     * @return the number of records added, changed or removed
+     */
+    public synchronized int refresh() {
+        String token;
+        try {
+            token = tokenSource.call();
+        } catch (Exception e) {
+            throw new RuntimeException("Cannot get a token to refresh the inventory", e);
+        }
+
+        OrgListType org = Compute.getOrgDetails(orgUrl, token, version);
+        if (null == org) {
+            throw new RuntimeException("Cannot retrieve the org at " + orgUrl);
+        }
+
+        String orgHref = null != org.getHref() ? org.getHref() : orgUrl;
+        Set<String> seen = new HashSet<String>();
+        int changes = 0;
+
+        changes += put(new InventoryRecord(InventoryRecord.Type.ORG, orgHref, null, null, null,
+                null), seen);
+
+        for (String vdcHref : Compute.getVdcHrefs(org)) {
+            VdcType vdc = getVdc(vdcHref, token);
+            if (null == vdc) {
+                keep(vdcHref, seen);
+                continue;
+            }
+
+            changes += put(new InventoryRecord(InventoryRecord.Type.VDC, vdcHref, vdc.getId(),
+                    vdc.getName(), orgHref, InventoryRecord.getVdcStatusName(vdc.getStatus())),
+                    seen);
+
+            for (Fetched fetched : getVApps(vdc, token)) {
+                VAppType vapp = fetched.vapp;
+                if (null == vapp) {
+                    keep(fetched.href, seen);
+                    continue;
+                }
+
+                changes += put(new InventoryRecord(InventoryRecord.Type.VAPP, fetched.href,
+                        vapp.getId(), vapp.getName(), vdcHref,
+                        InventoryRecord.getStatusName(vapp.getStatus())), seen);
+
+                if (null != vapp.getChildren()) {
+                    for (VmType vm : vapp.getChildren().getVm()) {
+                        changes += put(new InventoryRecord(InventoryRecord.Type.VM, vm.getHref(),
+                                vm.getId(), vm.getName(), fetched.href,
+                                InventoryRecord.getStatusName(vm.getStatus())), seen);
+                    }
+                }
+            }
+        }
+
+        // Anything below the org that was not seen during this walk, and is not below an entity
+        // that could not be retrieved, no longer exists. Children are removed before their
+        // parents.
+        List<InventoryRecord> existing = store.getDescendants(orgHref);
+        for (int i = existing.size() - 1; i >= 0; i--) {
+            if (!seen.contains(existing.get(i).getHref())) {
+                store.remove(existing.get(i).getHref());
+                changes++;
+            }
+        }
+
+        store.flush();
+        lastRefreshMillis = System.currentTimeMillis();
+
+        return changes;
+    }
+
+    /**
+     * Starts refreshing the store in the background, the first time right away and then with the
+     * provided delay between the end of a refresh and the start of the next. A failed refresh is
+     * recorded in getLastError() and retried at the next interval.
+     *
+     * @param intervalMillis
+     *            the delay between two refreshes, in milliseconds
+     */
+    public synchronized void start(long intervalMillis) {
+        if (null != scheduler) {
+            throw new IllegalStateException("The inventory refresher is already running");
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new AsyncExecutor.DaemonThreadFactory("vchs-inventory"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                    lastError = null;
+                } catch (RuntimeException e) {
+                    lastError = e;
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background refreshes started with start() and releases their thread. A refresh in
+     * progress is completed.
+     */
+    public synchronized void stop() {
+        if (null != scheduler) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return the time the last successful refresh completed at, or 0 if there was none
+     */
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    /**
+     * @return the failure of the last background refresh, or null if it succeeded
+     */
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+
+    private int put(InventoryRecord record, Set<String> seen) {
+        seen.add(record.getHref());
+
+        return record.equals(store.put(record)) ? 0 : 1;
+    }
+
+    /*
+     * Marks an entity that could not be retrieved, and everything the store has below it, as seen
+     * so that none of it is removed
+     */
+    private void keep(String href, Set<String> seen) {
+        seen.add(href);
+        for (InventoryRecord record : store.getDescendants(href)) {
+            seen.add(record.getHref());
+        }
+    }
+
+    private VdcType getVdc(String href, String token) {
+        try {
+            return Compute.getVdc(href, token, version);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Retrieves the vApps of a VDC concurrently, with a null vApp for each one that could not be
+     * retrieved, in the order the VDC lists them
+     */
+    private List<Fetched> getVApps(VdcType vdc, final String token) {
+        List<Callable<Fetched>> calls = new ArrayList<Callable<Fetched>>();
+        for (final String href : Compute.getVAppHrefs(vdc)) {
+            calls.add(new Callable<Fetched>() {
+                public Fetched call() {
+                    VAppType vapp;
+                    try {
+                        vapp = Compute.getVApp(href, token, version);
+                    } catch (RuntimeException e) {
+                        vapp = null;
+                    }
+
+                    return new Fetched(href, vapp);
+                }
+            });
+        }
+
+        return ParallelRequests.invokeAll(calls, ParallelRequests.DEFAULT_CONCURRENCY, true, null);
+    }
+
+    private static class Fetched {
+        final String href;
+        final VAppType vapp;
+
+        Fetched(String href, VAppType vapp) {
+            this.href = href;
+            this.vapp = vapp;
+        }
+    }
+}
@@ -0,0 +1,734 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.inventory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.http.Consts;
+
+/**
+ * This class is a local, file backed store of the org, VDC, vApp and VM inventory. It lets
+ * questions such as "which VDC owns this VM" be answered from memory, without walking the org,
+ * VDC, vApp and VM tree over the network, while an InventoryRefresher keeps it up to date in the
+ * background.
+ *
+ * Every change is appended to a log file. When the store is opened the log is read and replayed
+ * to rebuild the in memory indexes by href, id, name and parent. A torn write at the end of the
+ * log, for example after a crash, is detected through the checksum of each entry and cut off. Once
+ * the log holds many more entries than there are live records it is compacted into a new log
+ * holding one entry per record, which atomically replaces the old one.
+ *
+ * Besides records, the store keeps string properties, such as the watermark of the last
+ * incremental sync, so they are persisted along with the records they describe.
+ *
+ * Listeners added with addListener() are notified of every record that is added, changed or
+ * removed, after the change has been applied.
+ *
+ * All methods are thread safe. Reads only take a shared lock, so they never wait on each other.
+ */
+public class InventoryStore implements Closeable {
+    /*
+     * Version of the log format, written at the start of the file
+     */
+    private static final int LOG_FORMAT = 1;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_PROPERTY = 3;
+
+    /*
+     * The log is compacted when it holds more than this many entries per live record...
+     */
+    private static final int COMPACT_RATIO = 4;
+
+    /*
+     * ...and at least this many entries in total, so small logs are left alone
+     */
+    private static final int COMPACT_MIN_ENTRIES = 10000;
+
+    private final File file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, InventoryRecord> byHref = new HashMap<String, InventoryRecord>();
+    private final Map<String, String> hrefById = new HashMap<String, String>();
+    private final Map<String, Set<String>> hrefsByName = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> childHrefs = new HashMap<String, Set<String>>();
+    private final Map<String, String> properties = new HashMap<String, String>();
+
+    private final List<InventoryListener> listeners =
+            new CopyOnWriteArrayList<InventoryListener>();
+
+    private RandomAccessFile log;
+    private long logEntries = 0;
+
+    /**
+     * Opens the store kept in the provided file, creating the file if it does not exist yet.
+     *
+     * @param file
+     *            the log file of the store
+     */
+    public InventoryStore(File file) {
+        this.file = file;
+
+        try {
+            log = new RandomAccessFile(file, "rw");
+
+            if (log.length() == 0) {
+                log.writeInt(LOG_FORMAT);
+            } else {
+                replay();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open inventory store " + file, e);
+        }
+    }
+
+    /**
+     * Returns the record with the provided href.
+     *
+     * @param href
+     *            the href of the entity
+     * @return the record, or null if there is none
+     */
+    public InventoryRecord get(String href) {
+        lock.readLock().lock();
+        try {
+            return byHref.get(href);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the record with the provided id.
+     *
+     * @param id
+     *            the id of the entity (e.g. urn:vcloud:vm:...)
+     * @return the record, or null if there is none
+     */
+    public InventoryRecord getById(String id) {
+        lock.readLock().lock();
+        try {
+            String href = hrefById.get(id);
+
+            return null != href ? byHref.get(href) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the records of the provided type whose name matches, ignoring case.
+     *
+     * @param type
+     *            the kind of entity to look for, or null for any kind
+     * @param name
+     *            the name to match
+     * @return the matching records, empty if there are none
+     */
+    public List<InventoryRecord> findByName(InventoryRecord.Type type, String name) {
+        lock.readLock().lock();
+        try {
+            List<InventoryRecord> records = new ArrayList<InventoryRecord>();
+            Set<String> hrefs = hrefsByName.get(name.toLowerCase(Locale.ENGLISH));
+
+            if (null != hrefs) {
+                for (String href : hrefs) {
+                    InventoryRecord record = byHref.get(href);
+                    if (null == type || record.getType() == type) {
+                        records.add(record);
+                    }
+                }
+            }
+
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the records directly below the provided one, e.g. the vApps of a VDC.
+     *
+     * @param parentHref
+     *            the href of the parent entity
+     * @return the child records, empty if there are none
+     */
+    public List<InventoryRecord> getChildren(String parentHref) {
+        lock.readLock().lock();
+        try {
+            List<InventoryRecord> records = new ArrayList<InventoryRecord>();
+            Set<String> hrefs = childHrefs.get(parentHref);
+
+            if (null != hrefs) {
+                for (String href : hrefs) {
+                    records.add(byHref.get(href));
+                }
+            }
+
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns all the records below the provided one, at any depth.
+     *
+     * @param parentHref
+     *            the href of the top entity
+     * @return the descendant records, parents before their children
+     */
+    public List<InventoryRecord> getDescendants(String parentHref) {
+        lock.readLock().lock();
+        try {
+            List<InventoryRecord> records = new ArrayList<InventoryRecord>();
+            collectDescendants(parentHref, records);
+
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns all the records of the provided type.
+     *
+     * @param type
+     *            the kind of entity
+     * @return the records of that type
+     */
+    public List<InventoryRecord> getAll(InventoryRecord.Type type) {
+        lock.readLock().lock();
+        try {
+            List<InventoryRecord> records = new ArrayList<InventoryRecord>();
+
+            for (InventoryRecord record : byHref.values()) {
+                if (record.getType() == type) {
+                    records.add(record);
+                }
+            }
+
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walks up from the provided entity to the first entity of the provided type, e.g. from a VM
+     * to the VDC that owns it.
+     *
+     * @param href
+     *            the href of the entity to start from
+     * @param type
+     *            the kind of entity to look for
+     * @return the owning record, or null if there is none in the store
+     */
+    public InventoryRecord getOwner(String href, InventoryRecord.Type type) {
+        lock.readLock().lock();
+        try {
+            InventoryRecord record = byHref.get(href);
+
+            while (null != record && null != record.getParentHref()) {
+                record = byHref.get(record.getParentHref());
+                if (null != record && record.getType() == type) {
+                    return record;
+                }
+            }
+
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the VDC that owns the VM with the provided id or href.
+     *
+     * @param vm
+     *            the id (urn:vcloud:vm:...) or href of the VM
+     * @return the VDC record, or null if the VM or its VDC is not in the store
+     */
+    public InventoryRecord getVdcForVm(String vm) {
+        InventoryRecord record = getById(vm);
+
+        return getOwner(null != record ? record.getHref() : vm, InventoryRecord.Type.VDC);
+    }
+
+    /**
+     * @return the number of records in the store
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byHref.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces a record. Nothing is written if an identical record is already stored.
+     *
+     * @param record
+     *            the record to store
+     * @return the record it replaced, or null if it is new
+     */
+    public InventoryRecord put(InventoryRecord record) {
+        InventoryRecord previous;
+        boolean changed;
+
+        lock.writeLock().lock();
+        try {
+            previous = byHref.get(record.getHref());
+            changed = !record.equals(previous);
+
+            if (changed) {
+                append(encode(OP_PUT, record.getHref(), record, null));
+                apply(record);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (changed) {
+            fireChanged(previous, record);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Removes the record with the provided href. Records below it are kept, so a whole subtree
+     * must be removed record by record.
+     *
+     * @param href
+     *            the href of the entity to remove
+     * @return the removed record, or null if there was none
+     */
+    public InventoryRecord remove(String href) {
+        InventoryRecord previous;
+
+        lock.writeLock().lock();
+        try {
+            previous = byHref.get(href);
+
+            if (null != previous) {
+                append(encode(OP_REMOVE, href, null, null));
+                unapply(previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (null != previous) {
+            fireChanged(previous, null);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Returns the value of a property.
+     *
+     * @param key
+     *            the name of the property
+     * @return the value, or null if the property is not set
+     */
+    public String getProperty(String key) {
+        lock.readLock().lock();
+        try {
+            return properties.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets or clears a property.
+     *
+     * @param key
+     *            the name of the property
+     * @param value
+     *            the value of the property, or null to clear it
+     */
+    public void setProperty(String key, String value) {
+        lock.writeLock().lock();
+        try {
+            String previous = properties.get(key);
+
+            if (null == value ? null != previous : !value.equals(previous)) {
+                append(encode(OP_PROPERTY, key, null, value));
+                applyProperty(key, value);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a listener notified of every record added, changed or removed from now on.
+     *
+     * @param listener
+     *            the listener to add
+     */
+    public void addListener(InventoryListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     *            the listener to remove
+     */
+    public void removeListener(InventoryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Forces the changes written so far to disk, and compacts the log if it has grown much larger
+     * than the live data.
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            log.getChannel().force(false);
+
+            if (logEntries >= COMPACT_MIN_ENTRIES
+                    && logEntries > (long) COMPACT_RATIO * byHref.size()) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot flush inventory store " + file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the log so it holds exactly one entry per record. The compacted log is written to a
+     * temporary file which is then moved over the log in one atomic step, so the store is never
+     * left without a complete log. If compaction fails the store keeps using the old log.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        File tmp = new File(file.getPath() + ".tmp");
+        boolean logClosed = false;
+        try {
+            RandomAccessFile compacted = new RandomAccessFile(tmp, "rw");
+
+            try {
+                compacted.setLength(0);
+                compacted.writeInt(LOG_FORMAT);
+                for (InventoryRecord record : byHref.values()) {
+                    compacted.write(encode(OP_PUT, record.getHref(), record, null));
+                }
+                for (Map.Entry<String, String> property : properties.entrySet()) {
+                    compacted.write(encode(OP_PROPERTY, property.getKey(), null,
+                            property.getValue()));
+                }
+                compacted.getChannel().force(false);
+            } finally {
+                compacted.close();
+            }
+
+            // The log has to be closed for the move to succeed on Windows
+            log.close();
+            logClosed = true;
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            logEntries = byHref.size() + properties.size();
+        } catch (IOException e) {
+            tmp.delete();
+            throw new RuntimeException("Cannot compact inventory store " + file, e);
+        } finally {
+            try {
+                if (logClosed) {
+                    openLog();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Flushes and closes the log file.
+     */
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            log.getChannel().force(false);
+            log.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void collectDescendants(String parentHref, List<InventoryRecord> records) {
+        Set<String> hrefs = childHrefs.get(parentHref);
+
+        if (null != hrefs) {
+            for (String href : hrefs) {
+                records.add(byHref.get(href));
+                collectDescendants(href, records);
+            }
+        }
+    }
+
+    /*
+     * Reopens the log for appending, whichever of the old or compacted log is in place
+     */
+    private void openLog() {
+        try {
+            log = new RandomAccessFile(file, "rw");
+            log.seek(log.length());
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot reopen inventory store " + file, e);
+        }
+    }
+
+    /*
+     * Reads the whole log into memory and applies every entry. Stops at the first truncated or
+     * corrupt entry and cuts the log there. The log is read rather than memory mapped because a
+     * mapped file cannot be truncated on Windows while the mapping is alive, and there is no way
+     * to release a mapping on demand.
+     */
+    private void replay() throws IOException {
+        FileChannel channel = log.getChannel();
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Inventory store " + file + " is too large");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+
+        if (buffer.remaining() < 4 || buffer.getInt() != LOG_FORMAT) {
+            throw new IOException("Unsupported inventory store format in " + file);
+        }
+
+        long validLength = buffer.position();
+        CRC32 crc = new CRC32();
+
+        try {
+            while (buffer.remaining() >= 8) {
+                int length = buffer.getInt();
+                long checksum = buffer.getInt() & 0xffffffffL;
+
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                crc.reset();
+                crc.update(payload);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+
+                replayEntry(ByteBuffer.wrap(payload));
+                logEntries++;
+                validLength = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // Entry cut short, everything before it is kept
+        }
+
+        if (validLength < channel.size()) {
+            log.setLength(validLength);
+        }
+        log.seek(validLength);
+    }
+
+    private void replayEntry(ByteBuffer payload) {
+        byte op = payload.get();
+        String href = readString(payload);
+
+        if (op == OP_PUT) {
+            InventoryRecord.Type type = InventoryRecord.Type.valueOf(readString(payload));
+            InventoryRecord record = new InventoryRecord(type, href, readString(payload),
+                    readString(payload), readString(payload), readString(payload));
+            apply(record);
+        } else if (op == OP_REMOVE) {
+            InventoryRecord previous = byHref.get(href);
+            if (null != previous) {
+                unapply(previous);
+            }
+        } else if (op == OP_PROPERTY) {
+            applyProperty(href, readString(payload));
+        }
+    }
+
+    private void append(byte[] entry) {
+        try {
+            log.write(entry);
+            logEntries++;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write to inventory store " + file, e);
+        }
+    }
+
+    /*
+     * Encodes one log entry as length, CRC32 of the payload and payload. The key is the href of
+     * the record for OP_PUT and OP_REMOVE, or the name of the property for OP_PROPERTY.
+     */
+    private byte[] encode(byte op, String key, InventoryRecord record, String value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(op);
+            writeString(out, key);
+            if (op == OP_PUT) {
+                writeString(out, record.getType().name());
+                writeString(out, record.getId());
+                writeString(out, record.getName());
+                writeString(out, record.getParentHref());
+                writeString(out, record.getStatus());
+            } else if (op == OP_PROPERTY) {
+                writeString(out, value);
+            }
+            out.flush();
+
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            ByteBuffer entry = ByteBuffer.allocate(8 + payload.length);
+            entry.putInt(payload.length);
+            entry.putInt((int) crc.getValue());
+            entry.put(payload);
+
+            return entry.array();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot encode inventory store entry", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (null == value) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(Consts.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, Consts.UTF_8);
+    }
+
+    private void apply(InventoryRecord record) {
+        InventoryRecord previous = byHref.put(record.getHref(), record);
+        if (null != previous) {
+            unindex(previous);
+        }
+
+        if (null != record.getId()) {
+            hrefById.put(record.getId(), record.getHref());
+        }
+        if (null != record.getName()) {
+            addTo(hrefsByName, record.getName().toLowerCase(Locale.ENGLISH), record.getHref());
+        }
+        if (null != record.getParentHref()) {
+            addTo(childHrefs, record.getParentHref(), record.getHref());
+        }
+    }
+
+    private void applyProperty(String key, String value) {
+        if (null == value) {
+            properties.remove(key);
+        } else {
+            properties.put(key, value);
+        }
+    }
+
+    private void fireChanged(InventoryRecord previous, InventoryRecord current) {
+        for (InventoryListener listener : listeners) {
+            listener.changed(previous, current);
+        }
+    }
+
+    private void unapply(InventoryRecord record) {
+        byHref.remove(record.getHref());
+        unindex(record);
+    }
+
+    private void unindex(InventoryRecord record) {
+        if (null != record.getId()) {
+            hrefById.remove(record.getId());
+        }
+        if (null != record.getName()) {
+            removeFrom(hrefsByName, record.getName().toLowerCase(Locale.ENGLISH),
+                    record.getHref());
+        }
+        if (null != record.getParentHref()) {
+            removeFrom(childHrefs, record.getParentHref(), record.getHref());
+        }
+    }
+
+    private static void addTo(Map<String, Set<String>> index, String key, String href) {
+        Set<String> hrefs = index.get(key);
+        if (null == hrefs) {
+            hrefs = new LinkedHashSet<String>();
+            index.put(key, hrefs);
+        }
+        hrefs.add(href);
+    }
+
+    private static void removeFrom(Map<String, Set<String>> index, String key, String href) {
+        Set<String> hrefs = index.get(key);
+        if (null != hrefs) {
+            hrefs.remove(href);
+            if (hrefs.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.inventory;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+import com.vmware.vchs.api.samples.SampleConstants;
+import com.vmware.vchs.api.samples.services.Compute;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.ParallelRequests;
+import com.vmware.vcloud.api.rest.schema_v1_5.LinkType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultTaskRecordType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VmType;
+
+/**
+ * This class keeps an InventoryStore up to date by only looking at what changed since the last
+ * sync, instead of walking the whole org, VDC, vApp and VM tree again like InventoryRefresher.
+ *
+ * The vApp and VM records of the Query API carry no modification time, but every change to a vApp
+ * or VM (creation, power operation, reconfiguration, deletion) goes through a vCloud task. A sync
+ * therefore uses the Query API to list the tasks that ended after the watermark of the previous
+ * sync, or are still running, and retrieves only the vApps and VMs those tasks worked on. A vApp
+ * or VM that can no longer be retrieved has been deleted and is removed from the store. The
+ * changes are applied to the store, which notifies its InventoryListeners of each one.
+ *
+ * The watermark is kept as a property of the store, so it survives restarts. It is moved back by a
+ * small overlap to allow for clock differences with the server; tasks seen twice are harmless
+ * since unchanged records are not written again. When the store has no watermark yet, the first
+ * sync does a full refresh with InventoryRefresher.
+ */
+public class InventorySync {
+    /*
+     * How far before the start of the last sync the next one looks for tasks
+     */
+    public static final long DEFAULT_OVERLAP_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String WATERMARK_PROPERTY = "sync.watermark ";
+    private static final String VAPP_OBJECT_TYPE = "vApp";
+    private static final String VM_OBJECT_TYPE = "vm";
+
+    private final InventoryStore store;
+    private final String orgUrl;
+    private final String baseUrl;
+    private final String version;
+    private final Callable<String> tokenSource;
+    private volatile long overlapMillis = DEFAULT_OVERLAP_MILLIS;
+
+    /**
+     * @param store
+     *            the store to keep up to date
+     * @param orgUrl
+     *            the compute instance API url, as passed to Compute.getOrgDetails()
+     * @param version
+     *            the version of the API to call
+     * @param tokenSource
+     *            called before each sync to get a valid vCloud API token, for example through
+     *            TokenManager.getComputeToken()
+     */
+    public InventorySync(InventoryStore store, String orgUrl, String version,
+            Callable<String> tokenSource) {
+        this.store = store;
+        this.orgUrl = orgUrl;
+        this.baseUrl = Compute.getBaseUrl(orgUrl);
+        this.version = version;
+        this.tokenSource = tokenSource;
+    }
+
+    /**
+     * Sets how far before the start of the last sync the next one looks for tasks.
+     *
+     * @param overlap
+     *            the overlap in milliseconds
+     */
+    public void setOverlap(long overlap) {
+        if (overlap < 0) {
+            throw new IllegalArgumentException("Overlap must not be negative");
+        }
+
+        overlapMillis = overlap;
+    }
+
+    /**
+     * @return the time up to which changes are known to have been synced, or 0 if the store was
+     *         never synced
+     */
+    public long getWatermark() {
+        String watermark = store.getProperty(WATERMARK_PROPERTY + baseUrl);
+
+        return null != watermark ? Long.parseLong(watermark) : 0;
+    }
+
+    /**
+     * Applies the changes made since the last sync to the store, on the calling thread. If the
+     * sync fails the watermark is left where it was, so the next sync picks the changes up again.
+     *
+     * @return the number of records added, changed or removed
+     */
+    public synchronized int sync() {
+        long started = System.currentTimeMillis();
+        long watermark = getWatermark();
+        int changes;
+
+        if (watermark == 0) {
+            changes = new InventoryRefresher(store, orgUrl, version, tokenSource).refresh();
+        } else {
+            changes = syncSince(watermark, getToken());
+        }
+
+        store.setProperty(WATERMARK_PROPERTY + baseUrl, String.valueOf(started - overlapMillis));
+        store.flush();
+
+        return changes;
+    }
+
+    private int syncSince(long watermark, final String token) {
+        // Find the vApps and VMs touched by a task since the watermark
+        Set<String> vappHrefs = new LinkedHashSet<String>();
+        Set<String> vmHrefs = new LinkedHashSet<String>();
+
+        String query = "type=task&format=records&filter=(endDate=ge=" + formatDate(watermark)
+                + ",status==running,status==queued)";
+        for (QueryResultRecordType record : HttpUtils.queryRecords(baseUrl, query,
+                SampleConstants.DEFAULT_QUERY_PAGE_SIZE, version, token)) {
+            if (record instanceof QueryResultTaskRecordType) {
+                QueryResultTaskRecordType task = (QueryResultTaskRecordType) record;
+
+                if (VAPP_OBJECT_TYPE.equalsIgnoreCase(task.getObjectType())) {
+                    vappHrefs.add(task.getObject());
+                } else if (VM_OBJECT_TYPE.equalsIgnoreCase(task.getObjectType())) {
+                    vmHrefs.add(task.getObject());
+                }
+            }
+        }
+
+        // Retrieve them concurrently. VMs of a vApp that is retrieved anyway come along with it.
+        List<Fetch> calls = new ArrayList<Fetch>();
+        for (String href : vappHrefs) {
+            calls.add(new Fetch(href, VAppType.class, token));
+        }
+        for (String href : vmHrefs) {
+            InventoryRecord vm = store.get(href);
+            if (null == vm || !vappHrefs.contains(vm.getParentHref())) {
+                calls.add(new Fetch(href, VmType.class, token));
+            }
+        }
+
+        int changes = 0;
+        for (Fetched fetched : ParallelRequests.invokeAll(calls,
+                ParallelRequests.DEFAULT_CONCURRENCY, true, null)) {
+            if (null == fetched.entity) {
+                changes += removeTree(fetched.href);
+            } else if (fetched.entity instanceof VAppType) {
+                changes += applyVApp((VAppType) fetched.entity);
+            } else {
+                VmType vm = (VmType) fetched.entity;
+                changes += put(toRecord(vm, getUpHref(vm.getLink())));
+            }
+        }
+
+        return changes;
+    }
+
+    private int applyVApp(VAppType vapp) {
+        int changes = put(new InventoryRecord(InventoryRecord.Type.VAPP, vapp.getHref(),
+                vapp.getId(), vapp.getName(), getUpHref(vapp.getLink()),
+                InventoryRecord.getStatusName(vapp.getStatus())));
+
+        Set<String> vmHrefs = new HashSet<String>();
+        if (null != vapp.getChildren()) {
+            for (VmType vm : vapp.getChildren().getVm()) {
+                vmHrefs.add(vm.getHref());
+                changes += put(toRecord(vm, vapp.getHref()));
+            }
+        }
+
+        // VMs deleted from the vApp
+        for (InventoryRecord vm : store.getChildren(vapp.getHref())) {
+            if (!vmHrefs.contains(vm.getHref())) {
+                changes += removeTree(vm.getHref());
+            }
+        }
+
+        return changes;
+    }
+
+    private int removeTree(String href) {
+        int changes = 0;
+
+        List<InventoryRecord> descendants = store.getDescendants(href);
+        for (int i = descendants.size() - 1; i >= 0; i--) {
+            store.remove(descendants.get(i).getHref());
+            changes++;
+        }
+
+        if (null != store.remove(href)) {
+            changes++;
+        }
+
+        return changes;
+    }
+
+    private int put(InventoryRecord record) {
+        return record.equals(store.put(record)) ? 0 : 1;
+    }
+
+    private static InventoryRecord toRecord(VmType vm, String vappHref) {
+        return new InventoryRecord(InventoryRecord.Type.VM, vm.getHref(), vm.getId(),
+                vm.getName(), vappHref, InventoryRecord.getStatusName(vm.getStatus()));
+    }
+
+    private static String getUpHref(List<LinkType> links) {
+        for (LinkType link : links) {
+            if ("up".equalsIgnoreCase(link.getRel())) {
+                return link.getHref();
+            }
+        }
+
+        return null;
+    }
+
+    private String getToken() {
+        try {
+            return tokenSource.call();
+        } catch (Exception e) {
+            throw new RuntimeException("Cannot get a token to sync the inventory", e);
+        }
+    }
+
+    /*
+     * Formats a time the way the Query API expects dates in filters
+     */
+    private static String formatDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        return format.format(new Date(millis));
+    }
+
+    /**
+     * Retrieves a single vApp or VM. The result has a null entity if the object no longer exists.
+     */
+    private class Fetch implements Callable<Fetched> {
+        private final String href;
+        private final Class<?> clazz;
+        private final String token;
+
+        Fetch(String href, Class<?> clazz, String token) {
+            this.href = href;
+            this.clazz = clazz;
+            this.token = token;
+        }
+
+        public Fetched call() {
+            HttpGet get = new HttpGet(href);
+            get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
+            get.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION
+                    + version + ";charset=utf-8");
+
+            HttpResponse response = HttpUtils.httpInvoke(get);
+            int status = response.getStatusLine().getStatusCode();
+
+            if (status == HttpStatus.SC_OK) {
+                return new Fetched(href, HttpUtils.unmarshal(response.getEntity(), clazz));
+            }
+
+            // vCloud answers 403 rather than 404 for objects that no longer exist
+            if (status == HttpStatus.SC_NOT_FOUND || status == HttpStatus.SC_FORBIDDEN) {
+                return new Fetched(href, null);
+            }
+
+            throw new RuntimeException("Retrieving " + href + " returned "
+                    + response.getStatusLine());
+        }
+    }
+
+    private static class Fetched {
+        final String href;
+        final Object entity;
+
+        Fetched(String href, Object entity) {
+            this.href = href;
+            this.entity = entity;
+        }
+    }
+}